@@ -0,0 +1,96 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryUserStorage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность, перцентили задержки (режим SampleTime) и, с профилировщиком gc, байты на операцию
+ * для {@link RecommendationService} на синтетических оценках {@link SyntheticRatings}.
+ * getRecommendation(marks, uid) и getRecommendationFiltered каждый раз строят модель заново по всем оценкам,
+ * остальные методы читают модель, собранную один раз в setup.
+ * Запуск: mvn -P jmh test-compile exec:exec -Djmh.args="RecommendationBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RecommendationBenchmark {
+    @Param({"1000", "10000", "100000"})
+    private int users;
+
+    @Param("2000")
+    private int films;
+
+    @Param("20")
+    private int ratingsPerUser;
+
+    @Param("1.1")
+    private double zipfExponent;
+
+    private Map<Long, Map<Long, Integer>> marks;
+    private RecommendationService service;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        marks = new SyntheticRatings(users, films, ratingsPerUser, zipfExponent, 42).generate();
+        RatingMatrix matrix = RatingMatrix.of(marks);
+        service = new RecommendationService(new InMemoryUserStorage() {
+            @Override
+            public RatingMatrix getRatingMatrix() {
+                return matrix;
+            }
+        }, null, "", 0);
+        service.rebuild();
+        random = new SplittableRandom(7);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public Map<Long, Double> getRecommendation() {
+        return service.getRecommendation(marks, nextUser());
+    }
+
+    @Benchmark
+    public Map<Long, Double> getRecommendationFiltered() {
+        return service.getRecommendationFiltered(marks, nextUser());
+    }
+
+    @Benchmark
+    public Map<Long, Double> getRecommendationFromModel() {
+        return service.getRecommendation(nextUser());
+    }
+
+    @Benchmark
+    public List<Long> getTopRecommendations() {
+        return service.getTopRecommendations(nextUser(), 5.0, Paging.DEFAULT_PAGE_SIZE);
+    }
+
+    private long nextUser() {
+        return 1 + random.nextInt(users);
+    }
+}
@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Детерминированный генератор оценок для бенчмарков: популярность фильмов распределена по Ципфу
+ * (фильм ранга k выбирают с вероятностью, пропорциональной 1 / k^exponent), у каждого пользователя
+ * ratingsPerUser разных фильмов с оценками от 1 до 10. Одинаковый seed даёт одинаковые оценки.
+ */
+final class SyntheticRatings {
+    private final int users;
+    private final int films;
+    private final int ratingsPerUser;
+    private final double[] cumulative;
+    private final long seed;
+
+    SyntheticRatings(int users, int films, int ratingsPerUser, double exponent, long seed) {
+        if (ratingsPerUser > films) {
+            throw new IllegalArgumentException("ratingsPerUser " + ratingsPerUser + " > films " + films);
+        }
+        this.users = users;
+        this.films = films;
+        this.ratingsPerUser = ratingsPerUser;
+        this.seed = seed;
+        this.cumulative = new double[films];
+        double sum = 0;
+        for (int rank = 0; rank < films; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < films; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    /**
+     * @return Map&lt;userId, Map&lt;filmId, rate&gt;&gt;, id пользователей и фильмов начинаются с 1
+     */
+    Map<Long, Map<Long, Integer>> generate() {
+        SplittableRandom random = new SplittableRandom(seed);
+        Map<Long, Map<Long, Integer>> marks = new HashMap<>(users * 4 / 3 + 1);
+        for (long userId = 1; userId <= users; userId++) {
+            Map<Long, Integer> rates = new HashMap<>(ratingsPerUser * 4 / 3 + 1);
+            while (rates.size() < ratingsPerUser) {
+                rates.putIfAbsent(nextFilm(random), 1 + random.nextInt(10));
+            }
+            marks.put(userId, rates);
+        }
+        return marks;
+    }
+
+    private long nextFilm(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, films - 1) + 1;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.yandex.practicum.filmorate.controllers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.service.EntityCache;
+import ru.yandex.practicum.filmorate.service.FilmCache;
+import ru.yandex.practicum.filmorate.service.UserCache;
+
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+    private final FilmCache filmCache;
+    private final UserCache userCache;
+
+    public CacheController(FilmCache filmCache, UserCache userCache) {
+        this.filmCache = filmCache;
+        this.userCache = userCache;
+    }
+
+    @GetMapping("/stats")
+    public List<EntityCache.Stats> getStats() {
+        log.info("Get request for cache stats");
+        return List.of(filmCache.getStats(), userCache.getStats());
+    }
+}
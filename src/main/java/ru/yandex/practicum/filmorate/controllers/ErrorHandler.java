@@ -29,6 +29,12 @@ public class ErrorHandler {
         return Map.of("Not found", e.getMessage());
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public Map<String, String> conflict(ConflictException e) {
+        return Map.of("Conflict", e.getMessage());
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public Map<String, String> validationException(ValidationException e) {
@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.controllers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.service.EventLog;
+
+@Slf4j
+@RestController
+@RequestMapping("/events/log")
+public class EventLogController {
+    private final EventLog eventLog;
+
+    public EventLogController(EventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    @GetMapping("/stats")
+    public EventLog.Stats getStats() {
+        log.info("Get request for event log stats");
+        return eventLog.getStats();
+    }
+}
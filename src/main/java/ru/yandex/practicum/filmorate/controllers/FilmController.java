@@ -1,13 +1,26 @@
 package ru.yandex.practicum.filmorate.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRate;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.ImportReport;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.ImportService;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Collection;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -15,9 +28,13 @@ import java.util.Collection;
 public class FilmController {
 
     private final FilmService filmService;
+    private final ObjectMapper objectMapper;
+    private final ImportService importService;
 
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, ObjectMapper objectMapper, ImportService importService) {
         this.filmService = filmService;
+        this.objectMapper = objectMapper;
+        this.importService = importService;
     }
 
     @PostMapping
@@ -26,6 +43,18 @@ public class FilmController {
         return filmService.addFilm(film);
     }
 
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ImportReport importFilms(InputStream body) throws IOException {
+        log.info("Post request for films import");
+        return importService.importFilms(body);
+    }
+
+    @PostMapping(value = "/rates/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ImportReport importRates(InputStream body) throws IOException {
+        log.info("Post request for rates import");
+        return importService.importRates(body);
+    }
+
     @PutMapping
     public Film updateFilm(@Valid @RequestBody Film film) {
         log.info("Put request for film");
@@ -33,9 +62,33 @@ public class FilmController {
     }
 
     @GetMapping
-    public Collection<Film> getAllFilms() {
-        log.info("Get request for films");
-        return filmService.getAllFilms();
+    public Collection<FilmSummary> getAllFilms(@RequestParam(required = false) Long after,
+                                               @RequestParam(required = false) Integer limit) {
+        if (after == null && limit == null) {
+            log.info("Get request for films");
+            return filmService.getAllFilms();
+        }
+        log.info("Get request for films after id: {} limit: {}", after, limit);
+        return filmService.getFilmsPage(after, limit);
+    }
+
+    @GetMapping(params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> exportFilms() {
+        log.info("Get request for streaming export of films");
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                filmService.exportFilms(film -> {
+                    try {
+                        generator.writeObject(film);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     @GetMapping("/{id}")
@@ -44,6 +97,20 @@ public class FilmController {
         return filmService.getFilmById(id);
     }
 
+    @GetMapping("/{id}/rates")
+    public List<FilmRate> getFilmRates(@PathVariable Long id,
+                                       @RequestParam(required = false) Long after,
+                                       @RequestParam(required = false) Integer limit) {
+        log.info("Get request for rates of film: {} after user: {} limit: {}", id, after, limit);
+        return filmService.getFilmRates(id, after, limit);
+    }
+
+    @GetMapping("/{id}/similar")
+    public List<FilmSummary> getSimilarFilms(@PathVariable Long id, @RequestParam(required = false) Integer limit) {
+        log.info("Get request for films similar to film: {} limit: {}", id, limit);
+        return filmService.getSimilarFilms(id, limit);
+    }
+
     @PutMapping("/{id}/rate/{userId}")
     public void addRate(@PathVariable Long id, @PathVariable Long userId, @RequestParam Integer rate) {
         log.info("Put request to add rate {} to film: {} from user: {}", rate, id, userId);
@@ -57,9 +124,9 @@ public class FilmController {
     }
 
     @GetMapping("/popular")
-    public Collection<Film> getTopFilms(@RequestParam(defaultValue = "10") Integer count,
-                                        @RequestParam(defaultValue = "0") Integer genreId,
-                                        @RequestParam(defaultValue = "0") Integer year) {
+    public Collection<FilmSummary> getTopFilms(@RequestParam(defaultValue = "10") Integer count,
+                                               @RequestParam(defaultValue = "0") Integer genreId,
+                                               @RequestParam(defaultValue = "0") Integer year) {
         log.info("Get request for top {} films , genreId: {}, year: {}", count, genreId, year);
         return filmService.getTopFilms(count, genreId, year);
     }
@@ -71,19 +138,19 @@ public class FilmController {
     }
 
     @GetMapping("/director/{id}")
-    public Collection<Film> getFilmForDirector(@PathVariable Long id, @RequestParam String sortBy) {
+    public Collection<FilmSummary> getFilmForDirector(@PathVariable Long id, @RequestParam String sortBy) {
         log.info("Get request for films by director with id: {} sorted by {}", id, sortBy);
         return filmService.getFilmsForDirector(id, sortBy);
     }
 
     @GetMapping("/search")
-    public Collection<Film> getSearchResult(@RequestParam("query") @NotNull String query, @RequestParam("by") @NotNull String by) {
+    public Collection<FilmSummary> getSearchResult(@RequestParam("query") @NotNull String query, @RequestParam("by") @NotNull String by) {
         log.info("Get search request for films with query: {}, for fields {}", query, by);
         return filmService.getSearchResult(query, by);
     }
 
     @GetMapping("/common")
-    public Collection<Film> getCommonFilms(@RequestParam Long userId, @RequestParam Long friendId) {
+    public Collection<FilmSummary> getCommonFilms(@RequestParam Long userId, @RequestParam Long friendId) {
         log.info("Get common films for users: {} {}", userId, friendId);
         return filmService.getCommonFilms(userId, friendId);
     }
@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.controllers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.service.RateWriteQueue;
+
+@Slf4j
+@RestController
+@RequestMapping("/rates/queue")
+public class RateQueueController {
+    private final RateWriteQueue rateWriteQueue;
+
+    public RateQueueController(RateWriteQueue rateWriteQueue) {
+        this.rateWriteQueue = rateWriteQueue;
+    }
+
+    @GetMapping("/stats")
+    public RateWriteQueue.Stats getStats() {
+        log.info("Get request for rate write queue stats");
+        return rateWriteQueue.getStats();
+    }
+}
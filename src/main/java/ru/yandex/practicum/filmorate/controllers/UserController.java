@@ -1,6 +1,7 @@
 package ru.yandex.practicum.filmorate.controllers;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -8,14 +9,19 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.ImportReport;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.service.EventService;
+import ru.yandex.practicum.filmorate.service.ImportService;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 
 @Slf4j
@@ -25,11 +31,13 @@ public class UserController {
 
     private final UserService userService;
     private final EventService eventService;
+    private final ImportService importService;
 
 
-    public UserController(UserService userService, EventService eventService) {
+    public UserController(UserService userService, EventService eventService, ImportService importService) {
         this.userService = userService;
         this.eventService = eventService;
+        this.importService = importService;
     }
 
     @PostMapping
@@ -38,6 +46,12 @@ public class UserController {
         return userService.addUser(user);
     }
 
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ImportReport importUsers(InputStream body) throws IOException {
+        log.info("Post request for users import");
+        return importService.importUsers(body);
+    }
+
     @PutMapping
     public User updateUser(@Valid @RequestBody User user) {
         log.info("Put request for user");
@@ -45,9 +59,14 @@ public class UserController {
     }
 
     @GetMapping
-    public Collection<User> getAllUsers() {
-        log.info("Get request for users");
-        return userService.getAllUsers();
+    public Collection<User> getAllUsers(@RequestParam(required = false) Long after,
+                                        @RequestParam(required = false) Integer limit) {
+        if (after == null && limit == null) {
+            log.info("Get request for users");
+            return userService.getAllUsers();
+        }
+        log.info("Get request for users after id: {} limit: {}", after, limit);
+        return userService.getUsersPage(after, limit);
     }
 
     @GetMapping("/{id}")
@@ -93,8 +112,9 @@ public class UserController {
     }
 
     @GetMapping("/{id}/recommendations")
-    public Collection<Film> getRecommendations(@PathVariable long id) {
-        log.info("Get request for recommendation for user with id: {} ", id);
-        return userService.getRecommendation(id);
+    public Collection<FilmSummary> getRecommendations(@PathVariable long id,
+                                                      @RequestParam(required = false) Integer limit) {
+        log.info("Get request for {} recommendations for user with id: {} ", limit, id);
+        return userService.getRecommendation(id, limit);
     }
 }
@@ -25,6 +25,7 @@ public class Film {
     private Mpa mpa;
     private double avgRate;
     private Set<Director> directors = new HashSet<>();
+    private Long version;
 
     @AssertTrue(message = "releaseDate is before 1895.12.28")
     public boolean isReleaseDateAfter() {
@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Value;
+
+import java.util.Set;
+
+/**
+ * Всё, что нужно рейтингу популярных фильмов: год выпуска, жанры и счётчики оценок без самих оценок.
+ */
+@Value
+public class FilmRanking {
+    long filmId;
+    int year;
+    Set<Integer> genreIds;
+    long ratingSum;
+    int ratingCount;
+}
@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Set;
+
+/**
+ * Фильм в списках: без оценок каждого пользователя, только их среднее и количество.
+ * Полный список оценок отдаётся постранично через {@code GET /films/{id}/rates}.
+ */
+@Value
+@Builder
+public class FilmSummary {
+    long id;
+    String name;
+    Mpa mpa;
+    Set<Genre> genres;
+    Set<Director> directors;
+    double avgRate;
+    int ratingCount;
+
+    public static FilmSummary from(Film film) {
+        return from(film, film.getRates().size());
+    }
+
+    public static FilmSummary from(Film film, int ratingCount) {
+        return FilmSummary.builder()
+                .id(film.getId())
+                .name(film.getName())
+                .mpa(film.getMpa())
+                .genres(film.getGenres())
+                .directors(film.getDirectors())
+                .avgRate(film.getAvgRate())
+                .ratingCount(ratingCount)
+                .build();
+    }
+}
@@ -0,0 +1,32 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Data;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Итог построчного импорта: число добавленных и отклонённых строк и причины отказа по номерам строк.
+ */
+@Data
+public class ImportReport {
+    private long imported;
+    private long failed;
+    private List<LineError> errors = new ArrayList<>();
+
+    public void addImported(int count) {
+        imported += count;
+    }
+
+    public void addError(long line, String message) {
+        failed++;
+        errors.add(new LineError(line, message));
+    }
+
+    @Value
+    public static class LineError {
+        long line;
+        String message;
+    }
+}
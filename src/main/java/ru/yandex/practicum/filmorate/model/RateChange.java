@@ -0,0 +1,13 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Value;
+
+/**
+ * Итоговая оценка пользователя фильму после серии изменений; rate == null означает, что оценку удалили.
+ */
+@Value
+public class RateChange {
+    long filmId;
+    long userId;
+    Integer rate;
+}
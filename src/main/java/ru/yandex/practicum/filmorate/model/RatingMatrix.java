@@ -0,0 +1,224 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Все оценки фильмов в виде разреженной матрицы в формате CSR, сразу в двух ориентациях: строки по
+ * пользователям и строки по фильмам. Id пользователей и фильмов переотображены в плотные индексы
+ * 0..n-1 по возрастанию id; строка i занимает позиции [offsets[i], offsets[i + 1]) в массивах индексов
+ * столбцов и оценок, внутри строки столбцы отсортированы. На одну оценку приходится около 10 байт
+ * против сотни во вложенных HashMap. Матрица неизменяема.
+ */
+public final class RatingMatrix {
+    private final long[] userIds;
+    private final long[] filmIds;
+    private final int[] userOffsets;
+    private final int[] userFilms;
+    private final byte[] userRates;
+    private final int[] filmOffsets;
+    private final int[] filmUsers;
+    private final byte[] filmRates;
+
+    private RatingMatrix(long[] userIds, long[] filmIds, int[] userOffsets, int[] userFilms, byte[] userRates) {
+        this.userIds = userIds;
+        this.filmIds = filmIds;
+        this.userOffsets = userOffsets;
+        this.userFilms = userFilms;
+        this.userRates = userRates;
+        this.filmOffsets = new int[filmIds.length + 1];
+        this.filmUsers = new int[userFilms.length];
+        this.filmRates = new byte[userFilms.length];
+        for (int film : userFilms) {
+            filmOffsets[film + 1]++;
+        }
+        for (int film = 0; film < filmIds.length; film++) {
+            filmOffsets[film + 1] += filmOffsets[film];
+        }
+        int[] next = Arrays.copyOf(filmOffsets, filmIds.length);
+        for (int user = 0; user < userIds.length; user++) {
+            for (int position = userOffsets[user]; position < userOffsets[user + 1]; position++) {
+                int target = next[userFilms[position]]++;
+                filmUsers[target] = user;
+                filmRates[target] = userRates[position];
+            }
+        }
+    }
+
+    public static RatingMatrix of(Map<Long, Map<Long, Integer>> rates) {
+        int size = rates.values().stream().mapToInt(Map::size).sum();
+        Builder builder = new Builder(size);
+        new TreeMap<>(rates).forEach((userId, userRates) ->
+                new TreeMap<>(userRates).forEach((filmId, rate) -> builder.add(userId, filmId, rate)));
+        return builder.build();
+    }
+
+    public int size() {
+        return userFilms.length;
+    }
+
+    public int getUserCount() {
+        return userIds.length;
+    }
+
+    public int getFilmCount() {
+        return filmIds.length;
+    }
+
+    public long getUserId(int user) {
+        return userIds[user];
+    }
+
+    public long getFilmId(int film) {
+        return filmIds[film];
+    }
+
+    /**
+     * @return плотный индекс пользователя или -1, если у пользователя нет оценок
+     */
+    public int indexOfUser(long userId) {
+        int index = Arrays.binarySearch(userIds, userId);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return плотный индекс фильма или -1, если у фильма нет оценок
+     */
+    public int indexOfFilm(long filmId) {
+        int index = Arrays.binarySearch(filmIds, filmId);
+        return index < 0 ? -1 : index;
+    }
+
+    public int userStart(int user) {
+        return userOffsets[user];
+    }
+
+    public int userEnd(int user) {
+        return userOffsets[user + 1];
+    }
+
+    /**
+     * @return плотный индекс фильма на позиции position строк пользователей
+     */
+    public int userFilm(int position) {
+        return userFilms[position];
+    }
+
+    public int userRate(int position) {
+        return userRates[position];
+    }
+
+    public int filmStart(int film) {
+        return filmOffsets[film];
+    }
+
+    public int filmEnd(int film) {
+        return filmOffsets[film + 1];
+    }
+
+    /**
+     * @return плотный индекс пользователя на позиции position строк фильмов
+     */
+    public int filmUser(int position) {
+        return filmUsers[position];
+    }
+
+    public int filmRate(int position) {
+        return filmRates[position];
+    }
+
+    /**
+     * @return оценки пользователя: Map&lt;filmId, rate&gt;
+     */
+    public Map<Long, Integer> getUserRates(long userId) {
+        int user = indexOfUser(userId);
+        Map<Long, Integer> rates = new HashMap<>();
+        if (user >= 0) {
+            for (int position = userStart(user); position < userEnd(user); position++) {
+                rates.put(filmIds[userFilms[position]], userRate(position));
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * @return объём массивов матрицы в байтах без заголовков объектов
+     */
+    public long getSizeInBytes() {
+        return 8L * (userIds.length + filmIds.length)
+                + 4L * (userOffsets.length + filmOffsets.length)
+                + 5L * (userFilms.length + filmUsers.length);
+    }
+
+    /**
+     * Собирает матрицу из оценок, поступающих в порядке возрастания (user_id, film_id), например при
+     * потоковом чтении ResultSet. Фильмы получают временные индексы в порядке появления и переотображаются
+     * по возрастанию id в {@link #build()}; ожидаемое число оценок позволяет обойтись без перевыделения
+     * массивов.
+     */
+    public static final class Builder {
+        private long[] userIds = new long[16];
+        private int[] userOffsets = new int[17];
+        private int[] films;
+        private byte[] rates;
+        private final Map<Long, Integer> filmIndexes = new HashMap<>();
+        private int userCount;
+        private int size;
+        private long lastUserId = Long.MIN_VALUE;
+        private long lastFilmId = Long.MIN_VALUE;
+
+        public Builder(int expectedSize) {
+            films = new int[Math.max(expectedSize, 16)];
+            rates = new byte[films.length];
+        }
+
+        public Builder add(long userId, long filmId, int rate) {
+            if (rate < Byte.MIN_VALUE || rate > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Rate " + rate + " does not fit into rating matrix");
+            }
+            if (userId != lastUserId) {
+                if (userId < lastUserId) {
+                    throw new IllegalArgumentException("Rates must be ordered by user id: " + userId);
+                }
+                if (userCount == userIds.length) {
+                    userIds = Arrays.copyOf(userIds, userCount * 2);
+                    userOffsets = Arrays.copyOf(userOffsets, userCount * 2 + 1);
+                }
+                userIds[userCount++] = userId;
+                lastUserId = userId;
+            } else if (filmId <= lastFilmId) {
+                throw new IllegalArgumentException("Rates of user " + userId + " must be ordered by film id");
+            }
+            lastFilmId = filmId;
+            if (size == films.length) {
+                films = Arrays.copyOf(films, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+            }
+            films[size] = filmIndexes.computeIfAbsent(filmId, id -> filmIndexes.size());
+            rates[size] = (byte) rate;
+            size++;
+            userOffsets[userCount] = size;
+            return this;
+        }
+
+        public RatingMatrix build() {
+            long[] filmIds = new long[filmIndexes.size()];
+            filmIndexes.forEach((filmId, index) -> filmIds[index] = filmId);
+            long[] sortedFilmIds = filmIds.clone();
+            Arrays.sort(sortedFilmIds);
+            int[] remap = new int[filmIds.length];
+            for (int index = 0; index < filmIds.length; index++) {
+                remap[index] = Arrays.binarySearch(sortedFilmIds, filmIds[index]);
+            }
+            int[] remapped = size == films.length ? films : Arrays.copyOf(films, size);
+            for (int position = 0; position < size; position++) {
+                remapped[position] = remap[remapped[position]];
+            }
+            return new RatingMatrix(Arrays.copyOf(userIds, userCount), sortedFilmIds,
+                    Arrays.copyOf(userOffsets, userCount + 1), remapped,
+                    size == rates.length ? rates : Arrays.copyOf(rates, size));
+        }
+    }
+}
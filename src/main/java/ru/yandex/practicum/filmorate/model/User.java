@@ -24,4 +24,5 @@ public class User {
     @Past(message = "Birthday must be in past")
     private final LocalDate birthday;
     private Map<Long, String> friends = new HashMap<>();
+    private Long version;
 }
\ No newline at end of file
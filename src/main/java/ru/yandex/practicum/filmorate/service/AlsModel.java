@@ -0,0 +1,302 @@
+package ru.yandex.practicum.filmorate.service;
+
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Матричная факторизация оценок методом чередующихся наименьших квадратов (ALS-WR): оценка приближается
+ * средней оценкой плюс скалярным произведением векторов пользователя и фильма длины rank. На каждой итерации
+ * при зафиксированных векторах фильмов векторы пользователей находятся точно решением гребневой регрессии
+ * (A + lambda * n * I) x = b, затем наоборот; строки решаются параллельно в пуле вызывающего потока.
+ * Векторы хранятся подряд в float[] по строкам. Пользователь при выдаче рекомендаций не берётся из обучения,
+ * а заново вычисляется по его текущим оценкам тем же шагом, поэтому новые оценки учитываются сразу.
+ */
+final class AlsModel {
+    private static final int ROWS_PER_TASK = 512;
+
+    private final int rank;
+    private final float lambda;
+    private final float mean;
+    private final long[] filmIds;
+    private final Map<Long, Integer> filmIndexes = new HashMap<>();
+    private final float[] filmFactors;
+
+    private AlsModel(int rank, float lambda, float mean, long[] filmIds, float[] filmFactors) {
+        this.rank = rank;
+        this.lambda = lambda;
+        this.mean = mean;
+        this.filmIds = filmIds;
+        this.filmFactors = filmFactors;
+        for (int film = 0; film < filmIds.length; film++) {
+            filmIndexes.put(filmIds[film], film);
+        }
+    }
+
+    /**
+     * Обучает модель; параллельные шаги выполняются в пуле, из которого вызван метод.
+     */
+    static AlsModel train(RatingMatrix matrix, int rank, float lambda, int iterations, long seed) {
+        long sum = 0;
+        for (int i = 0; i < matrix.size(); i++) {
+            sum += matrix.userRate(i);
+        }
+        float mean = matrix.size() == 0 ? 0 : (float) sum / matrix.size();
+        Random random = new Random(seed);
+        float[] filmFactors = new float[matrix.getFilmCount() * rank];
+        for (int i = 0; i < filmFactors.length; i++) {
+            filmFactors[i] = (float) (random.nextGaussian() * 0.1);
+        }
+        float[] userFactors = new float[matrix.getUserCount() * rank];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            solveRows(matrix.getUserCount(), rank, lambda, mean, filmFactors, userFactors, (row, solver) -> {
+                for (int i = matrix.userStart(row); i < matrix.userEnd(row); i++) {
+                    solver.add(matrix.userFilm(i), matrix.userRate(i));
+                }
+            });
+            solveRows(matrix.getFilmCount(), rank, lambda, mean, userFactors, filmFactors, (row, solver) -> {
+                for (int i = matrix.filmStart(row); i < matrix.filmEnd(row); i++) {
+                    solver.add(matrix.filmUser(i), matrix.filmRate(i));
+                }
+            });
+        }
+        long[] filmIds = new long[matrix.getFilmCount()];
+        for (int film = 0; film < filmIds.length; film++) {
+            filmIds[film] = matrix.getFilmId(film);
+        }
+        return new AlsModel(rank, lambda, mean, filmIds, filmFactors);
+    }
+
+    int getRank() {
+        return rank;
+    }
+
+    int getFilmCount() {
+        return filmIds.length;
+    }
+
+    /**
+     * @return вектор пользователя с оценками userRates при обученных векторах фильмов;
+     *          фильмы, которых не было при обучении, не учитываются
+     */
+    float[] foldIn(Map<Long, Integer> userRates) {
+        RowSolver solver = new RowSolver(rank, lambda, mean, filmFactors);
+        userRates.forEach((filmId, rate) -> {
+            Integer film = filmIndexes.get(filmId);
+            if (film != null) {
+                solver.add(film, rate);
+            }
+        });
+        float[] factors = new float[rank];
+        solver.solveInto(factors, 0);
+        return factors;
+    }
+
+    /**
+     * @return прогноз оценки фильма filmId для пользователя с вектором factors или NaN для неизвестного фильма
+     */
+    double predict(float[] factors, long filmId) {
+        Integer film = filmIndexes.get(filmId);
+        return film == null ? Double.NaN : mean + dot(factors, filmFactors, film * rank);
+    }
+
+    /**
+     * Оценивает все фильмы одним проходом по массиву векторов и держит лучшие в куче размера limit.
+     * @return до limit id фильмов с прогнозом выше minRate, которых нет в userRates, по убыванию прогноза,
+     *          при равенстве по возрастанию id
+     */
+    List<Long> recommend(Map<Long, Integer> userRates, double minRate, int limit) {
+        float[] factors = foldIn(userRates);
+        int[] films = new int[limit];
+        float[] scores = new float[limit];
+        int size = 0;
+        for (int film = 0; film < filmIds.length; film++) {
+            float score = mean + dot(factors, filmFactors, film * rank);
+            if (score <= minRate || userRates.containsKey(filmIds[film])) {
+                continue;
+            }
+            if (size < limit) {
+                films[size] = film;
+                scores[size] = score;
+                siftUp(films, scores, size++);
+            } else if (size > 0 && isWorse(films[0], scores[0], film, score)) {
+                films[0] = film;
+                scores[0] = score;
+                siftDown(films, scores, 0, size);
+            }
+        }
+        Long[] result = new Long[size];
+        while (size > 0) {
+            result[--size] = filmIds[films[0]];
+            films[0] = films[size];
+            scores[0] = scores[size];
+            siftDown(films, scores, 0, size);
+        }
+        return new ArrayList<>(Arrays.asList(result));
+    }
+
+    /**
+     * Скалярное произведение с четырьмя независимыми суммами: цикл без зависимости по одной сумме
+     * JIT разворачивает и выполняет на конвейере без ожидания предыдущего сложения.
+     */
+    private static float dot(float[] factors, float[] matrix, int offset) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int k = 0;
+        for (; k + 3 < factors.length; k += 4) {
+            s0 += factors[k] * matrix[offset + k];
+            s1 += factors[k + 1] * matrix[offset + k + 1];
+            s2 += factors[k + 2] * matrix[offset + k + 2];
+            s3 += factors[k + 3] * matrix[offset + k + 3];
+        }
+        for (; k < factors.length; k++) {
+            s0 += factors[k] * matrix[offset + k];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private boolean isWorse(int film, float score, int otherFilm, float otherScore) {
+        if (score != otherScore) {
+            return score < otherScore;
+        }
+        return filmIds[film] > filmIds[otherFilm];
+    }
+
+    private void siftUp(int[] films, float[] scores, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!isWorse(films[index], scores[index], films[parent], scores[parent])) {
+                return;
+            }
+            swap(films, scores, index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int[] films, float[] scores, int index, int size) {
+        while (true) {
+            int worst = index;
+            for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                if (isWorse(films[child], scores[child], films[worst], scores[worst])) {
+                    worst = child;
+                }
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(films, scores, index, worst);
+            index = worst;
+        }
+    }
+
+    private static void swap(int[] films, float[] scores, int first, int second) {
+        int film = films[first];
+        films[first] = films[second];
+        films[second] = film;
+        float score = scores[first];
+        scores[first] = scores[second];
+        scores[second] = score;
+    }
+
+    private static void solveRows(int rows, int rank, float lambda, float mean, float[] fixed, float[] target,
+                                  RowRatings ratings) {
+        IntStream.range(0, (rows + ROWS_PER_TASK - 1) / ROWS_PER_TASK).parallel().forEach(task -> {
+            RowSolver solver = new RowSolver(rank, lambda, mean, fixed);
+            for (int row = task * ROWS_PER_TASK; row < Math.min(rows, (task + 1) * ROWS_PER_TASK); row++) {
+                solver.reset();
+                ratings.addTo(row, solver);
+                solver.solveInto(target, row * rank);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface RowRatings {
+        void addTo(int row, RowSolver solver);
+    }
+
+    /**
+     * Нормальные уравнения одной строки: A = сумма y * y^T, b = сумма (r - mean) * y по оценкам строки,
+     * решение (A + lambda * n * I) x = b разложением Холецкого. Буферы переиспользуются между строками.
+     */
+    private static final class RowSolver {
+        private final int rank;
+        private final float lambda;
+        private final float mean;
+        private final float[] fixed;
+        private final double[] a;
+        private final double[] b;
+        private int count;
+
+        private RowSolver(int rank, float lambda, float mean, float[] fixed) {
+            this.rank = rank;
+            this.lambda = lambda;
+            this.mean = mean;
+            this.fixed = fixed;
+            this.a = new double[rank * rank];
+            this.b = new double[rank];
+        }
+
+        private void reset() {
+            Arrays.fill(a, 0);
+            Arrays.fill(b, 0);
+            count = 0;
+        }
+
+        private void add(int other, int rate) {
+            int offset = other * rank;
+            double residual = rate - mean;
+            for (int i = 0; i < rank; i++) {
+                double yi = fixed[offset + i];
+                b[i] += residual * yi;
+                for (int j = 0; j <= i; j++) {
+                    a[i * rank + j] += yi * fixed[offset + j];
+                }
+            }
+            count++;
+        }
+
+        private void solveInto(float[] target, int offset) {
+            if (count == 0) {
+                Arrays.fill(target, offset, offset + rank, 0);
+                return;
+            }
+            double regularization = lambda * count;
+            for (int i = 0; i < rank; i++) {
+                a[i * rank + i] += regularization;
+            }
+            for (int i = 0; i < rank; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double sum = a[i * rank + j];
+                    for (int k = 0; k < j; k++) {
+                        sum -= a[i * rank + k] * a[j * rank + k];
+                    }
+                    a[i * rank + j] = i == j ? Math.sqrt(sum) : sum / a[j * rank + j];
+                }
+            }
+            for (int i = 0; i < rank; i++) {
+                double sum = b[i];
+                for (int k = 0; k < i; k++) {
+                    sum -= a[i * rank + k] * b[k];
+                }
+                b[i] = sum / a[i * rank + i];
+            }
+            for (int i = rank - 1; i >= 0; i--) {
+                double sum = b[i];
+                for (int k = i + 1; k < rank; k++) {
+                    sum -= a[k * rank + i] * b[k];
+                }
+                b[i] = sum / a[i * rank + i];
+                target[offset + i] = (float) b[i];
+            }
+        }
+    }
+}
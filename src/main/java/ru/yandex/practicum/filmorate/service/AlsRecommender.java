@@ -0,0 +1,116 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Рекомендации по латентным факторам {@link AlsModel}. Модель обучается на всех оценках при старте и
+ * переобучается по расписанию, если оценки изменились; пока движок рекомендаций не ALS, модель не обучается.
+ */
+@Service
+@Slf4j
+public class AlsRecommender {
+    private static final long SEED = 17;
+
+    private final UserStorage userStorage;
+    private final boolean enabled;
+    private final int rank;
+    private final float lambda;
+    private final int iterations;
+    private final ForkJoinPool pool;
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final Set<Long> removedFilms = ConcurrentHashMap.newKeySet();
+    private volatile AlsModel model;
+
+    /**
+     * @param rank        длина векторов пользователей и фильмов
+     * @param lambda      коэффициент регуляризации, умножается на число оценок строки
+     * @param iterations  число пар шагов по пользователям и фильмам
+     * @param parallelism число потоков обучения; 0 — по числу процессоров
+     */
+    public AlsRecommender(@Qualifier("UserDbStorage") UserStorage userStorage,
+                          @Value("${filmorate.recommendations.engine:SLOPE_ONE}") PrecomputedRecommendations.Engine engine,
+                          @Value("${filmorate.als.rank:16}") int rank,
+                          @Value("${filmorate.als.lambda:0.05}") float lambda,
+                          @Value("${filmorate.als.iterations:10}") int iterations,
+                          @Value("${filmorate.recommendations.parallelism:0}") int parallelism) {
+        this.userStorage = userStorage;
+        this.enabled = engine == PrecomputedRecommendations.Engine.ALS;
+        this.rank = rank;
+        this.lambda = lambda;
+        this.iterations = iterations;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            train();
+        }
+    }
+
+    public synchronized void train() {
+        long start = System.nanoTime();
+        changed.set(false);
+        Set<Long> removed = Set.copyOf(removedFilms);
+        RatingMatrix matrix = userStorage.getRatingMatrix();
+        model = pool.submit(() -> AlsModel.train(matrix, rank, lambda, iterations, SEED)).join();
+        removedFilms.removeAll(removed);
+        log.info("ALS model of rank {} trained on {} rates in {} iterations in {}ms using {} threads", rank,
+                matrix.size(), iterations, (System.nanoTime() - start) / 1_000_000, pool.getParallelism());
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.als.retrain-delay:PT30M}",
+            fixedDelayString = "${filmorate.als.retrain-delay:PT30M}")
+    public void retrain() {
+        if (enabled && changed.get()) {
+            train();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public void markChanged() {
+        changed.set(true);
+    }
+
+    public void removeFilm(long filmId) {
+        removedFilms.add(filmId);
+        changed.set(true);
+    }
+
+    /**
+     * @param userRates текущие оценки пользователя
+     * @return до limit id фильмов с прогнозом выше minRate по убыванию прогноза; пустой список, пока модель
+     *          не обучена
+     */
+    public List<Long> getRecommendations(Map<Long, Integer> userRates, double minRate, int limit) {
+        AlsModel current = model;
+        if (current == null || userRates.isEmpty()) {
+            return List.of();
+        }
+        List<Long> filmIds = current.recommend(userRates, minRate, limit + removedFilms.size());
+        return filmIds.stream()
+                .filter(filmId -> !removedFilms.contains(filmId))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+}
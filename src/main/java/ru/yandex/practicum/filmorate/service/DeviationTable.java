@@ -0,0 +1,435 @@
+package ru.yandex.practicum.filmorate.service;
+
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.service.ParallelDeviationBuilder.PairSums;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Модель slope-one: для каждой пары фильмов, оценённых одним пользователем, хранится сумма разностей оценок
+ * и число таких пользователей, на диагонали — число оценок фильма. Вместе с суммами хранятся оценки каждого
+ * пользователя, поэтому изменение одной оценки пересчитывает только пары с остальными фильмами этого
+ * пользователя. Суммы целочисленные, так что модель, собранная по шагам, совпадает с собранной заново.
+ */
+final class DeviationTable {
+    private final Map<Long, Ratings> userRates = new HashMap<>();
+    private final Map<Long, Map<Long, Deviation>> deviations = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    static DeviationTable of(RatingMatrix matrix) {
+        DeviationTable table = new DeviationTable();
+        for (int user = 0; user < matrix.getUserCount(); user++) {
+            int start = matrix.userStart(user);
+            int count = matrix.userEnd(user) - start;
+            long[] films = new long[count];
+            byte[] rates = new byte[count];
+            Ratings ratings = new Ratings(films, rates);
+            for (int i = 0; i < count; i++) {
+                films[i] = matrix.getFilmId(matrix.userFilm(start + i));
+                rates[i] = (byte) matrix.userRate(start + i);
+                table.apply(ratings, i, films[i], rates[i], 1);
+            }
+            table.userRates.put(matrix.getUserId(user), ratings);
+        }
+        return table;
+    }
+
+    /**
+     * Собирает ту же таблицу, что и {@link #of(RatingMatrix)}, считая суммы параллельно в pool.
+     */
+    static DeviationTable of(RatingMatrix matrix, ForkJoinPool pool) {
+        DeviationTable table = new DeviationTable();
+        if (matrix.size() == 0) {
+            return table;
+        }
+        PairSums sums = pool.invoke(new ParallelDeviationBuilder(matrix, 0, matrix.getUserCount()));
+        long filmCount = matrix.getFilmCount();
+        for (int slot = 0; slot < sums.capacity(); slot++) {
+            long key = sums.key(slot);
+            if (key >= 0) {
+                long filmId = matrix.getFilmId((int) (key / filmCount));
+                long otherId = matrix.getFilmId((int) (key % filmCount));
+                table.put(filmId, otherId, sums.sum(slot), sums.count(slot));
+                if (filmId != otherId) {
+                    table.put(otherId, filmId, -sums.sum(slot), sums.count(slot));
+                }
+            }
+        }
+        for (int user = 0; user < matrix.getUserCount(); user++) {
+            int start = matrix.userStart(user);
+            long[] films = new long[matrix.userEnd(user) - start];
+            byte[] rates = new byte[films.length];
+            for (int i = 0; i < films.length; i++) {
+                films[i] = matrix.getFilmId(matrix.userFilm(start + i));
+                rates[i] = (byte) matrix.userRate(start + i);
+            }
+            table.userRates.put(matrix.getUserId(user), new Ratings(films, rates));
+        }
+        return table;
+    }
+
+    /**
+     * Записывает оценки пользователей и суммы пар (filmId, otherId) с filmId &lt;= otherId; вторая половина
+     * таблицы восстанавливается зеркально в {@link #read(ByteBuffer)}. Под блокировкой чтения таблица только
+     * копируется в массивы, запись в out идёт уже без блокировки и не задерживает оценки.
+     * @return число записанных оценок
+     */
+    long write(DataOutput out) throws IOException {
+        long[] userIds;
+        Ratings[] ratings;
+        long[] pairs;
+        long[] sums;
+        int[] counts;
+        lock.readLock().lock();
+        try {
+            userIds = new long[userRates.size()];
+            ratings = new Ratings[userIds.length];
+            int user = 0;
+            for (Map.Entry<Long, Ratings> entry : userRates.entrySet()) {
+                userIds[user] = entry.getKey();
+                ratings[user++] = entry.getValue();
+            }
+            int pairCount = 0;
+            for (Map.Entry<Long, Map<Long, Deviation>> row : deviations.entrySet()) {
+                pairCount += row.getValue().keySet().stream().filter(otherId -> row.getKey() <= otherId).count();
+            }
+            pairs = new long[2 * pairCount];
+            sums = new long[pairCount];
+            counts = new int[pairCount];
+            int pair = 0;
+            for (Map.Entry<Long, Map<Long, Deviation>> row : deviations.entrySet()) {
+                long filmId = row.getKey();
+                for (Map.Entry<Long, Deviation> entry : row.getValue().entrySet()) {
+                    if (filmId <= entry.getKey()) {
+                        pairs[2 * pair] = filmId;
+                        pairs[2 * pair + 1] = entry.getKey();
+                        sums[pair] = entry.getValue().sum;
+                        counts[pair++] = entry.getValue().count;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        long ratingCount = 0;
+        out.writeInt(userIds.length);
+        for (int user = 0; user < userIds.length; user++) {
+            Ratings rates = ratings[user];
+            out.writeLong(userIds[user]);
+            out.writeInt(rates.size());
+            for (long filmId : rates.films) {
+                out.writeLong(filmId);
+            }
+            out.write(rates.rates);
+            ratingCount += rates.size();
+        }
+        out.writeLong(sums.length);
+        for (int pair = 0; pair < sums.length; pair++) {
+            out.writeLong(pairs[2 * pair]);
+            out.writeLong(pairs[2 * pair + 1]);
+            out.writeLong(sums[pair]);
+            out.writeInt(counts[pair]);
+        }
+        return ratingCount;
+    }
+
+    /**
+     * Читает таблицу, записанную {@link #write(DataOutput)}, без пересчёта сумм.
+     */
+    static DeviationTable read(ByteBuffer in) {
+        DeviationTable table = new DeviationTable();
+        int userCount = in.getInt();
+        for (int user = 0; user < userCount; user++) {
+            long userId = in.getLong();
+            long[] films = new long[in.getInt()];
+            byte[] rates = new byte[films.length];
+            for (int i = 0; i < films.length; i++) {
+                films[i] = in.getLong();
+            }
+            in.get(rates);
+            table.userRates.put(userId, new Ratings(films, rates));
+        }
+        long pairCount = in.getLong();
+        for (long pair = 0; pair < pairCount; pair++) {
+            long filmId = in.getLong();
+            long otherId = in.getLong();
+            long sum = in.getLong();
+            int count = in.getInt();
+            table.put(filmId, otherId, sum, count);
+            if (filmId != otherId) {
+                table.put(otherId, filmId, -sum, count);
+            }
+        }
+        return table;
+    }
+
+    void setRate(long userId, long filmId, int rate) {
+        lock.writeLock().lock();
+        try {
+            Ratings rates = userRates.getOrDefault(userId, Ratings.EMPTY).without(filmId);
+            Integer previous = userRates.getOrDefault(userId, Ratings.EMPTY).get(filmId);
+            if (previous != null) {
+                apply(rates, rates.size(), filmId, previous, -1);
+            }
+            apply(rates, rates.size(), filmId, rate, 1);
+            userRates.put(userId, rates.with(filmId, rate));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    Integer removeRate(long userId, long filmId) {
+        lock.writeLock().lock();
+        try {
+            Ratings current = userRates.getOrDefault(userId, Ratings.EMPTY);
+            Integer previous = current.get(filmId);
+            if (previous != null) {
+                Ratings rates = current.without(filmId);
+                apply(rates, rates.size(), filmId, previous, -1);
+                if (rates.size() == 0) {
+                    userRates.remove(userId);
+                } else {
+                    userRates.put(userId, rates);
+                }
+            }
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true, если у пользователя были оценки
+     */
+    boolean removeUser(long userId) {
+        lock.writeLock().lock();
+        try {
+            Ratings rates = userRates.get(userId);
+            if (rates != null) {
+                for (long filmId : rates.films) {
+                    removeRate(userId, filmId);
+                }
+            }
+            return rates != null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Заменяет все оценки фильма. Текущие оценщики ищутся перебором пользователей,
+     * поэтому метод предназначен для редких операций: создания, обновления и удаления фильма.
+     * @return true, если у фильма были или появились оценки
+     */
+    boolean putFilm(long filmId, Map<Long, Integer> rates) {
+        lock.writeLock().lock();
+        try {
+            List<Long> raters = new ArrayList<>();
+            userRates.forEach((userId, userFilms) -> {
+                if (userFilms.get(filmId) != null && !rates.containsKey(userId)) {
+                    raters.add(userId);
+                }
+            });
+            raters.forEach(userId -> removeRate(userId, filmId));
+            rates.forEach((userId, rate) -> setRate(userId, filmId, rate));
+            return !raters.isEmpty() || !rates.isEmpty();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    Map<Long, Integer> getUserRates(long userId) {
+        lock.readLock().lock();
+        try {
+            Ratings rates = userRates.getOrDefault(userId, Ratings.EMPTY);
+            Map<Long, Integer> result = new HashMap<>();
+            for (int i = 0; i < rates.size(); i++) {
+                result.put(rates.films[i], (int) rates.rates[i]);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Set<Long> getUsers() {
+        lock.readLock().lock();
+        try {
+            return Set.copyOf(userRates.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getRatingCount() {
+        lock.readLock().lock();
+        try {
+            return userRates.values().stream().mapToLong(Ratings::size).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Set<Long> getFilms() {
+        lock.readLock().lock();
+        try {
+            return Set.copyOf(deviations.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return прогноз оценок пользователя для фильмов, которые он не оценивал, но которые оценивали вместе
+     *          хотя бы с одним из его фильмов: среднее по его оценкам r_j, сдвинутым на среднее отклонение
+     *          dev(k, j), с весом по числу совместных оценок
+     */
+    Map<Long, Double> predict(long userId) {
+        lock.readLock().lock();
+        try {
+            Ratings rates = userRates.getOrDefault(userId, Ratings.EMPTY);
+            Map<Long, long[]> sums = new HashMap<>();
+            for (int i = 0; i < rates.size(); i++) {
+                int rate = rates.rates[i];
+                deviations.get(rates.films[i]).forEach((otherId, deviation) -> {
+                    if (rates.get(otherId) == null) {
+                        long[] sum = sums.computeIfAbsent(otherId, id -> new long[2]);
+                        sum[0] += (long) rate * deviation.count - deviation.sum;
+                        sum[1] += deviation.count;
+                    }
+                });
+            }
+            Map<Long, Double> predictions = new HashMap<>();
+            sums.forEach((filmId, sum) -> predictions.put(filmId, (double) sum[0] / sum[1]));
+            return predictions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long[] getDeviation(long filmId, long otherId) {
+        lock.readLock().lock();
+        try {
+            Deviation deviation = deviations.getOrDefault(filmId, Map.of()).get(otherId);
+            return deviation == null ? null : new long[]{deviation.sum, deviation.count};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return deviations.values().stream().mapToInt(Map::size).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет (sign = 1) или вычитает (sign = -1) вклад оценки rate фильма filmId в пары с первыми count
+     * оценками пользователя rates; сам filmId среди них не входит.
+     */
+    private void apply(Ratings rates, int count, long filmId, int rate, int sign) {
+        Map<Long, Deviation> row = deviations.computeIfAbsent(filmId, id -> new HashMap<>());
+        update(row, filmId, 0, sign);
+        for (int i = 0; i < count; i++) {
+            int diff = rate - rates.rates[i];
+            update(row, rates.films[i], diff, sign);
+            update(deviations.get(rates.films[i]), filmId, -diff, sign);
+        }
+        if (row.isEmpty()) {
+            deviations.remove(filmId);
+        }
+    }
+
+    private void put(long filmId, long otherId, long sum, int count) {
+        Deviation deviation = new Deviation();
+        deviation.sum = sum;
+        deviation.count = count;
+        deviations.computeIfAbsent(filmId, id -> new HashMap<>()).put(otherId, deviation);
+    }
+
+    private static void update(Map<Long, Deviation> row, long otherId, int diff, int sign) {
+        Deviation deviation = row.computeIfAbsent(otherId, id -> new Deviation());
+        deviation.sum += (long) sign * diff;
+        deviation.count += sign;
+        if (deviation.count == 0) {
+            row.remove(otherId);
+        }
+    }
+
+    private static final class Deviation {
+        private long sum;
+        private int count;
+    }
+
+    /**
+     * Оценки одного пользователя: id фильмов по возрастанию и оценки в параллельном массиве.
+     * Массивы не изменяются: добавление и удаление возвращают новый объект.
+     */
+    private static final class Ratings {
+        private static final Ratings EMPTY = new Ratings(new long[0], new byte[0]);
+
+        private final long[] films;
+        private final byte[] rates;
+
+        private Ratings(long[] films, byte[] rates) {
+            this.films = films;
+            this.rates = rates;
+        }
+
+        private int size() {
+            return films.length;
+        }
+
+        private Integer get(long filmId) {
+            int index = Arrays.binarySearch(films, filmId);
+            return index < 0 ? null : (int) rates[index];
+        }
+
+        private Ratings with(long filmId, int rate) {
+            int index = Arrays.binarySearch(films, filmId);
+            if (index >= 0) {
+                byte[] updated = rates.clone();
+                updated[index] = (byte) rate;
+                return new Ratings(films, updated);
+            }
+            int position = -index - 1;
+            long[] newFilms = new long[films.length + 1];
+            byte[] newRates = new byte[films.length + 1];
+            System.arraycopy(films, 0, newFilms, 0, position);
+            System.arraycopy(rates, 0, newRates, 0, position);
+            newFilms[position] = filmId;
+            newRates[position] = (byte) rate;
+            System.arraycopy(films, position, newFilms, position + 1, films.length - position);
+            System.arraycopy(rates, position, newRates, position + 1, films.length - position);
+            return new Ratings(newFilms, newRates);
+        }
+
+        private Ratings without(long filmId) {
+            int index = Arrays.binarySearch(films, filmId);
+            if (index < 0) {
+                return this;
+            }
+            long[] newFilms = new long[films.length - 1];
+            byte[] newRates = new byte[films.length - 1];
+            System.arraycopy(films, 0, newFilms, 0, index);
+            System.arraycopy(rates, 0, newRates, 0, index);
+            System.arraycopy(films, index + 1, newFilms, index, films.length - index - 1);
+            System.arraycopy(rates, index + 1, newRates, index, films.length - index - 1);
+            return new Ratings(newFilms, newRates);
+        }
+    }
+}
@@ -12,9 +12,13 @@ import java.util.Collection;
 @Slf4j
 public class DirectorService {
     private final DirectorStorage directorStorage;
+    private final FilmSearchIndex filmSearchIndex;
+    private final FilmCache filmCache;
 
-    public DirectorService(DirectorStorage directorStorage) {
+    public DirectorService(DirectorStorage directorStorage, FilmSearchIndex filmSearchIndex, FilmCache filmCache) {
         this.directorStorage = directorStorage;
+        this.filmSearchIndex = filmSearchIndex;
+        this.filmCache = filmCache;
     }
 
     public Collection<Director> getAll() {
@@ -29,16 +33,28 @@ public class DirectorService {
 
     public Director create(Director director) {
         log.debug("Adding director " + director);
-        return directorStorage.create(director);
+        Director created = directorStorage.create(director);
+        filmSearchIndex.putDirector(created);
+        return created;
     }
 
     public Director update(Director director) {
         log.debug("Update director " + director);
-        return directorStorage.update(director);
+        Director updated = directorStorage.update(director);
+        filmSearchIndex.putDirector(updated);
+        invalidateFilmsOf(updated.getId());
+        return updated;
     }
 
     public void delete(Long id) {
         log.debug("Delete director with id {}", id);
         directorStorage.delete(id);
+        filmSearchIndex.removeDirector(id);
+        invalidateFilmsOf(id);
+    }
+
+    private void invalidateFilmsOf(Long directorId) {
+        filmCache.invalidateIf(film -> film.getDirectors().stream()
+                .anyMatch(director -> directorId.equals(director.getId())));
     }
 }
@@ -0,0 +1,162 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Ограниченный по суммарному весу кэш сущностей с вытеснением давно не читавшихся (LRU) и временем жизни записи.
+ * Вес записи считает weigher, например по числу оценок фильма. Загрузка из хранилища идёт вне блокировки;
+ * если за время загрузки ключ был инвалидирован, загруженное значение в кэш не кладётся.
+ */
+public class EntityCache<K, V> {
+    private final String name;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToIntFunction<V> weigher;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long invalidations;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public EntityCache(String name, long maxWeight, Duration ttl, ToIntFunction<V> weigher) {
+        this(name, maxWeight, ttl, weigher, System::nanoTime);
+    }
+
+    EntityCache(String name, long maxWeight, Duration ttl, ToIntFunction<V> weigher, LongSupplier clock) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = ttl.toNanos();
+        this.weigher = weigher;
+        this.clock = clock;
+    }
+
+    /**
+     * @return значение из кэша или из loader; null от loader не кэшируется
+     */
+    public V get(K key, Function<K, V> loader) {
+        long invalidationsBefore;
+        synchronized (this) {
+            V cached = lookup(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+            invalidationsBefore = invalidations;
+        }
+        V loaded = loader.apply(key);
+        if (loaded != null) {
+            synchronized (this) {
+                if (invalidations == invalidationsBefore) {
+                    put(key, loaded);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    public synchronized V getIfPresent(K key) {
+        return lookup(key);
+    }
+
+    public synchronized void invalidate(K key) {
+        invalidations++;
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    /**
+     * Инвалидирует все записи, значения которых удовлетворяют условию, например фильмы удалённого режиссёра.
+     */
+    public synchronized void invalidateIf(Predicate<V> condition) {
+        invalidations++;
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry<V> entry = iterator.next();
+            if (condition.test(entry.value)) {
+                weight -= entry.weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(name, entries.size(), weight, maxWeight, hits, misses, evictions, expirations);
+    }
+
+    private V lookup(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() - entry.loadedAt > ttlNanos) {
+            entries.remove(key);
+            weight -= entry.weight;
+            expirations++;
+            return null;
+        }
+        return entry.value;
+    }
+
+    private void put(K key, V value) {
+        int entryWeight = Math.max(1, weigher.applyAsInt(value));
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        Entry<V> previous = entries.put(key, new Entry<>(value, entryWeight, clock.getAsLong()));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+        Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final int weight;
+        private final long loadedAt;
+
+        private Entry(V value, int weight, long loadedAt) {
+            this.value = value;
+            this.weight = weight;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    @Value
+    public static class Stats {
+        String name;
+        int size;
+        long weight;
+        long maxWeight;
+        long hits;
+        long misses;
+        long evictions;
+        long expirations;
+    }
+}
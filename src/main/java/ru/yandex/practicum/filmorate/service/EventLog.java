@@ -0,0 +1,277 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Журнал событий ленты с групповой записью. Запросы кладут события в {@link RingBuffer}, один фоновый
+ * поток забирает всё накопившееся, до max-group-size событий, и записывает группу одной транзакцией;
+ * пока идёт запись, в буфере собирается следующая группа. События записываются в порядке добавления,
+ * поэтому event_id растёт в том же порядке и события одного пользователя не переставляются.
+ * <p>
+ * В режиме {@link Durability#WAIT_FOR_COMMIT} запрос ждёт фиксации своей группы и получает ошибку,
+ * если событие не записалось; в режиме {@link Durability#FIRE_AND_FORGET} возвращается сразу, а
+ * события, не записанные до падения процесса, теряются. При заполнении буфера запрос ждёт записи.
+ * При остановке приложения журнал записывает всё, что осталось в буфере.
+ */
+@Service
+@Slf4j
+public class EventLog {
+    /**
+     * Число полос для отметок последнего события пользователя: пользователи одной полосы ждут
+     * события друг друга, зато память не растёт с числом пользователей.
+     */
+    private static final int USER_STRIPES = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long COMMIT_WAIT_MILLIS = 10;
+
+    private final EventStorage eventStorage;
+    private final TransactionOperations transactions;
+    private final Durability durability;
+    private final int maxGroupSize;
+    private final RingBuffer<Entry> buffer;
+    private final AtomicLongArray lastPositions = new AtomicLongArray(USER_STRIPES);
+    private final Object commitMonitor = new Object();
+    private final Object drainLock = new Object();
+    private final Thread writer;
+    private final LongAdder fullWaits = new LongAdder();
+
+    private volatile boolean closed;
+    private volatile boolean writerParked;
+    /**
+     * Позиция в буфере, до которой все события записаны или отклонены.
+     */
+    private volatile long committed;
+
+    private long groups;
+    private long failed;
+    private int maxGroup;
+    private long lastCommitNanos;
+    private long maxCommitNanos;
+    private long totalCommitNanos;
+
+    /**
+     * @param bufferSize   число событий в буфере, округляется вверх до степени двойки
+     * @param maxGroupSize наибольшее число событий в одной транзакции
+     */
+    public EventLog(EventStorage eventStorage, TransactionOperations transactions,
+                    @Value("${filmorate.events.durability:WAIT_FOR_COMMIT}") Durability durability,
+                    @Value("${filmorate.events.buffer-size:8192}") int bufferSize,
+                    @Value("${filmorate.events.max-group-size:512}") int maxGroupSize) {
+        this.eventStorage = eventStorage;
+        this.transactions = transactions;
+        this.durability = durability;
+        this.maxGroupSize = Math.max(1, maxGroupSize);
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.writer = new Thread(this::writeGroups, "event-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Добавляет событие в журнал. В режиме WAIT_FOR_COMMIT возвращается после записи события.
+     */
+    public void append(Event event) {
+        if (closed) {
+            awaitCommitted(event.getUserId());
+            eventStorage.addEvent(event);
+            return;
+        }
+        Entry entry = new Entry(event);
+        long position;
+        while ((position = buffer.offer(entry)) < 0) {
+            fullWaits.increment();
+            if (closed) {
+                drainAfterClose();
+            }
+            wakeWriter();
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+        lastPositions.accumulateAndGet(stripe(event.getUserId()), position + 1, Math::max);
+        wakeWriter();
+        if (closed) {
+            drainAfterClose();
+        }
+        if (durability == Durability.WAIT_FOR_COMMIT) {
+            awaitPosition(position + 1);
+            if (entry.error != null) {
+                throw entry.error;
+            }
+        }
+    }
+
+    /**
+     * Ждёт записи всех событий пользователя, добавленных до вызова. Нужен перед чтением ленты и перед
+     * записью события в обход журнала, чтобы оно не обогнало события пользователя из буфера.
+     */
+    public void awaitCommitted(long userId) {
+        awaitPosition(lastPositions.get(stripe(userId)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        LockSupport.unpark(writer);
+        drainAfterClose();
+        log.info("Event log flushed on shutdown");
+    }
+
+    public Stats getStats() {
+        long queued = buffer.size();
+        synchronized (commitMonitor) {
+            return new Stats(durability, (int) queued, buffer.capacity(), committed, failed, groups,
+                    groups == 0 ? 0 : (double) committed / groups, maxGroup, fullWaits.sum(),
+                    lastCommitNanos / 1_000_000.0, maxCommitNanos / 1_000_000.0,
+                    groups == 0 ? 0 : totalCommitNanos / 1_000_000.0 / groups);
+        }
+    }
+
+    private void writeGroups() {
+        List<Entry> group = new ArrayList<>(maxGroupSize);
+        while (!closed || !buffer.isEmpty()) {
+            if (buffer.drainTo(group, maxGroupSize) > 0) {
+                commit(group);
+                group.clear();
+                continue;
+            }
+            writerParked = true;
+            if (buffer.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+
+    /**
+     * Дописывает события, попавшие в буфер после остановки фонового потока. Потоком-читателем
+     * буфера здесь становится вызывающий.
+     */
+    private void drainAfterClose() {
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while flushing the event log", e);
+        }
+        synchronized (drainLock) {
+            List<Entry> group = new ArrayList<>(maxGroupSize);
+            while (buffer.drainTo(group, maxGroupSize) > 0) {
+                commit(group);
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Если группа отклонена базой, события записываются по одному, чтобы ошибка досталась только
+     * событиям, которые нельзя записать, например событию удалённого пользователя.
+     */
+    private void commit(List<Entry> group) {
+        List<Event> events = group.stream().map(entry -> entry.event).collect(Collectors.toList());
+        long start = System.nanoTime();
+        int rejected = 0;
+        try {
+            transactions.executeWithoutResult(status -> eventStorage.addEvents(events));
+        } catch (RuntimeException e) {
+            log.warn("Group of {} events is rejected, writing one by one: {}", group.size(), e.getMessage());
+            for (Entry entry : group) {
+                try {
+                    eventStorage.addEvent(entry.event);
+                } catch (RuntimeException eventError) {
+                    log.error("Failed to write event {}", entry.event, eventError);
+                    entry.error = eventError;
+                    rejected++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (commitMonitor) {
+            groups++;
+            failed += rejected;
+            maxGroup = Math.max(maxGroup, group.size());
+            lastCommitNanos = elapsed;
+            maxCommitNanos = Math.max(maxCommitNanos, elapsed);
+            totalCommitNanos += elapsed;
+            committed += group.size();
+            commitMonitor.notifyAll();
+        }
+        log.trace("Committed {} events in {}us", group.size(), elapsed / 1000);
+    }
+
+    private void awaitPosition(long position) {
+        if (committed >= position) {
+            return;
+        }
+        wakeWriter();
+        synchronized (commitMonitor) {
+            while (committed < position) {
+                if (closed && !writer.isAlive()) {
+                    break;
+                }
+                try {
+                    commitMonitor.wait(COMMIT_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the event log", e);
+                }
+            }
+        }
+        if (committed < position) {
+            drainAfterClose();
+        }
+    }
+
+    private void wakeWriter() {
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static int stripe(long userId) {
+        return (int) ((userId ^ (userId >>> 32)) & (USER_STRIPES - 1));
+    }
+
+    public enum Durability {
+        WAIT_FOR_COMMIT,
+        FIRE_AND_FORGET
+    }
+
+    private static final class Entry {
+        final Event event;
+        volatile RuntimeException error;
+
+        Entry(Event event) {
+            this.event = event;
+        }
+    }
+
+    @lombok.Value
+    public static class Stats {
+        Durability durability;
+        int queuedEvents;
+        int capacity;
+        long committedEvents;
+        long failedEvents;
+        long groups;
+        double avgGroupSize;
+        int maxGroupSize;
+        long fullBufferWaits;
+        double lastCommitMillis;
+        double maxCommitMillis;
+        double avgCommitMillis;
+    }
+}
@@ -16,15 +16,34 @@ public class EventService {
 
     private final EventStorage eventStorage;
     private final UserStorage userStorage;
+    private final EventLog eventLog;
+    private final RateWriteQueue rateWriteQueue;
 
-    public EventService(@Qualifier("UserDbStorage") UserStorage userStorage, EventStorage eventStorage) {
+    public EventService(@Qualifier("UserDbStorage") UserStorage userStorage, EventStorage eventStorage,
+                        EventLog eventLog, RateWriteQueue rateWriteQueue) {
         this.userStorage = userStorage;
         this.eventStorage = eventStorage;
+        this.eventLog = eventLog;
+        this.rateWriteQueue = rateWriteQueue;
     }
 
+    /**
+     * Отложенные события оценок пользователя записываются раньше, чтобы новое событие их не обогнало.
+     */
     public void addEvent(Event event) {
         log.debug("Adding event " + event);
-        eventStorage.addEvent(event);
+        rateWriteQueue.flushUserEvents(event.getUserId());
+        eventLog.append(event);
+    }
+
+    /**
+     * Ждёт записи событий пользователя из журнала и очереди отложенных оценок. Вызывается перед записью
+     * события в обход журнала, в одной транзакции с изменением, чтобы оно не обогнало более ранние события
+     * пользователя.
+     */
+    public void awaitUserEvents(long userId) {
+        rateWriteQueue.flushUserEvents(userId);
+        eventLog.awaitCommitted(userId);
     }
 
     public Collection<Event> getUserEvents(long id) {
@@ -32,6 +51,7 @@ public class EventService {
             throw new UserNotFoundException(Long.toString(id));
         }
         log.debug("Getting user id:{} events", id);
+        awaitUserEvents(id);
         return eventStorage.getUserEvents(id);
     }
 }
@@ -0,0 +1,19 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.time.Duration;
+
+/**
+ * Кэш фильмов по id. Вес фильма растёт с числом оценок, жанров и режиссёров.
+ */
+@Component
+public class FilmCache extends EntityCache<Long, Film> {
+    public FilmCache(@Value("${filmorate.cache.films.max-weight:200000}") long maxWeight,
+                     @Value("${filmorate.cache.films.ttl:10m}") Duration ttl) {
+        super("films", maxWeight, ttl,
+                film -> 1 + film.getRates().size() + film.getGenres().size() + film.getDirectors().size());
+    }
+}
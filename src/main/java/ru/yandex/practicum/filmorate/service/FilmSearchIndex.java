@@ -0,0 +1,196 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Триграммный индекс по названиям фильмов и именам режиссёров для поиска подстроки без учёта регистра.
+ * Кандидаты получаются пересечением списков id по всем триграммам запроса и затем проверяются
+ * на вхождение подстроки целиком. Запросы короче трёх символов проверяются перебором строк в памяти.
+ */
+@Service
+@Slf4j
+public class FilmSearchIndex {
+    private static final int GRAM = 3;
+
+    private final FilmStorage filmStorage;
+    private final DirectorStorage directorStorage;
+    private final Map<Long, String> titles = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> titleGrams = new ConcurrentHashMap<>();
+    private final Map<Long, String> directorNames = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> directorGrams = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> directorFilms = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> filmDirectors = new ConcurrentHashMap<>();
+
+    public FilmSearchIndex(@Qualifier("FilmDbStorage") FilmStorage filmStorage, DirectorStorage directorStorage) {
+        this.filmStorage = filmStorage;
+        this.directorStorage = directorStorage;
+    }
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        titles.clear();
+        titleGrams.clear();
+        directorNames.clear();
+        directorGrams.clear();
+        directorFilms.clear();
+        filmDirectors.clear();
+        directorStorage.getAll().forEach(this::putDirector);
+        filmStorage.getAllFilms().forEach(this::putFilm);
+        log.info("Search index built for {} films and {} directors", titles.size(), directorNames.size());
+    }
+
+    /**
+     * @return id фильмов, у которых название или имя одного из режиссёров содержит query
+     */
+    public Set<Long> search(String query, boolean byTitle, boolean byDirector) {
+        String needle = normalize(query);
+        Set<Long> result = new HashSet<>();
+        if (byTitle) {
+            result.addAll(match(titleGrams, titles, needle));
+        }
+        if (byDirector) {
+            for (Long directorId : match(directorGrams, directorNames, needle)) {
+                result.addAll(directorFilms.getOrDefault(directorId, Set.of()));
+            }
+        }
+        log.debug("Search for '{}' found {} films", query, result.size());
+        return result;
+    }
+
+    public synchronized void putFilm(Film film) {
+        long filmId = film.getId();
+        removeFilm(filmId);
+        String title = normalize(film.getName());
+        titles.put(filmId, title);
+        addGrams(titleGrams, filmId, title);
+        Set<Long> directorIds = ConcurrentHashMap.newKeySet();
+        if (film.getDirectors() != null) {
+            for (Director director : film.getDirectors()) {
+                if (!directorNames.containsKey(director.getId()) && director.getName() != null) {
+                    putDirector(director);
+                }
+                directorIds.add(director.getId());
+                directorFilms.computeIfAbsent(director.getId(), id -> ConcurrentHashMap.newKeySet()).add(filmId);
+            }
+        }
+        filmDirectors.put(filmId, directorIds);
+    }
+
+    public synchronized void removeFilm(long filmId) {
+        String title = titles.remove(filmId);
+        if (title != null) {
+            removeGrams(titleGrams, filmId, title);
+        }
+        Set<Long> directorIds = filmDirectors.remove(filmId);
+        if (directorIds != null) {
+            for (Long directorId : directorIds) {
+                Set<Long> films = directorFilms.get(directorId);
+                if (films != null) {
+                    films.remove(filmId);
+                }
+            }
+        }
+    }
+
+    public synchronized void putDirector(Director director) {
+        String previous = directorNames.get(director.getId());
+        if (previous != null) {
+            removeGrams(directorGrams, director.getId(), previous);
+        }
+        String name = normalize(director.getName());
+        directorNames.put(director.getId(), name);
+        addGrams(directorGrams, director.getId(), name);
+    }
+
+    public synchronized void removeDirector(long directorId) {
+        String name = directorNames.remove(directorId);
+        if (name != null) {
+            removeGrams(directorGrams, directorId, name);
+        }
+        Set<Long> films = directorFilms.remove(directorId);
+        if (films != null) {
+            for (Long filmId : films) {
+                Set<Long> directorIds = filmDirectors.get(filmId);
+                if (directorIds != null) {
+                    directorIds.remove(directorId);
+                }
+            }
+        }
+    }
+
+    private static Set<Long> match(Map<String, Set<Long>> grams, Map<Long, String> texts, String needle) {
+        Set<Long> result = new HashSet<>();
+        if (needle.length() < GRAM) {
+            texts.forEach((id, text) -> {
+                if (text.contains(needle)) {
+                    result.add(id);
+                }
+            });
+            return result;
+        }
+        List<Set<Long>> postings = new ArrayList<>();
+        for (String gram : grams(needle)) {
+            Set<Long> posting = grams.get(gram);
+            if (posting == null || posting.isEmpty()) {
+                return result;
+            }
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+        for (Long id : postings.get(0)) {
+            if (postings.stream().skip(1).allMatch(posting -> posting.contains(id))) {
+                String text = texts.get(id);
+                if (text != null && text.contains(needle)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addGrams(Map<String, Set<Long>> grams, long id, String text) {
+        for (String gram : grams(text)) {
+            grams.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    private static void removeGrams(Map<String, Set<Long>> grams, long id, String text) {
+        for (String gram : grams(text)) {
+            Set<Long> posting = grams.get(gram);
+            if (posting != null) {
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+}
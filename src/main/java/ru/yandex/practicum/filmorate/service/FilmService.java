@@ -4,42 +4,133 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exceptions.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.exceptions.NotFoundException;
 import ru.yandex.practicum.filmorate.exceptions.RateIsIncorrectException;
+import ru.yandex.practicum.filmorate.exceptions.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRate;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.RateChange;
 import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.model.event.EventOperations;
 import ru.yandex.practicum.filmorate.model.event.EventTypes;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class FilmService {
+    private static final int EXPORT_PAGE_SIZE = 500;
     private final FilmStorage filmStorage;
     private final UserService userService;
-    private final EventService eventService;
+    private final RateWriteQueue rateWriteQueue;
+    private final LeaderboardService leaderboardService;
+    private final FilmSearchIndex filmSearchIndex;
+    private final SocialGraphIndex socialGraphIndex;
+    private final FilmCache filmCache;
+    private final RecommendationService recommendationService;
+    private final SimilarUsersIndex similarUsersIndex;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final AlsRecommender alsRecommender;
+    private final PrecomputedRecommendations recommendations;
 
-    public FilmService(@Qualifier("FilmDbStorage") FilmStorage filmStorage, UserService userService, EventService eventService) {
+    public FilmService(@Qualifier("FilmDbStorage") FilmStorage filmStorage, UserService userService,
+                       RateWriteQueue rateWriteQueue, LeaderboardService leaderboardService,
+                       FilmSearchIndex filmSearchIndex, SocialGraphIndex socialGraphIndex, FilmCache filmCache,
+                       RecommendationService recommendationService, SimilarUsersIndex similarUsersIndex,
+                       SimilarFilmsIndex similarFilmsIndex, AlsRecommender alsRecommender,
+                       PrecomputedRecommendations recommendations) {
         this.filmStorage = filmStorage;
         this.userService = userService;
-        this.eventService = eventService;
+        this.rateWriteQueue = rateWriteQueue;
+        this.leaderboardService = leaderboardService;
+        this.filmSearchIndex = filmSearchIndex;
+        this.socialGraphIndex = socialGraphIndex;
+        this.filmCache = filmCache;
+        this.recommendationService = recommendationService;
+        this.similarUsersIndex = similarUsersIndex;
+        this.similarFilmsIndex = similarFilmsIndex;
+        this.alsRecommender = alsRecommender;
+        this.recommendations = recommendations;
     }
 
     public Film addFilm(Film film) {
         log.debug("Adding film " + film);
-        return filmStorage.addFilm(film);
+        Film added = filmStorage.addFilm(film);
+        putIntoIndexes(added);
+        return added;
     }
 
+    /**
+     * Добавляет фильмы одним пакетом; возвращённые фильмы не перечитываются из базы.
+     */
+    public List<Film> addFilms(List<Film> films) {
+        log.debug("Adding {} films in batch", films.size());
+        List<Film> added = filmStorage.addFilms(films);
+        added.forEach(this::putIntoIndexes);
+        return added;
+    }
+
+    private void putIntoIndexes(Film added) {
+        leaderboardService.put(added);
+        filmSearchIndex.putFilm(added);
+        socialGraphIndex.putFilm(added.getId(), added.getRates().keySet());
+        recommendationService.putFilm(added.getId(), added.getRates());
+        similarUsersIndex.putFilm(added.getId(), added.getRates());
+        similarFilmsIndex.markChanged();
+        alsRecommender.markChanged();
+        recommendations.markChanged(added.getRates().keySet());
+    }
+
+    /**
+     * Фильм с версией обновляется, только если версия не изменилась, иначе клиент получает конфликт.
+     * Оценки из тела запроса не записываются, поэтому обновление без версии не может затереть оценки,
+     * добавленные после того, как клиент прочитал фильм.
+     */
     public Film updateFilm(Film film) {
         log.debug("Updating film " + film);
-        return filmStorage.updateFilm(film);
+        Film updated = rateWriteQueue.withPending(filmStorage.updateFilm(film));
+        filmCache.invalidate(updated.getId());
+        leaderboardService.update(updated);
+        filmSearchIndex.putFilm(updated);
+        return updated;
     }
 
-    public Collection<Film> getAllFilms() {
+    public Collection<FilmSummary> getAllFilms() {
         log.debug("Getting all films");
-        return filmStorage.getAllFilms();
+        return filmStorage.getFilmSummaries(0, Integer.MAX_VALUE);
+    }
+
+    public Collection<FilmSummary> getFilmsPage(Long after, Integer limit) {
+        int pageSize = Paging.pageSize(limit);
+        log.debug("Getting {} films after id {}", pageSize, after);
+        return filmStorage.getFilmSummaries(after == null ? 0 : after, pageSize);
+    }
+
+    /**
+     * Передаёт все фильмы в consumer постранично, не держа в памяти больше одной страницы.
+     */
+    public void exportFilms(Consumer<Film> consumer) {
+        log.debug("Exporting all films");
+        rateWriteQueue.flush();
+        long after = 0;
+        Collection<Film> page;
+        do {
+            page = filmStorage.getFilmsPage(after, EXPORT_PAGE_SIZE);
+            for (Film film : page) {
+                consumer.accept(film);
+                after = film.getId();
+            }
+        } while (page.size() == EXPORT_PAGE_SIZE);
     }
 
     public void addRate(long userId, long filmId, int rate) {
@@ -47,77 +138,157 @@ public class FilmService {
             throw new RateIsIncorrectException("Rate cannot be less then 1 and more then 10 at Film Id: " + filmId);
         }
         userService.isExist(userId);
-        Film film = getFilmById(filmId);
-        log.debug("Adding rate {} to film: {} from user: {}", rate, film, userId);
-        film.getRates().put(userId, rate);
-        filmStorage.updateFilm(film);
-        eventService.addEvent(Event.builder()
-                .userId(userId)
-                .entityId(filmId)
-                .eventType(EventTypes.RATE)
-                .operation(EventOperations.ADD)
-                .timestamp(Instant.now().toEpochMilli())
-                .filmRate(rate)
-                .build());
+        log.debug("Adding rate {} to film: {} from user: {}", rate, filmId, userId);
+        Integer previousRate = rateWriteQueue.addRate(filmId, userId, rate);
+        filmCache.invalidate(filmId);
+        leaderboardService.addRate(filmId, previousRate, rate);
+        socialGraphIndex.addRate(userId, filmId);
+        recommendationService.setRate(userId, filmId, rate);
+        similarUsersIndex.setRate(userId, filmId, rate);
+        similarFilmsIndex.markChanged();
+        alsRecommender.markChanged();
+        recommendations.markChanged(userId);
+    }
+
+    /**
+     * Записывает оценки одним пакетом мимо очереди отложенной записи, предварительно сбросив её.
+     *
+     * @return для каждой оценки предыдущая оценка в виде RateChange или null, если фильма
+     *          или пользователя нет
+     */
+    public List<RateChange> addRates(List<RateChange> rates) {
+        log.debug("Adding {} rates in batch", rates.size());
+        rateWriteQueue.flush();
+        long timestamp = Instant.now().toEpochMilli();
+        List<Event> events = rates.stream()
+                .map(rate -> Event.builder()
+                        .userId(rate.getUserId())
+                        .entityId(rate.getFilmId())
+                        .eventType(EventTypes.RATE)
+                        .operation(EventOperations.ADD)
+                        .timestamp(timestamp)
+                        .filmRate(rate.getRate())
+                        .build())
+                .collect(Collectors.toList());
+        List<RateChange> previous = filmStorage.saveRates(rates, events);
+        for (int i = 0; i < rates.size(); i++) {
+            if (previous.get(i) == null) {
+                continue;
+            }
+            long userId = rates.get(i).getUserId();
+            long filmId = rates.get(i).getFilmId();
+            int rate = rates.get(i).getRate();
+            filmCache.invalidate(filmId);
+            leaderboardService.addRate(filmId, previous.get(i).getRate(), rate);
+            socialGraphIndex.addRate(userId, filmId);
+            recommendationService.setRate(userId, filmId, rate);
+            similarUsersIndex.setRate(userId, filmId, rate);
+            recommendations.markChanged(userId);
+        }
+        similarFilmsIndex.markChanged();
+        alsRecommender.markChanged();
+        return previous;
     }
 
     public void removeRate(long userId, long filmId) {
         userService.isExist(userId);
-        Film film = getFilmById(filmId);
-        int previousRate = film.getRates().get(userId);
-        log.debug("Removing rate to film: {} from user: {}", film, userId);
-        film.getRates().remove(userId);
-        filmStorage.updateFilm(film);
-        eventService.addEvent(Event.builder()
-                .userId(userId)
-                .entityId(filmId)
-                .eventType(EventTypes.RATE)
-                .operation(EventOperations.REMOVE)
-                .timestamp(Instant.now().toEpochMilli())
-                .filmRate(previousRate)
-                .build());
-    }
-
-    public Collection<Film> getTopFilms(Integer size, Integer genreId, Integer year) {
+        log.debug("Removing rate to film: {} from user: {}", filmId, userId);
+        Integer previousRate = rateWriteQueue.removeRate(filmId, userId);
+        filmCache.invalidate(filmId);
+        if (previousRate == null) {
+            log.warn("User {} has no rate for film {}", userId, filmId);
+            throw new NotFoundException("Rate from user " + userId + " for film " + filmId + " is not found");
+        }
+        leaderboardService.removeRate(filmId, previousRate);
+        socialGraphIndex.removeRate(userId, filmId);
+        recommendationService.removeRate(userId, filmId);
+        similarUsersIndex.removeRate(userId, filmId);
+        similarFilmsIndex.markChanged();
+        alsRecommender.markChanged();
+        recommendations.markChanged(userId);
+    }
+
+    public Collection<FilmSummary> getTopFilms(Integer size, Integer genreId, Integer year) {
         log.debug("Get top {} films", size);
-        return filmStorage.getTopFilms(size, genreId, year);
+        return filmStorage.getFilmSummariesByIds(leaderboardService.getTop(size, genreId, year));
     }
 
     public Film getFilmById(long filmId) {
-        Film film = filmStorage.getById(filmId);
+        Film film = filmCache.get(filmId, filmStorage::getById);
         if (film == null) {
             log.warn("Film with id {} doesn't exist", filmId);
             throw new FilmNotFoundException(Long.toString(filmId));
         }
         log.debug("Get film with id: {}", filmId);
-        return film;
+        return rateWriteQueue.withPending(film);
+    }
+
+    /**
+     * @return оценки фильма по возрастанию id пользователя, начиная после пользователя after
+     */
+    public List<FilmRate> getFilmRates(long filmId, Long after, Integer limit) {
+        isExist(filmId);
+        int pageSize = Paging.pageSize(limit);
+        log.debug("Getting {} rates of film {} after user {}", pageSize, filmId, after);
+        if (rateWriteQueue.hasPending(filmId)) {
+            rateWriteQueue.flush();
+        }
+        return filmStorage.getFilmRates(filmId, after == null ? 0 : after, pageSize);
     }
 
-    public Collection<Film> getFilmsForDirector(Long id, String sortBy) {
+    public Collection<FilmSummary> getFilmsForDirector(Long id, String sortBy) {
         log.debug("Get films by director with id: {} sorted by {}", id, sortBy);
-        return filmStorage.getFilmsForDirectorSorted(id, sortBy);
+        return filmStorage.getFilmSummariesForDirector(id, sortBy);
     }
 
     public void deleteFilm(long id) {
+        rateWriteQueue.flush();
         if (!filmStorage.deleteFilm(filmStorage.getById(id))) {
             throw new FilmNotFoundException("Film with id " + id + " not found!");
         }
+        filmCache.invalidate(id);
+        leaderboardService.remove(id);
+        filmSearchIndex.removeFilm(id);
+        socialGraphIndex.removeFilm(id);
+        recommendationService.removeFilm(id);
+        similarUsersIndex.putFilm(id, Map.of());
+        similarFilmsIndex.removeFilm(id);
+        alsRecommender.removeFilm(id);
     }
 
-    public Collection<Film> getSearchResult(String query, String by) {
+    /**
+     * @return до limit фильмов, похожих на фильм id по оценкам пользователей, по убыванию сходства
+     */
+    public List<FilmSummary> getSimilarFilms(long id, Integer limit) {
+        isExist(id);
+        int pageSize = Paging.pageSize(limit);
+        log.debug("Getting {} films similar to film {}", pageSize, id);
+        return filmStorage.getFilmSummariesByIds(similarFilmsIndex.getSimilarFilms(id, pageSize));
+    }
+
+    public Collection<FilmSummary> getSearchResult(String query, String by) {
         log.debug("Get search request for films with query: {}, for fields {}", query, by);
-        return filmStorage.getSearchResult(query, by);
+        Set<String> columns = Set.of(by.split(","));
+        if (!columns.contains("director") && !columns.contains("title")) {
+            throw new ValidationException("Error in search params 'by' = " + by);
+        }
+        Set<Long> ids = filmSearchIndex.search(query, columns.contains("title"), columns.contains("director"));
+        List<FilmSummary> films = filmStorage.getFilmSummariesByIds(new ArrayList<>(ids));
+        films.sort(Comparator.comparingDouble(FilmSummary::getAvgRate).reversed().thenComparingLong(FilmSummary::getId));
+        return films;
     }
 
-    public Collection<Film> getCommonFilms(Long userId, Long friendId) {
+    public Collection<FilmSummary> getCommonFilms(Long userId, Long friendId) {
         userService.isExist(userId);
         userService.isExist(friendId);
-        return filmStorage.getCommonFilms(userId, friendId);
+        List<FilmSummary> films = filmStorage.getFilmSummariesByIds(socialGraphIndex.getCommonFilms(userId, friendId));
+        films.sort(Comparator.comparingDouble(FilmSummary::getAvgRate).reversed().thenComparingLong(FilmSummary::getId));
+        return films;
     }
 
     public void isExist(Long id) {
         log.debug("Checking is film with id {} exists", id);
-        boolean isExists = filmStorage.isExist(id);
+        boolean isExists = filmCache.getIfPresent(id) != null || filmStorage.isExist(id);
         if (!isExists) {
             log.warn("Film with id {} doesn't exist", id);
             throw new FilmNotFoundException(Long.toString(id));
@@ -0,0 +1,227 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exceptions.ValidationException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.ImportReport;
+import ru.yandex.practicum.filmorate.model.RateChange;
+import ru.yandex.practicum.filmorate.model.User;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Импорт фильмов, пользователей и оценок из NDJSON: по одной JSON-записи на строку. Строки читаются
+ * потоком, проверяются по одной и записываются пакетами по batch-size записей. Если пакет отклонён
+ * базой, его записи повторяются по одной, чтобы найти строки с ошибкой; остальные строки пакета
+ * всё равно добавляются.
+ */
+@Service
+@Slf4j
+public class ImportService {
+    private static final String MISSING_FILM_OR_USER = "Film or user doesn't exist";
+
+    private final FilmService filmService;
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int batchSize;
+
+    public ImportService(FilmService filmService, UserService userService, ObjectMapper objectMapper,
+                         Validator validator, @Value("${filmorate.import.batch-size:1000}") int batchSize) {
+        this.filmService = filmService;
+        this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.batchSize = batchSize;
+    }
+
+    public ImportReport importFilms(InputStream input) throws IOException {
+        return importLines(input, this::parseFilm, films -> {
+            filmService.addFilms(films);
+            return Collections.nCopies(films.size(), null);
+        });
+    }
+
+    public ImportReport importUsers(InputStream input) throws IOException {
+        return importLines(input, this::parseUser, users -> {
+            userService.addUsers(users);
+            return Collections.nCopies(users.size(), null);
+        });
+    }
+
+    /**
+     * Строка оценки: {"filmId": 1, "userId": 2, "rate": 7}.
+     */
+    public ImportReport importRates(InputStream input) throws IOException {
+        return importLines(input, this::parseRate, rates -> filmService.addRates(rates).stream()
+                .map(previous -> previous == null ? MISSING_FILM_OR_USER : null)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * @param writer записывает пакет и возвращает для каждой записи текст ошибки или null
+     */
+    private <T> ImportReport importLines(InputStream input, LineParser<T> parser,
+                                         Function<List<T>, List<String>> writer) throws IOException {
+        long start = System.nanoTime();
+        ImportReport report = new ImportReport();
+        List<T> batch = new ArrayList<>(batchSize);
+        List<Long> lines = new ArrayList<>(batchSize);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            long number = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    batch.add(parser.parse(line));
+                    lines.add(number);
+                } catch (JsonProcessingException e) {
+                    report.addError(number, "Malformed JSON: " + e.getOriginalMessage());
+                } catch (ValidationException e) {
+                    report.addError(number, e.getMessage());
+                }
+                if (batch.size() == batchSize) {
+                    write(batch, lines, writer, report);
+                }
+            }
+        }
+        write(batch, lines, writer, report);
+        report.getErrors().sort(Comparator.comparingLong(ImportReport.LineError::getLine));
+        log.info("Imported {} records, rejected {} in {}ms", report.getImported(), report.getFailed(),
+                (System.nanoTime() - start) / 1_000_000);
+        return report;
+    }
+
+    private <T> void write(List<T> batch, List<Long> lines, Function<List<T>, List<String>> writer,
+                           ImportReport report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<String> errors;
+        try {
+            errors = writer.apply(batch);
+        } catch (DataAccessException e) {
+            log.debug("Batch of {} records is rejected, retrying one by one: {}", batch.size(), e.getMessage());
+            errors = new ArrayList<>(batch.size());
+            for (T record : batch) {
+                try {
+                    errors.addAll(writer.apply(List.of(record)));
+                } catch (DataAccessException recordError) {
+                    errors.add(message(recordError));
+                }
+            }
+        }
+        int imported = 0;
+        for (int i = 0; i < errors.size(); i++) {
+            if (errors.get(i) == null) {
+                imported++;
+            } else {
+                report.addError(lines.get(i), errors.get(i));
+            }
+        }
+        report.addImported(imported);
+        batch.clear();
+        lines.clear();
+    }
+
+    /**
+     * Явный null вместо оценок, жанров или режиссёров читается как пустой набор.
+     */
+    private Film parseFilm(String line) throws JsonProcessingException {
+        Film film = objectMapper.readValue(line, Film.class);
+        if (film.getReleaseDate() == null) {
+            throw new ValidationException("releaseDate is required");
+        }
+        if (film.getMpa() == null) {
+            throw new ValidationException("mpa is required");
+        }
+        if (film.getRates() == null) {
+            film.setRates(new HashMap<>());
+        }
+        if (film.getGenres() == null) {
+            film.setGenres(new TreeSet<>(Comparator.comparingInt(Genre::getId)));
+        }
+        if (film.getDirectors() == null) {
+            film.setDirectors(new HashSet<>());
+        }
+        if (film.getRates().values().stream().anyMatch(rate -> rate == null || rate < 1 || rate > 10)) {
+            throw new ValidationException("Rate cannot be less then 1 and more then 10");
+        }
+        return validate(film);
+    }
+
+    private User parseUser(String line) throws JsonProcessingException {
+        User user = objectMapper.readValue(line, User.class);
+        if (user.getFriends() == null) {
+            user.setFriends(new HashMap<>());
+        }
+        return validate(user);
+    }
+
+    private RateChange parseRate(String line) throws JsonProcessingException {
+        JsonNode node = objectMapper.readTree(line);
+        long filmId = requiredLong(node, "filmId");
+        long userId = requiredLong(node, "userId");
+        long rate = requiredLong(node, "rate");
+        if (rate < 1 || rate > 10) {
+            throw new ValidationException("Rate cannot be less then 1 and more then 10");
+        }
+        return new RateChange(filmId, userId, (int) rate);
+    }
+
+    private static long requiredLong(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        if (value == null || !value.canConvertToLong() || !value.isIntegralNumber()) {
+            throw new ValidationException(field + " must be an integer");
+        }
+        return value.asLong();
+    }
+
+    private <T> T validate(T record) {
+        Set<ConstraintViolation<T>> violations = validator.validate(record);
+        if (!violations.isEmpty()) {
+            throw new ValidationException(violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+        }
+        return record;
+    }
+
+    private static String message(DataAccessException e) {
+        String message = String.valueOf(e.getMostSpecificCause().getMessage());
+        int end = message.indexOf(';');
+        return end > 0 ? message.substring(0, end) : message;
+    }
+
+    @FunctionalInterface
+    private interface LineParser<T> {
+        T parse(String line) throws JsonProcessingException;
+    }
+}
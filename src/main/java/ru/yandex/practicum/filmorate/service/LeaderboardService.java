@@ -0,0 +1,191 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRanking;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/**
+ * Рейтинг популярных фильмов в памяти. Для каждой корзины (все фильмы, жанр, год, жанр и год)
+ * хранится упорядоченное по средней оценке множество, поэтому топ-N читается без обращения к базе.
+ * Сумма и количество оценок каждого фильма обновляются на каждую добавленную или удалённую оценку,
+ * при старте рейтинг строится заново по счётчикам оценок из хранилища, без загрузки самих оценок.
+ */
+@Service
+@Slf4j
+public class LeaderboardService {
+    private static final Comparator<Ranked> ORDER = Comparator.comparingDouble(Ranked::getRate).reversed()
+            .thenComparingLong(Ranked::getFilmId);
+
+    private final FilmStorage filmStorage;
+    private final Map<Long, Ranked> films = new ConcurrentHashMap<>();
+    private final Map<Long, NavigableSet<Ranked>> buckets = new ConcurrentHashMap<>();
+
+    public LeaderboardService(@Qualifier("FilmDbStorage") FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        films.clear();
+        buckets.clear();
+        filmStorage.getFilmRankings().forEach(ranking -> index(ranked(ranking)));
+        log.info("Leaderboard built for {} films in {} buckets", films.size(), buckets.size());
+    }
+
+    /**
+     * @param genreId 0 - любой жанр
+     * @param year    0 - любой год
+     * @return id фильмов по убыванию средней оценки, при равенстве по возрастанию id
+     */
+    public List<Long> getTop(int size, int genreId, int year) {
+        NavigableSet<Ranked> bucket = buckets.get(bucketKey(genreId, year));
+        if (bucket == null) {
+            return List.of();
+        }
+        return bucket.stream()
+                .limit(size)
+                .map(Ranked::getFilmId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Добавляет фильм: жанры, год и оценки берутся из переданного фильма.
+     */
+    public synchronized void put(Film film) {
+        unindex(films.get(film.getId()));
+        index(ranked(film));
+    }
+
+    /**
+     * Переносит обновлённый фильм в корзины его жанров и года. Обновление фильма не меняет оценки,
+     * поэтому сумма и количество оценок остаются прежними и не зависят от того, когда фильм был прочитан.
+     */
+    public synchronized void update(Film film) {
+        Ranked current = films.get(film.getId());
+        if (current == null) {
+            index(ranked(film));
+            return;
+        }
+        unindex(current);
+        index(new Ranked(film.getId(), film.getReleaseDate().getYear(), genreIds(film), current.getRatingSum(),
+                current.getRatingCount(), current.getRate()));
+    }
+
+    public synchronized void remove(long filmId) {
+        unindex(films.get(filmId));
+    }
+
+    public synchronized void addRate(long filmId, Integer previousRate, int rate) {
+        Ranked current = films.get(filmId);
+        if (current == null) {
+            reload(filmId);
+            return;
+        }
+        long sum = current.getRatingSum() + rate - (previousRate == null ? 0 : previousRate);
+        int count = current.getRatingCount() + (previousRate == null ? 1 : 0);
+        replace(current, sum, count);
+    }
+
+    public synchronized void removeRate(long filmId, int previousRate) {
+        Ranked current = films.get(filmId);
+        if (current == null) {
+            reload(filmId);
+            return;
+        }
+        replace(current, current.getRatingSum() - previousRate, current.getRatingCount() - 1);
+    }
+
+    private void replace(Ranked current, long sum, int count) {
+        unindex(current);
+        index(new Ranked(current.getFilmId(), current.getYear(), current.getGenreIds(), sum, count,
+                count == 0 ? 0 : (double) sum / count));
+    }
+
+    /**
+     * Фильм, добавленный в хранилище в обход сервиса, подгружается при первой оценке.
+     */
+    private void reload(long filmId) {
+        Film film = filmStorage.getById(filmId);
+        if (film != null) {
+            index(ranked(film));
+        }
+    }
+
+    private void index(Ranked ranked) {
+        films.put(ranked.getFilmId(), ranked);
+        bucket(0, 0).add(ranked);
+        bucket(0, ranked.getYear()).add(ranked);
+        for (int genreId : ranked.getGenreIds()) {
+            bucket(genreId, 0).add(ranked);
+            bucket(genreId, ranked.getYear()).add(ranked);
+        }
+    }
+
+    private void unindex(Ranked ranked) {
+        if (ranked == null) {
+            return;
+        }
+        films.remove(ranked.getFilmId());
+        buckets.get(bucketKey(0, 0)).remove(ranked);
+        buckets.get(bucketKey(0, ranked.getYear())).remove(ranked);
+        for (int genreId : ranked.getGenreIds()) {
+            buckets.get(bucketKey(genreId, 0)).remove(ranked);
+            buckets.get(bucketKey(genreId, ranked.getYear())).remove(ranked);
+        }
+    }
+
+    private NavigableSet<Ranked> bucket(int genreId, int year) {
+        return buckets.computeIfAbsent(bucketKey(genreId, year), key -> new ConcurrentSkipListSet<>(ORDER));
+    }
+
+    private static long bucketKey(int genreId, int year) {
+        return ((long) genreId << 32) | (year & 0xFFFFFFFFL);
+    }
+
+    private static Ranked ranked(Film film) {
+        long sum = 0;
+        for (int rate : film.getRates().values()) {
+            sum += rate;
+        }
+        int count = film.getRates().size();
+        return new Ranked(film.getId(), film.getReleaseDate().getYear(), genreIds(film), sum, count,
+                count == 0 ? 0 : (double) sum / count);
+    }
+
+    private static Ranked ranked(FilmRanking ranking) {
+        long sum = ranking.getRatingSum();
+        int count = ranking.getRatingCount();
+        return new Ranked(ranking.getFilmId(), ranking.getYear(),
+                ranking.getGenreIds().stream().mapToInt(Integer::intValue).toArray(), sum, count,
+                count == 0 ? 0 : (double) sum / count);
+    }
+
+    private static int[] genreIds(Film film) {
+        return film.getGenres() == null ? new int[0]
+                : film.getGenres().stream().mapToInt(Genre::getId).distinct().toArray();
+    }
+
+    @Value
+    private static class Ranked {
+        long filmId;
+        int year;
+        int[] genreIds;
+        long ratingSum;
+        int ratingCount;
+        double rate;
+    }
+}
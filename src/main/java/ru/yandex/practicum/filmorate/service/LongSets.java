@@ -0,0 +1,93 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Операции над множествами id, хранящимися как отсортированные массивы long без повторов.
+ * Массивы не изменяются: добавление и удаление возвращают новый массив.
+ */
+final class LongSets {
+    static final long[] EMPTY = new long[0];
+
+    /**
+     * При таком перекосе размеров пересечение ищет элементы меньшего массива двоичным поиском
+     * вместо слияния.
+     */
+    private static final int GALLOP_RATIO = 32;
+
+    private LongSets() {
+    }
+
+    static long[] of(Collection<Long> ids) {
+        long[] result = ids.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+        return result.length == 0 ? EMPTY : result;
+    }
+
+    static long[] add(long[] set, long id) {
+        int index = Arrays.binarySearch(set, id);
+        if (index >= 0) {
+            return set;
+        }
+        int position = -index - 1;
+        long[] result = new long[set.length + 1];
+        System.arraycopy(set, 0, result, 0, position);
+        result[position] = id;
+        System.arraycopy(set, position, result, position + 1, set.length - position);
+        return result;
+    }
+
+    static long[] remove(long[] set, long id) {
+        int index = Arrays.binarySearch(set, id);
+        if (index < 0) {
+            return set;
+        }
+        if (set.length == 1) {
+            return EMPTY;
+        }
+        long[] result = new long[set.length - 1];
+        System.arraycopy(set, 0, result, 0, index);
+        System.arraycopy(set, index + 1, result, index, set.length - index - 1);
+        return result;
+    }
+
+    static long[] intersect(long[] first, long[] second) {
+        long[] small = first.length <= second.length ? first : second;
+        long[] large = small == first ? second : first;
+        if (small.length == 0) {
+            return EMPTY;
+        }
+        long[] result = new long[small.length];
+        int size = 0;
+        if ((long) small.length * GALLOP_RATIO < large.length) {
+            int from = 0;
+            for (long id : small) {
+                int index = Arrays.binarySearch(large, from, large.length, id);
+                if (index >= 0) {
+                    result[size++] = id;
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+                if (from == large.length) {
+                    break;
+                }
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            while (i < small.length && j < large.length) {
+                if (small[i] < large[j]) {
+                    i++;
+                } else if (small[i] > large[j]) {
+                    j++;
+                } else {
+                    result[size++] = small[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+}
@@ -0,0 +1,121 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Двоичный снимок модели slope-one. Заголовок: сигнатура, версия формата, id последнего учтённого события,
+ * число оценок, длина и CRC32 тела; тело — {@link DeviationTable#write}. Файл пишется во временный и
+ * атомарно переименовывается, читается через отображение в память с проверкой версии, длины и контрольной
+ * суммы: повреждённый или чужой файл даёт IOException, а не частично загруженную модель.
+ */
+final class ModelSnapshot {
+    static final int VERSION = 1;
+    private static final int MAGIC = 0x464C4D53;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8;
+
+    private final DeviationTable table;
+    private final long eventId;
+    private final long ratingCount;
+
+    private ModelSnapshot(DeviationTable table, long eventId, long ratingCount) {
+        this.table = table;
+        this.eventId = eventId;
+        this.ratingCount = ratingCount;
+    }
+
+    DeviationTable getTable() {
+        return table;
+    }
+
+    /**
+     * @return id последнего события, которое уже учтено в снимке
+     */
+    long getEventId() {
+        return eventId;
+    }
+
+    long getRatingCount() {
+        return ratingCount;
+    }
+
+    static void write(Path path, DeviationTable table, long eventId) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            long ratingCount;
+            try (OutputStream file = Files.newOutputStream(temp)) {
+                file.write(new byte[HEADER_SIZE]);
+                DataOutputStream body = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc),
+                        1 << 16));
+                ratingCount = table.write(body);
+                body.flush();
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putLong(eventId)
+                        .putLong(ratingCount)
+                        .putLong(channel.size() - HEADER_SIZE)
+                        .putLong(crc.getValue())
+                        .flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static ModelSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + path + " has unexpected size " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a model snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Snapshot " + path + " has version " + version + ", expected " + VERSION);
+            }
+            long eventId = buffer.getLong();
+            long ratingCount = buffer.getLong();
+            long bodySize = buffer.getLong();
+            long checksum = buffer.getLong();
+            if (bodySize != size - HEADER_SIZE) {
+                throw new IOException("Snapshot " + path + " is truncated: " + (size - HEADER_SIZE) + " of " + bodySize
+                        + " bytes");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Snapshot " + path + " checksum mismatch");
+            }
+            try {
+                return new ModelSnapshot(DeviationTable.read(buffer), eventId, ratingCount);
+            } catch (RuntimeException e) {
+                throw new IOException("Snapshot " + path + " is malformed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ru.yandex.practicum.filmorate.service;
+
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Параллельный подсчёт сумм slope-one для {@link DeviationTable}: пользователи матрицы делятся между задачами
+ * ForkJoinPool по числу пар оценок, каждая задача копит суммы разностей и числа совместных оценок своих
+ * пользователей в собственной примитивной хеш-таблице по паре плотных индексов фильмов, после чего таблицы
+ * сливаются попарно. Суммы целочисленные, поэтому результат не зависит от разбиения и числа потоков.
+ */
+final class ParallelDeviationBuilder extends RecursiveTask<ParallelDeviationBuilder.PairSums> {
+    /**
+     * Меньше этого числа пар оценок задача считает сама, не разделяясь.
+     */
+    private static final long PAIRS_PER_TASK = 1 << 18;
+
+    private final RatingMatrix matrix;
+    private final int fromUser;
+    private final int toUser;
+
+    ParallelDeviationBuilder(RatingMatrix matrix, int fromUser, int toUser) {
+        this.matrix = matrix;
+        this.fromUser = fromUser;
+        this.toUser = toUser;
+    }
+
+    @Override
+    protected PairSums compute() {
+        long pairs = 0;
+        for (int user = fromUser; user < toUser; user++) {
+            long count = matrix.userEnd(user) - matrix.userStart(user);
+            pairs += count * (count + 1) / 2;
+        }
+        if (pairs <= PAIRS_PER_TASK || toUser - fromUser == 1) {
+            return accumulate();
+        }
+        int middle = (fromUser + toUser) >>> 1;
+        ParallelDeviationBuilder left = new ParallelDeviationBuilder(matrix, fromUser, middle);
+        left.fork();
+        PairSums right = new ParallelDeviationBuilder(matrix, middle, toUser).compute();
+        return PairSums.merge(left.join(), right);
+    }
+
+    /**
+     * Складывает пары (i, j) с i &lt;= j по плотным индексам фильмов: столбцы строки отсортированы,
+     * так что каждая пара учитывается один раз, вторая половина таблицы получается зеркально.
+     */
+    private PairSums accumulate() {
+        PairSums sums = new PairSums(1024);
+        long filmCount = matrix.getFilmCount();
+        for (int user = fromUser; user < toUser; user++) {
+            int end = matrix.userEnd(user);
+            for (int i = matrix.userStart(user); i < end; i++) {
+                long film = matrix.userFilm(i) * filmCount;
+                int rate = matrix.userRate(i);
+                for (int j = i; j < end; j++) {
+                    sums.add(film + matrix.userFilm(j), rate - matrix.userRate(j), 1);
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Хеш-таблица с открытой адресацией: ключ пары — i * filmCount + j, значения в параллельных массивах.
+     */
+    static final class PairSums {
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private long[] sums;
+        private int[] counts;
+        private int size;
+
+        PairSums(int capacity) {
+            int tableSize = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+            keys = new long[tableSize];
+            sums = new long[tableSize];
+            counts = new int[tableSize];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        static PairSums merge(PairSums first, PairSums second) {
+            PairSums target = first.size >= second.size ? first : second;
+            PairSums source = target == first ? second : first;
+            for (int slot = 0; slot < source.keys.length; slot++) {
+                if (source.keys[slot] != EMPTY) {
+                    target.add(source.keys[slot], source.sums[slot], source.counts[slot]);
+                }
+            }
+            return target;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        /**
+         * @return ключ пары в ячейке slot или -1, если ячейка пуста
+         */
+        long key(int slot) {
+            return keys[slot];
+        }
+
+        long sum(int slot) {
+            return sums[slot];
+        }
+
+        int count(int slot) {
+            return counts[slot];
+        }
+
+        void add(long key, long sum, int count) {
+            int slot = find(keys, key);
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    grow();
+                    slot = find(keys, key);
+                }
+            }
+            sums[slot] += sum;
+            counts[slot] += count;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldSums = sums;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            sums = new long[keys.length];
+            counts = new int[keys.length];
+            Arrays.fill(keys, EMPTY);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != EMPTY) {
+                    int target = find(keys, oldKeys[slot]);
+                    keys[target] = oldKeys[slot];
+                    sums[target] = oldSums[slot];
+                    counts[target] = oldCounts[slot];
+                }
+            }
+        }
+
+        private static int find(long[] keys, long key) {
+            int mask = keys.length - 1;
+            int slot = (int) (mix(key) & mask);
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static long mix(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return hash ^ (hash >>> 32);
+        }
+    }
+}
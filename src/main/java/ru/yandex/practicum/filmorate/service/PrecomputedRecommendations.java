@@ -0,0 +1,173 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Заранее посчитанные списки рекомендованных фильмов для каждого пользователя. Фоновая задача раз в
+ * refresh-delay пересчитывает параллельно сначала пользователей, чьи оценки изменились с прошлого запуска,
+ * затем всех оценивавших пользователей, чей список старше max-staleness. Запрос рекомендаций берёт готовый
+ * список; заново считается только список пользователя, который сам поменял оценки, чтобы в рекомендациях
+ * не оказался только что оценённый фильм. Списки считает движок из filmorate.recommendations.engine:
+ * slope-one, похожие фильмы по косинусу или латентные факторы ALS.
+ */
+@Service
+@Slf4j
+public class PrecomputedRecommendations {
+    static final int STORED_SIZE = Paging.DEFAULT_PAGE_SIZE;
+    private static final double MIN_RECOMMENDED_RATE = 5.0;
+    private static final int SIMILAR_USERS = 10;
+
+    private final RecommendationService recommendationService;
+    private final SimilarUsersIndex similarUsersIndex;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final AlsRecommender alsRecommender;
+    private final Engine engine;
+    private final long maxStalenessNanos;
+    private final ForkJoinPool pool;
+    private final Map<Long, Entry> lists = new ConcurrentHashMap<>();
+    private final Set<Long> changedUsers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param parallelism число потоков пересчёта; 0 — по числу процессоров
+     */
+    public PrecomputedRecommendations(RecommendationService recommendationService,
+                                      SimilarUsersIndex similarUsersIndex, SimilarFilmsIndex similarFilmsIndex,
+                                      AlsRecommender alsRecommender,
+                                      @Value("${filmorate.recommendations.engine:SLOPE_ONE}") Engine engine,
+                                      @Value("${filmorate.recommendations.max-staleness:5m}") Duration maxStaleness,
+                                      @Value("${filmorate.recommendations.parallelism:0}") int parallelism) {
+        this.recommendationService = recommendationService;
+        this.similarUsersIndex = similarUsersIndex;
+        this.similarFilmsIndex = similarFilmsIndex;
+        this.alsRecommender = alsRecommender;
+        this.engine = engine;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return до limit id рекомендованных фильмов по убыванию прогноза: сначала движок engine, если он ничего
+     *          не нашёл — фильмы с высокими оценками похожих пользователей
+     */
+    public List<Long> get(long userId, int limit) {
+        if (limit > STORED_SIZE) {
+            return compute(userId, limit);
+        }
+        Entry entry = lists.get(userId);
+        boolean changed = changedUsers.remove(userId);
+        if (entry == null || changed) {
+            entry = refresh(userId);
+        }
+        return entry.filmIds.subList(0, Math.min(limit, entry.filmIds.size()));
+    }
+
+    /**
+     * Отмечает, что оценки пользователя изменились и его список нужно пересчитать в первую очередь.
+     */
+    public void markChanged(long userId) {
+        changedUsers.add(userId);
+    }
+
+    public void markChanged(Collection<Long> userIds) {
+        changedUsers.addAll(userIds);
+    }
+
+    public void removeUser(long userId) {
+        lists.remove(userId);
+        changedUsers.remove(userId);
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.recommendations.refresh-delay:PT30S}",
+            fixedDelayString = "${filmorate.recommendations.refresh-delay:PT30S}")
+    public void refreshAll() {
+        long start = System.nanoTime();
+        List<Long> changed = new ArrayList<>(changedUsers);
+        changedUsers.removeAll(changed);
+        recompute(changed);
+
+        Set<Long> active = recommendationService.getUsers();
+        lists.entrySet().removeIf(entry -> !active.contains(entry.getKey()) && isStale(entry.getValue(), start));
+        List<Long> stale = active.stream()
+                .filter(userId -> lists.get(userId) == null || isStale(lists.get(userId), start))
+                .collect(Collectors.toList());
+        recompute(stale);
+        log.info("Recommendations refreshed for {} changed and {} stale users in {}ms",
+                changed.size(), stale.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void recompute(List<Long> userIds) {
+        if (!userIds.isEmpty()) {
+            pool.submit(() -> userIds.parallelStream().forEach(this::refresh)).join();
+        }
+    }
+
+    /**
+     * Список, расчёт которого начался раньше, не заменяет более новый: фоновый пересчёт, начатый до
+     * изменения оценок, не должен затереть список, посчитанный запросом уже с новыми оценками.
+     */
+    private Entry refresh(long userId) {
+        long startedAt = System.nanoTime();
+        Entry computed = new Entry(List.copyOf(compute(userId, STORED_SIZE)), startedAt);
+        return lists.merge(userId, computed,
+                (current, fresh) -> fresh.computedAt - current.computedAt >= 0 ? fresh : current);
+    }
+
+    private List<Long> compute(long userId, int limit) {
+        List<Long> filmIds;
+        switch (engine) {
+            case ITEM_COSINE:
+                filmIds = similarFilmsIndex.getRecommendations(recommendationService.getUserRates(userId),
+                        MIN_RECOMMENDED_RATE, limit);
+                break;
+            case ALS:
+                filmIds = alsRecommender.getRecommendations(recommendationService.getUserRates(userId),
+                        MIN_RECOMMENDED_RATE, limit);
+                break;
+            default:
+                filmIds = recommendationService.getTopRecommendations(userId, MIN_RECOMMENDED_RATE, limit);
+        }
+        return filmIds.isEmpty() ? similarUsersIndex.getRecommendations(userId, SIMILAR_USERS, limit) : filmIds;
+    }
+
+    private boolean isStale(Entry entry, long now) {
+        return now - entry.computedAt >= maxStalenessNanos;
+    }
+
+    public enum Engine {
+        SLOPE_ONE,
+        ITEM_COSINE,
+        ALS
+    }
+
+    private static final class Entry {
+        private final List<Long> filmIds;
+        /**
+         * Время начала расчёта списка.
+         */
+        private final long computedAt;
+
+        private Entry(List<Long> filmIds, long computedAt) {
+            this.filmIds = filmIds;
+            this.computedAt = computedAt;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exceptions.FilmNotFoundException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RateChange;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Запись оценок фильмов. По умолчанию оценка и событие пишутся в базу сразу. В режиме write-behind
+ * изменения копятся в памяти: повторные оценки одного пользователя одному фильму схлопываются в одну,
+ * события сохраняются все. Очередь сбрасывается в базу пакетами по расписанию, при наборе batch-size
+ * событий в фоновом потоке и при остановке приложения; при заполнении capacity запрос сам ждёт сброса.
+ * Пока изменение не записано, оно учитывается при чтении оценок через {@link #getRate} и {@link #withPending}.
+ * <p>
+ * Отложенные события оценок пишутся в базу вместе с оценками, мимо {@link EventLog}. Чтобы события пользователя
+ * не переставлялись, перед записью очередь ждёт его событий из журнала, а {@link EventService} сбрасывает очередь
+ * через {@link #flushUserEvents} перед новым событием пользователя и перед чтением его ленты.
+ */
+@Service
+@Slf4j
+public class RateWriteQueue {
+    private final FilmStorage filmStorage;
+    private final EventLog eventLog;
+    private final FilmCache filmCache;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int capacity;
+    private final ExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    private Map<Long, Map<Long, Optional<Integer>>> pending = new HashMap<>();
+    private Map<Long, Map<Long, Optional<Integer>>> flushing = Map.of();
+    private List<Event> pendingEvents = new ArrayList<>();
+    private Set<Long> pendingUsers = new HashSet<>();
+    private Set<Long> flushingUsers = Set.of();
+    private int pendingRates;
+    private long flushes;
+    private long generation;
+    private long flushedRates;
+    private long flushedEvents;
+    private long coalescedWrites;
+    private long lastFlushNanos;
+    private long maxFlushNanos;
+    private long totalFlushNanos;
+
+    /**
+     * @param batchSize число событий в очереди, при котором начинается фоновый сброс
+     * @param capacity  наибольшее число событий в очереди
+     */
+    public RateWriteQueue(@Qualifier("FilmDbStorage") FilmStorage filmStorage, EventLog eventLog,
+                          FilmCache filmCache,
+                          @Value("${filmorate.rates.write-behind.enabled:false}") boolean enabled,
+                          @Value("${filmorate.rates.write-behind.batch-size:500}") int batchSize,
+                          @Value("${filmorate.rates.write-behind.capacity:10000}") int capacity) {
+        this.filmStorage = filmStorage;
+        this.eventLog = eventLog;
+        this.filmCache = filmCache;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.capacity = Math.max(capacity, batchSize);
+        this.flusher = enabled ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * @return предыдущая оценка пользователя или null, если её не было
+     */
+    public Integer addRate(long filmId, long userId, int rate) {
+        if (!enabled) {
+            Integer previousRate = filmStorage.addRate(filmId, userId, rate);
+            eventLog.append(rateEvent(userId, filmId, EventOperations.ADD, rate));
+            return previousRate;
+        }
+        if (!filmStorage.isExist(filmId)) {
+            log.warn("There is no film in the database with id: " + filmId);
+            throw new FilmNotFoundException(Long.toString(filmId));
+        }
+        return enqueue(filmId, userId, rate);
+    }
+
+    /**
+     * @return удалённая оценка пользователя или null, если её не было
+     */
+    public Integer removeRate(long filmId, long userId) {
+        if (!enabled) {
+            Integer previousRate = filmStorage.removeRate(filmId, userId);
+            if (previousRate != null) {
+                eventLog.append(rateEvent(userId, filmId, EventOperations.REMOVE, previousRate));
+            }
+            return previousRate;
+        }
+        return enqueue(filmId, userId, null);
+    }
+
+    /**
+     * @return оценка пользователя фильму с учётом ещё не записанных изменений
+     */
+    public Integer getRate(long filmId, long userId) {
+        Integer stored = null;
+        long seen = -1;
+        while (true) {
+            synchronized (this) {
+                Optional<Integer> queued = findQueued(filmId, userId);
+                if (queued != null) {
+                    return queued.orElse(null);
+                }
+                if (generation == seen) {
+                    return stored;
+                }
+                seen = generation;
+            }
+            stored = filmStorage.getRate(filmId, userId);
+        }
+    }
+
+    /**
+     * @return film, если по нему нет незаписанных оценок, иначе копия с применёнными оценками
+     */
+    public Film withPending(Film film) {
+        if (!enabled || film == null) {
+            return film;
+        }
+        Map<Long, Integer> rates;
+        synchronized (this) {
+            Map<Long, Optional<Integer>> inFlight = flushing.getOrDefault(film.getId(), Map.of());
+            Map<Long, Optional<Integer>> queued = pending.getOrDefault(film.getId(), Map.of());
+            if (inFlight.isEmpty() && queued.isEmpty()) {
+                return film;
+            }
+            rates = new HashMap<>(film.getRates());
+            inFlight.forEach((userId, rate) -> apply(rates, userId, rate));
+            queued.forEach((userId, rate) -> apply(rates, userId, rate));
+        }
+        Film copy = new Film(film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration());
+        copy.setId(film.getId());
+        copy.setMpa(film.getMpa());
+        copy.setGenres(film.getGenres());
+        copy.setDirectors(film.getDirectors());
+        copy.setVersion(film.getVersion());
+        copy.setRates(rates);
+        copy.setAvgRate(rates.values().stream().mapToInt(Integer::intValue).average().orElse(0));
+        return copy;
+    }
+
+    public synchronized boolean hasPending(long filmId) {
+        return pending.containsKey(filmId) || flushing.containsKey(filmId);
+    }
+
+    /**
+     * Записывает очередь, если в ней есть события пользователя, и ждёт записи, уже начатой другим потоком.
+     */
+    public void flushUserEvents(long userId) {
+        if (enabled && hasPendingEvents(userId)) {
+            flush();
+        }
+    }
+
+    /**
+     * Записывает накопленные изменения одной транзакцией. При ошибке изменения возвращаются в очередь
+     * под более новые изменения тех же оценок.
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            Map<Long, Map<Long, Optional<Integer>>> batch;
+            List<Event> events;
+            Set<Long> users;
+            synchronized (this) {
+                if (pendingEvents.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                events = pendingEvents;
+                flushing = batch;
+                users = pendingUsers;
+                flushingUsers = users;
+                pending = new HashMap<>();
+                pendingEvents = new ArrayList<>();
+                pendingUsers = new HashSet<>();
+                pendingRates = 0;
+            }
+            List<RateChange> changes = new ArrayList<>();
+            batch.forEach((filmId, rates) -> rates.forEach((userId, rate) ->
+                    changes.add(new RateChange(filmId, userId, rate.orElse(null)))));
+            long start = System.nanoTime();
+            try {
+                users.forEach(eventLog::awaitCommitted);
+                filmStorage.saveRates(changes, events);
+            } catch (RuntimeException e) {
+                log.error("Failed to flush {} rate changes, they stay queued", changes.size(), e);
+                requeue(batch, events);
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+            synchronized (this) {
+                flushing = Map.of();
+                flushingUsers = Set.of();
+                generation++;
+                flushes++;
+                flushedRates += changes.size();
+                flushedEvents += events.size();
+                lastFlushNanos = elapsed;
+                maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+                totalFlushNanos += elapsed;
+            }
+            batch.keySet().forEach(filmCache::invalidate);
+            log.debug("Flushed {} rate changes and {} events in {}us", changes.size(), events.size(), elapsed / 1000);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.rates.write-behind.flush-delay:PT1S}",
+            fixedDelayString = "${filmorate.rates.write-behind.flush-delay:PT1S}")
+    public void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Scheduled flush of rate changes failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        flusher.shutdown();
+        flush();
+        log.info("Rate write-behind queue flushed on shutdown");
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(enabled, pendingEvents.size(), pendingRates, capacity, flushes, flushedRates, flushedEvents,
+                coalescedWrites, lastFlushNanos / 1_000_000.0, maxFlushNanos / 1_000_000.0,
+                flushes == 0 ? 0 : totalFlushNanos / 1_000_000.0 / flushes);
+    }
+
+    /**
+     * Предыдущая оценка читается из базы вне блокировки; если за это время очередь успела записать
+     * изменения, чтение повторяется.
+     */
+    private Integer enqueue(long filmId, long userId, Integer rate) {
+        while (isFull()) {
+            flush();
+        }
+        Integer stored = null;
+        long seen = -1;
+        while (true) {
+            synchronized (this) {
+                Optional<Integer> queued = findQueued(filmId, userId);
+                if (queued != null || generation == seen) {
+                    return put(filmId, userId, rate, queued != null ? queued.orElse(null) : stored);
+                }
+                seen = generation;
+            }
+            stored = filmStorage.getRate(filmId, userId);
+        }
+    }
+
+    private Integer put(long filmId, long userId, Integer rate, Integer previousRate) {
+        if (rate == null && previousRate == null) {
+            return null;
+        }
+        Map<Long, Optional<Integer>> filmRates = pending.computeIfAbsent(filmId, id -> new HashMap<>());
+        if (filmRates.put(userId, Optional.ofNullable(rate)) == null) {
+            pendingRates++;
+        } else {
+            coalescedWrites++;
+        }
+        pendingUsers.add(userId);
+        pendingEvents.add(rate == null
+                ? rateEvent(userId, filmId, EventOperations.REMOVE, previousRate)
+                : rateEvent(userId, filmId, EventOperations.ADD, rate));
+        if (pendingEvents.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::scheduledFlush);
+        }
+        return previousRate;
+    }
+
+    private synchronized boolean hasPendingEvents(long userId) {
+        return pendingUsers.contains(userId) || flushingUsers.contains(userId);
+    }
+
+    private synchronized boolean isFull() {
+        return pendingEvents.size() >= capacity;
+    }
+
+    /**
+     * @return изменение из очереди, Optional.empty() для удалённой оценки или null, если изменений нет
+     */
+    private Optional<Integer> findQueued(long filmId, long userId) {
+        Optional<Integer> queued = pending.getOrDefault(filmId, Map.of()).get(userId);
+        return queued != null ? queued : flushing.getOrDefault(filmId, Map.of()).get(userId);
+    }
+
+    private synchronized void requeue(Map<Long, Map<Long, Optional<Integer>>> batch, List<Event> events) {
+        batch.forEach((filmId, rates) -> rates.forEach((userId, rate) -> {
+            if (pending.computeIfAbsent(filmId, id -> new HashMap<>()).putIfAbsent(userId, rate) == null) {
+                pendingRates++;
+            }
+        }));
+        events.addAll(pendingEvents);
+        pendingEvents = events;
+        pendingUsers.addAll(flushingUsers);
+        flushing = Map.of();
+        flushingUsers = Set.of();
+    }
+
+    private static void apply(Map<Long, Integer> rates, long userId, Optional<Integer> rate) {
+        if (rate.isPresent()) {
+            rates.put(userId, rate.get());
+        } else {
+            rates.remove(userId);
+        }
+    }
+
+    private static Event rateEvent(long userId, long filmId, EventOperations operation, int rate) {
+        return Event.builder()
+                .userId(userId)
+                .entityId(filmId)
+                .eventType(EventTypes.RATE)
+                .operation(operation)
+                .timestamp(Instant.now().toEpochMilli())
+                .filmRate(rate)
+                .build();
+    }
+
+    @lombok.Value
+    public static class Stats {
+        boolean enabled;
+        int queuedEvents;
+        int queuedRates;
+        int capacity;
+        long flushes;
+        long flushedRates;
+        long flushedEvents;
+        long coalescedWrites;
+        double lastFlushMillis;
+        double maxFlushMillis;
+        double avgFlushMillis;
+    }
+}
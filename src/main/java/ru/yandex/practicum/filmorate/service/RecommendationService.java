@@ -1,90 +1,270 @@
 package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
 
-import java.util.HashMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Класс реализующий алгоритм slope-one коллаборативной фильтрации
  * @see "https://www.baeldung.com/java-collaborative-filtering-recommendations"
+ * <p>
+ * Модель ({@link DeviationTable}) живёт всё время работы приложения: строится при старте по матрице всех
+ * оценок ({@link RatingMatrix}) и обновляется при каждой оценке, поэтому запрос рекомендаций использует только оценки самого пользователя.
+ * <p>
+ * Если задан snapshot-path, модель периодически и при остановке сохраняется в {@link ModelSnapshot}. При старте
+ * снимок загружается вместо полной сборки, после чего применяются события оценок, записанные позже снимка.
+ * Изменения без событий (оценки в самом фильме, удаление фильма или пользователя) удаляют снимок.
  */
 @Service
 @Slf4j
 public class RecommendationService {
+    private static final int CATCH_UP_PAGE_SIZE = 1000;
+
+    private final UserStorage userStorage;
+    private final EventStorage eventStorage;
+    private final Path snapshotPath;
+    private final ForkJoinPool pool;
+    private volatile DeviationTable model = new DeviationTable();
     /**
-     * @param marks Map&lt;Long userId, Map&lt;filmId, Double rate&gt;&gt; содержит оценки фильмов для всех пользователей
-     * @param uid  userId пользователя, для которого осуществляется вычисление рекоммендаций
-     * @return Map&lt;filmId, Dobule rate&gt; - расчетные занчения рейтингов для пользователя,
-     *          содержит и фильмы с оценками самого пользователя
+     * Отметка для следующего снимка: все события до неё уже применены к модели.
      */
-    public Map<Long, Double> getRecommendation(Map<Long, Map<Long, Integer>> marks, Long uid) {
-        Map<Long, Map <Long, Double>> diff = new HashMap<>(); //< матрица разностей оценок
-        Map<Long, Map <Long, Integer>> freq = new HashMap<>(); //< матрица частоты разностей оценок
-
-        //< Заполнение матриц diff, freq значениями из marks
-        for (Map<Long, Integer> userMarks : marks.values()) {
-            for(Map.Entry<Long, Integer> e: userMarks.entrySet()) {
-                if (!diff.containsKey(e.getKey())) {
-                    diff.put(e.getKey(), new HashMap<>());
-                    freq.put(e.getKey(), new HashMap<>());
-                }
-                for(Map.Entry<Long, Integer> e2: userMarks.entrySet()) {
-                    int oldCount = 0;
-                    if (freq.get(e.getKey()).containsKey(e2.getKey())) {
-                        oldCount = freq.get(e.getKey()).get(e2.getKey());
-                    }
-                    double oldDiff = 0.0;
-                    if (diff.get(e.getKey()).containsKey(e2.getKey())) {
-                        oldDiff = diff.get(e.getKey()).get(e2.getKey());
-                    }
-                    int observedDiff = e.getValue() - e2.getValue();
-                    freq.get(e.getKey()).put(e2.getKey(), oldCount + 1);
-                    diff.get(e.getKey()).put(e2.getKey(), oldDiff + observedDiff);
-                }
-            }
+    private long safeEventId;
+
+    /**
+     * @param snapshotPath файл снимка модели; пустая строка отключает снимки
+     * @param parallelism число потоков сборки модели; 0 — по числу процессоров
+     */
+    public RecommendationService(@Qualifier("UserDbStorage") UserStorage userStorage, EventStorage eventStorage,
+                                 @Value("${filmorate.recommendations.snapshot-path:}") String snapshotPath,
+                                 @Value("${filmorate.recommendations.parallelism:0}") int parallelism) {
+        this.userStorage = userStorage;
+        this.eventStorage = eventStorage;
+        this.snapshotPath = snapshotPath.isBlank() ? null : Path.of(snapshotPath);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PostConstruct
+    public void init() {
+        if (snapshotPath != null) {
+            safeEventId = eventStorage.getLastEventId();
+        }
+        if (!restore()) {
+            rebuild();
+        }
+    }
+
+    public synchronized void rebuild() {
+        long start = System.nanoTime();
+        model = DeviationTable.of(userStorage.getRatingMatrix(), pool);
+        log.info("Slope-one model built for {} films, {} film pairs in {}ms using {} threads",
+                model.getFilms().size(), model.size(), (System.nanoTime() - start) / 1_000_000, pool.getParallelism());
+    }
+
+    /**
+     * Сохраняет модель в снимок. Событие оценки записывается раньше, чем оценка попадает в модель, поэтому
+     * последнее событие на момент снимка может быть ещё не учтено. Снимок получает отметку, прочитанную при
+     * прошлом снимке (или при старте): события до неё давно применены к модели, а более поздние при загрузке
+     * применятся повторно, что не меняет результат — каждое событие задаёт оценку целиком.
+     */
+    @Scheduled(initialDelayString = "${filmorate.recommendations.snapshot-interval:PT10M}",
+            fixedDelayString = "${filmorate.recommendations.snapshot-interval:PT10M}")
+    public synchronized void saveSnapshot() {
+        if (snapshotPath == null) {
+            return;
         }
+        long start = System.nanoTime();
+        try {
+            long eventId = safeEventId;
+            safeEventId = eventStorage.getLastEventId();
+            ModelSnapshot.write(snapshotPath, model, eventId);
+            log.info("Slope-one model snapshot up to event {} written to {} in {}ms", eventId, snapshotPath,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write slope-one model snapshot to {}", snapshotPath, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        saveSnapshot();
+        pool.shutdown();
+    }
+
+    /**
+     * @param uid userId пользователя, для которого осуществляется вычисление рекоммендаций
+     * @return Map&lt;filmId, Double rate&gt; - расчетные значения рейтингов для фильмов, которые пользователь не оценивал
+     */
+    public Map<Long, Double> getRecommendation(long uid) {
+        return model.predict(uid);
+    }
 
-        //< усреднение значений в diff с ипользованием данных из freq
-        for (Long i : diff.keySet()) {
-            for (Long j : diff.get(i).keySet()) {
-                double oldValue = diff.get(i).get(j);
-                int count = freq.get(i).get(j);
-                diff.get(i).put(j, oldValue / count);
+    /**
+     * Выбирает не больше limit фильмов с прогнозом выше minRate частичной сортировкой: в куче держится
+     * только limit лучших прогнозов, а не все фильмы.
+     * @return id фильмов по убыванию прогноза, при равенстве по возрастанию id
+     */
+    public List<Long> getTopRecommendations(long uid, double minRate, int limit) {
+        Comparator<Map.Entry<Long, Double>> byScore = Map.Entry.<Long, Double>comparingByValue()
+                .thenComparing(Map.Entry.<Long, Double>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<Long, Double>> top = new PriorityQueue<>(byScore);
+        for (Map.Entry<Long, Double> prediction : model.predict(uid).entrySet()) {
+            if (prediction.getValue() <= minRate) {
+                continue;
             }
+            if (top.size() < limit) {
+                top.add(prediction);
+            } else if (byScore.compare(prediction, top.peek()) > 0) {
+                top.poll();
+                top.add(prediction);
+            }
+        }
+        Long[] filmIds = new Long[top.size()];
+        for (int i = filmIds.length - 1; i >= 0; i--) {
+            filmIds[i] = top.poll().getKey();
         }
+        return Arrays.asList(filmIds);
+    }
 
-        Map<Long, Integer> userMarks = marks.get(uid);
-        Map<Long, Double> uPred = new HashMap<>();
-        Map<Long, Integer> uFreq = new HashMap<>();
-        for (Long fid : diff.keySet()) {
-            uPred.put(fid, 0.0);
-            uFreq.put(fid, 0);
+    /**
+     * @return Map&lt;filmId, rate&gt; - текущие оценки пользователя
+     */
+    public Map<Long, Integer> getUserRates(long uid) {
+        return model.getUserRates(uid);
+    }
+
+    /**
+     * @return id пользователей, у которых есть оценки
+     */
+    public Set<Long> getUsers() {
+        return model.getUsers();
+    }
+
+    public void setRate(long userId, long filmId, int rate) {
+        model.setRate(userId, filmId, rate);
+    }
+
+    public void removeRate(long userId, long filmId) {
+        model.removeRate(userId, filmId);
+    }
+
+    public void putFilm(long filmId, Map<Long, Integer> rates) {
+        if (model.putFilm(filmId, rates)) {
+            invalidateSnapshot();
         }
-        for (Long j : userMarks.keySet()) {
-            for (Long k : diff.keySet()) {
-                double predictedValue = diff.get(k).get(j) + userMarks.get(j);
-                double finalValue = predictedValue * freq.get(k).get(j);
-                uPred.put(k, uPred.get(k) + finalValue);
-                uFreq.put(k, uFreq.get(k) + freq.get(k).get(j));
-            }
+    }
+
+    public void removeFilm(long filmId) {
+        putFilm(filmId, Map.of());
+    }
+
+    public void removeUser(long userId) {
+        if (model.removeUser(userId)) {
+            invalidateSnapshot();
         }
+    }
 
-        HashMap<Long, Double> clean = new HashMap<>();
-        for (Long j : uPred.keySet()) {
-            if (uFreq.get(j) > 0) {
-                clean.put(j, uPred.get(j) / uFreq.get(j));
+    /**
+     * Загружает снимок и догоняет его событиями оценок. Снимок не используется, если он повреждён,
+     * новее журнала событий или после догона число оценок расходится с хранилищем.
+     * @return true, если модель загружена из снимка
+     */
+    private synchronized boolean restore() {
+        if (snapshotPath == null || !Files.exists(snapshotPath)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            ModelSnapshot snapshot = ModelSnapshot.read(snapshotPath);
+            long lastEventId = eventStorage.getLastEventId();
+            if (lastEventId < snapshot.getEventId()) {
+                log.warn("Slope-one model snapshot is ahead of the event log: event {} > {}, rebuilding",
+                        snapshot.getEventId(), lastEventId);
+                return false;
+            }
+            DeviationTable table = snapshot.getTable();
+            long loadedNanos = System.nanoTime() - start;
+            int applied = catchUp(table, snapshot.getEventId());
+            long ratingCount = table.getRatingCount();
+            long storedCount = userStorage.getRatingCount();
+            if (ratingCount != storedCount) {
+                log.warn("Slope-one model snapshot has {} rates after catch-up, storage has {}, rebuilding",
+                        ratingCount, storedCount);
+                return false;
             }
+            model = table;
+            log.info("Slope-one model loaded from {} in {}ms, {} rate events applied in {}ms", snapshotPath,
+                    loadedNanos / 1_000_000, applied, (System.nanoTime() - start - loadedNanos) / 1_000_000);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to load slope-one model snapshot from {}, rebuilding", snapshotPath, e);
+            return false;
         }
-       for (Long j : diff.keySet()) {
-            if (userMarks.containsKey(j)) {
-                clean.put(j, Double.valueOf(userMarks.get(j)));
-            } else if (!clean.containsKey(j)) {
-                clean.put(j, -1.0);
+    }
+
+    private int catchUp(DeviationTable table, long after) {
+        int applied = 0;
+        List<Event> events;
+        do {
+            events = eventStorage.getEventsAfter(after, EventTypes.RATE, CATCH_UP_PAGE_SIZE);
+            for (Event event : events) {
+                if (event.getOperation() == EventOperations.REMOVE) {
+                    table.removeRate(event.getUserId(), event.getEntityId());
+                } else {
+                    table.setRate(event.getUserId(), event.getEntityId(), event.getFilmRate());
+                }
+                after = event.getEventId();
             }
+            applied += events.size();
+        } while (events.size() == CATCH_UP_PAGE_SIZE);
+        return applied;
+    }
+
+    private synchronized void invalidateSnapshot() {
+        if (snapshotPath == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(snapshotPath);
+        } catch (IOException e) {
+            log.warn("Failed to delete slope-one model snapshot {}", snapshotPath, e);
         }
+    }
 
+    /**
+     * Строит модель заново по переданным оценкам.
+     * @param marks Map&lt;Long userId, Map&lt;filmId, Double rate&gt;&gt; содержит оценки фильмов для всех пользователей
+     * @param uid  userId пользователя, для которого осуществляется вычисление рекоммендаций
+     * @return Map&lt;filmId, Dobule rate&gt; - расчетные занчения рейтингов для пользователя,
+     *          содержит и фильмы с оценками самого пользователя; фильмы без прогноза получают -1
+     */
+    public Map<Long, Double> getRecommendation(Map<Long, Map<Long, Integer>> marks, Long uid) {
+        DeviationTable table = DeviationTable.of(RatingMatrix.of(marks));
+        Map<Long, Double> clean = table.predict(uid);
+        table.getUserRates(uid).forEach((filmId, rate) -> clean.put(filmId, Double.valueOf(rate)));
+        for (Long filmId : table.getFilms()) {
+            clean.putIfAbsent(filmId, -1.0);
+        }
         return clean;
     }
 
@@ -0,0 +1,338 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Похожие фильмы по скорректированному косинусу: оценки центрируются средней оценкой пользователя,
+ * сходство двух фильмов — косинус между их центрированными столбцами матрицы оценок. Для каждого фильма
+ * хранятся только neighbours самых похожих фильмов с положительным сходством в общих массивах по фильмам.
+ * Сходство считается разреженно: для фильма перебираются только пользователи, которые его оценили, и их
+ * фильмы; фильмы делятся на пачки, пачки считаются параллельно. Соседи пересчитываются целиком при старте
+ * и по расписанию, если оценки изменились; удалённые фильмы до пересчёта отфильтровываются при чтении.
+ */
+@Service
+@Slf4j
+public class SimilarFilmsIndex {
+    private static final int FILMS_PER_TASK = 256;
+
+    private final UserStorage userStorage;
+    private final int neighbourCount;
+    private final ForkJoinPool pool;
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final Set<Long> removedFilms = ConcurrentHashMap.newKeySet();
+    private volatile Neighbours neighbours = Neighbours.EMPTY;
+
+    /**
+     * @param neighbourCount сколько похожих фильмов хранить для каждого фильма
+     * @param parallelism    число потоков пересчёта; 0 — по числу процессоров
+     */
+    public SimilarFilmsIndex(@Qualifier("UserDbStorage") UserStorage userStorage,
+                             @Value("${filmorate.similar-films.neighbours:50}") int neighbourCount,
+                             @Value("${filmorate.recommendations.parallelism:0}") int parallelism) {
+        this.userStorage = userStorage;
+        this.neighbourCount = neighbourCount;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        long start = System.nanoTime();
+        changed.set(false);
+        Set<Long> removed = Set.copyOf(removedFilms);
+        RatingMatrix matrix = userStorage.getRatingMatrix();
+        neighbours = pool.submit(() -> Neighbours.of(matrix, neighbourCount)).join();
+        removedFilms.removeAll(removed);
+        log.info("Similar films built for {} films, {} neighbours in {}ms using {} threads", matrix.getFilmCount(),
+                neighbours.neighbours.length, (System.nanoTime() - start) / 1_000_000, pool.getParallelism());
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.similar-films.refresh-delay:PT10M}",
+            fixedDelayString = "${filmorate.similar-films.refresh-delay:PT10M}")
+    public void refresh() {
+        if (changed.get()) {
+            rebuild();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Отмечает, что оценки изменились и соседей нужно пересчитать при следующем плановом запуске.
+     */
+    public void markChanged() {
+        changed.set(true);
+    }
+
+    public void removeFilm(long filmId) {
+        removedFilms.add(filmId);
+        changed.set(true);
+    }
+
+    /**
+     * @return до limit id фильмов, похожих на filmId, по убыванию сходства
+     */
+    public List<Long> getSimilarFilms(long filmId, int limit) {
+        Neighbours current = neighbours;
+        Integer film = current.indexes.get(filmId);
+        List<Long> result = new ArrayList<>();
+        if (film == null) {
+            return result;
+        }
+        for (int i = current.start[film]; i < current.start[film + 1] && result.size() < limit; i++) {
+            long otherId = current.filmIds[current.neighbours[i]];
+            if (!removedFilms.contains(otherId)) {
+                result.add(otherId);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Прогноз по соседям оценённых фильмов: средняя оценка пользователя плюс взвешенное сходством
+     * отклонение его оценок похожих фильмов от средней.
+     * @param userRates оценки пользователя
+     * @return до limit id фильмов с прогнозом выше minRate по убыванию прогноза, при равенстве по возрастанию id
+     */
+    public List<Long> getRecommendations(Map<Long, Integer> userRates, double minRate, int limit) {
+        if (userRates.isEmpty()) {
+            return List.of();
+        }
+        Neighbours current = neighbours;
+        double mean = userRates.values().stream().mapToInt(Integer::intValue).average().orElse(0);
+        Map<Long, double[]> sums = new HashMap<>();
+        userRates.forEach((filmId, rate) -> {
+            Integer film = current.indexes.get(filmId);
+            if (film == null) {
+                return;
+            }
+            for (int i = current.start[film]; i < current.start[film + 1]; i++) {
+                long otherId = current.filmIds[current.neighbours[i]];
+                if (!userRates.containsKey(otherId) && !removedFilms.contains(otherId)) {
+                    double[] sum = sums.computeIfAbsent(otherId, id -> new double[2]);
+                    sum[0] += current.similarities[i] * (rate - mean);
+                    sum[1] += current.similarities[i];
+                }
+            }
+        });
+        return sums.entrySet().stream()
+                .map(entry -> Map.entry(entry.getKey(), mean + entry.getValue()[0] / entry.getValue()[1]))
+                .filter(prediction -> prediction.getValue() > minRate)
+                .sorted(Map.Entry.<Long, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Соседи всех фильмов: для плотного индекса фильма f его соседи и сходства лежат в neighbours и
+     * similarities с позиции start[f] до start[f + 1] по убыванию сходства.
+     */
+    private static final class Neighbours {
+        private static final Neighbours EMPTY = new Neighbours(new long[0], new int[1], new int[0], new float[0]);
+
+        private final long[] filmIds;
+        private final Map<Long, Integer> indexes = new HashMap<>();
+        private final int[] start;
+        private final int[] neighbours;
+        private final float[] similarities;
+
+        private Neighbours(long[] filmIds, int[] start, int[] neighbours, float[] similarities) {
+            this.filmIds = filmIds;
+            this.start = start;
+            this.neighbours = neighbours;
+            this.similarities = similarities;
+            for (int film = 0; film < filmIds.length; film++) {
+                indexes.put(filmIds[film], film);
+            }
+        }
+
+        private static Neighbours of(RatingMatrix matrix, int neighbourCount) {
+            int filmCount = matrix.getFilmCount();
+            float[] userCentered = new float[matrix.size()];
+            double[] means = new double[matrix.getUserCount()];
+            for (int user = 0; user < matrix.getUserCount(); user++) {
+                long sum = 0;
+                for (int i = matrix.userStart(user); i < matrix.userEnd(user); i++) {
+                    sum += matrix.userRate(i);
+                }
+                means[user] = (double) sum / (matrix.userEnd(user) - matrix.userStart(user));
+                for (int i = matrix.userStart(user); i < matrix.userEnd(user); i++) {
+                    userCentered[i] = (float) (matrix.userRate(i) - means[user]);
+                }
+            }
+            float[] filmCentered = new float[matrix.size()];
+            double[] norms = new double[filmCount];
+            for (int film = 0; film < filmCount; film++) {
+                double squares = 0;
+                for (int i = matrix.filmStart(film); i < matrix.filmEnd(film); i++) {
+                    filmCentered[i] = (float) (matrix.filmRate(i) - means[matrix.filmUser(i)]);
+                    squares += filmCentered[i] * filmCentered[i];
+                }
+                norms[film] = Math.sqrt(squares);
+            }
+
+            int[][] lists = new int[filmCount][];
+            float[][] values = new float[filmCount][];
+            IntStream.range(0, (filmCount + FILMS_PER_TASK - 1) / FILMS_PER_TASK).parallel().forEach(task -> {
+                double[] dots = new double[filmCount];
+                int[] touched = new int[filmCount];
+                int[] marks = new int[filmCount];
+                TopNeighbours top = new TopNeighbours(neighbourCount, matrix);
+                for (int film = task * FILMS_PER_TASK; film < Math.min(filmCount, (task + 1) * FILMS_PER_TASK); film++) {
+                    int touchedCount = 0;
+                    for (int i = matrix.filmStart(film); i < matrix.filmEnd(film); i++) {
+                        float centered = filmCentered[i];
+                        int user = matrix.filmUser(i);
+                        for (int j = matrix.userStart(user); j < matrix.userEnd(user); j++) {
+                            int other = matrix.userFilm(j);
+                            if (other == film) {
+                                continue;
+                            }
+                            if (marks[other] != film + 1) {
+                                marks[other] = film + 1;
+                                touched[touchedCount++] = other;
+                            }
+                            dots[other] += centered * userCentered[j];
+                        }
+                    }
+                    for (int i = 0; i < touchedCount; i++) {
+                        int other = touched[i];
+                        if (dots[other] > 0) {
+                            top.offer(other, (float) (dots[other] / (norms[film] * norms[other])));
+                        }
+                        dots[other] = 0;
+                    }
+                    top.drainInto(film, lists, values);
+                }
+            });
+
+            long[] filmIds = new long[filmCount];
+            int[] start = new int[filmCount + 1];
+            for (int film = 0; film < filmCount; film++) {
+                filmIds[film] = matrix.getFilmId(film);
+                start[film + 1] = start[film] + lists[film].length;
+            }
+            int[] neighbours = new int[start[filmCount]];
+            float[] similarities = new float[start[filmCount]];
+            for (int film = 0; film < filmCount; film++) {
+                System.arraycopy(lists[film], 0, neighbours, start[film], lists[film].length);
+                System.arraycopy(values[film], 0, similarities, start[film], values[film].length);
+            }
+            return new Neighbours(filmIds, start, neighbours, similarities);
+        }
+    }
+
+    /**
+     * Отбор limit лучших соседей одного фильма в двоичной куче на примитивных массивах: в корне худший
+     * из отобранных, худший — с меньшим сходством, при равенстве с большим id фильма.
+     */
+    private static final class TopNeighbours {
+        private final RatingMatrix matrix;
+        private final int[] films;
+        private final float[] similarities;
+        private int size;
+
+        private TopNeighbours(int limit, RatingMatrix matrix) {
+            this.matrix = matrix;
+            this.films = new int[limit];
+            this.similarities = new float[limit];
+        }
+
+        private void offer(int film, float similarity) {
+            if (size < films.length) {
+                films[size] = film;
+                similarities[size] = similarity;
+                siftUp(size++);
+            } else if (size > 0 && isWorse(films[0], similarities[0], film, similarity)) {
+                films[0] = film;
+                similarities[0] = similarity;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Переносит отобранных соседей в lists[film] и values[film] по убыванию сходства и очищает кучу.
+         */
+        private void drainInto(int film, int[][] lists, float[][] values) {
+            int[] sortedFilms = new int[size];
+            float[] sortedSimilarities = new float[size];
+            for (int i = size - 1; i >= 0; i--) {
+                sortedFilms[i] = films[0];
+                sortedSimilarities[i] = similarities[0];
+                size--;
+                if (size > 0) {
+                    films[0] = films[size];
+                    similarities[0] = similarities[size];
+                    siftDown(0);
+                }
+            }
+            lists[film] = sortedFilms;
+            values[film] = sortedSimilarities;
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (!isWorse(films[index], similarities[index], films[parent], similarities[parent])) {
+                    return;
+                }
+                swap(index, parent);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int worst = index;
+                for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                    if (isWorse(films[child], similarities[child], films[worst], similarities[worst])) {
+                        worst = child;
+                    }
+                }
+                if (worst == index) {
+                    return;
+                }
+                swap(index, worst);
+                index = worst;
+            }
+        }
+
+        private boolean isWorse(int film, float similarity, int otherFilm, float otherSimilarity) {
+            if (similarity != otherSimilarity) {
+                return similarity < otherSimilarity;
+            }
+            return matrix.getFilmId(film) > matrix.getFilmId(otherFilm);
+        }
+
+        private void swap(int first, int second) {
+            int film = films[first];
+            films[first] = films[second];
+            films[second] = film;
+            float similarity = similarities[first];
+            similarities[first] = similarities[second];
+            similarities[second] = similarity;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Приближённый поиск пользователей с похожим набором оценённых фильмов (MinHash + LSH). Для каждого
+ * пользователя хранится подпись из SIGNATURE_SIZE минимальных хешей его фильмов; подпись режется на BANDS
+ * полос по ROWS значений, и пользователь попадает в корзину каждой полосы. Кандидаты в соседи — пользователи
+ * из общих корзин, они ранжируются по точному коэффициенту Жаккара. Заменяет самосоединение film_rates
+ * в {@link UserStorage#getRecommendations(long)}: индекс строится при старте и обновляется при каждой оценке.
+ */
+@Service
+@Slf4j
+public class SimilarUsersIndex {
+    static final int BANDS = 32;
+    static final int ROWS = 2;
+    private static final int SIGNATURE_SIZE = BANDS * ROWS;
+    private static final int MAX_CANDIDATES = 2000;
+    private static final int MIN_LIKED_RATE = 6;
+
+    private final UserStorage userStorage;
+    private final long[] seeds = new Random(SIGNATURE_SIZE).longs(SIGNATURE_SIZE).toArray();
+    private final Map<Long, Entry> users = new HashMap<>();
+    private final List<Map<Long, long[]>> buckets = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public SimilarUsersIndex(@Qualifier("UserDbStorage") UserStorage userStorage) {
+        this.userStorage = userStorage;
+        for (int band = 0; band < BANDS; band++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            users.clear();
+            buckets.forEach(Map::clear);
+            RatingMatrix matrix = userStorage.getRatingMatrix();
+            for (int user = 0; user < matrix.getUserCount(); user++) {
+                int start = matrix.userStart(user);
+                long[] films = new long[matrix.userEnd(user) - start];
+                byte[] rates = new byte[films.length];
+                for (int i = 0; i < films.length; i++) {
+                    films[i] = matrix.getFilmId(matrix.userFilm(start + i));
+                    rates[i] = (byte) matrix.userRate(start + i);
+                }
+                put(matrix.getUserId(user), new Entry(films, rates, signature(films)));
+            }
+            log.info("Similar users index built for {} users", users.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return до k пользователей, чьи наборы оценённых фильмов ближе всего к набору userId по Жаккару,
+     *          по убыванию сходства
+     */
+    public List<Long> getSimilarUsers(long userId, int k) {
+        lock.readLock().lock();
+        try {
+            return neighbours(userId, k).stream().map(Neighbour::getUserId).collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Фильмы, которые похожие пользователи оценили на MIN_LIKED_RATE и выше, а сам пользователь не оценивал.
+     * Вес фильма — сумма сходства поставивших высокую оценку соседей.
+     * @return до limit id фильмов по убыванию веса, при равенстве по возрастанию id
+     */
+    public List<Long> getRecommendations(long userId, int neighbourCount, int limit) {
+        lock.readLock().lock();
+        try {
+            Entry entry = users.get(userId);
+            if (entry == null) {
+                return List.of();
+            }
+            Map<Long, Double> scores = new HashMap<>();
+            for (Neighbour neighbour : neighbours(userId, neighbourCount)) {
+                Entry other = users.get(neighbour.userId);
+                for (int i = 0; i < other.films.length; i++) {
+                    if (other.rates[i] >= MIN_LIKED_RATE && Arrays.binarySearch(entry.films, other.films[i]) < 0) {
+                        scores.merge(other.films[i], neighbour.similarity, Double::sum);
+                    }
+                }
+            }
+            return scores.entrySet().stream()
+                    .sorted(Map.Entry.<Long, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .limit(limit)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void setRate(long userId, long filmId, int rate) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = users.get(userId);
+            long[] films = entry == null ? new long[0] : entry.films;
+            byte[] rates = entry == null ? new byte[0] : entry.rates;
+            int index = Arrays.binarySearch(films, filmId);
+            if (index >= 0) {
+                rates = rates.clone();
+                rates[index] = (byte) rate;
+                users.put(userId, new Entry(films, rates, entry.signature));
+                return;
+            }
+            int position = -index - 1;
+            long[] newFilms = new long[films.length + 1];
+            byte[] newRates = new byte[films.length + 1];
+            System.arraycopy(films, 0, newFilms, 0, position);
+            System.arraycopy(rates, 0, newRates, 0, position);
+            newFilms[position] = filmId;
+            newRates[position] = (byte) rate;
+            System.arraycopy(films, position, newFilms, position + 1, films.length - position);
+            System.arraycopy(rates, position, newRates, position + 1, films.length - position);
+            int[] signature = entry == null ? signature(newFilms) : withFilm(entry.signature, filmId);
+            remove(userId);
+            put(userId, new Entry(newFilms, newRates, signature));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Удаление фильма из набора пересчитывает подпись пользователя целиком: минимум нельзя вычесть.
+     */
+    public void removeRate(long userId, long filmId) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = users.get(userId);
+            int index = entry == null ? -1 : Arrays.binarySearch(entry.films, filmId);
+            if (index < 0) {
+                return;
+            }
+            remove(userId);
+            if (entry.films.length == 1) {
+                return;
+            }
+            long[] films = new long[entry.films.length - 1];
+            byte[] rates = new byte[films.length];
+            System.arraycopy(entry.films, 0, films, 0, index);
+            System.arraycopy(entry.rates, 0, rates, 0, index);
+            System.arraycopy(entry.films, index + 1, films, index, films.length - index);
+            System.arraycopy(entry.rates, index + 1, rates, index, films.length - index);
+            put(userId, new Entry(films, rates, signature(films)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeUser(long userId) {
+        lock.writeLock().lock();
+        try {
+            remove(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Заменяет оценки фильма; оценившие его пользователи ищутся перебором, метод для редких операций.
+     */
+    public void putFilm(long filmId, Map<Long, Integer> rates) {
+        lock.writeLock().lock();
+        try {
+            List<Long> raters = users.entrySet().stream()
+                    .filter(user -> Arrays.binarySearch(user.getValue().films, filmId) >= 0)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+            raters.forEach(userId -> removeRate(userId, filmId));
+            rates.forEach((userId, rate) -> setRate(userId, filmId, rate));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<Neighbour> neighbours(long userId, int k) {
+        Entry entry = users.get(userId);
+        if (entry == null) {
+            return List.of();
+        }
+        Set<Long> candidates = new LinkedHashSet<>();
+        for (int band = 0; band < BANDS && candidates.size() < MAX_CANDIDATES; band++) {
+            for (long candidate : buckets.get(band).get(bandKey(entry.signature, band))) {
+                if (candidate != userId && candidates.add(candidate) && candidates.size() == MAX_CANDIDATES) {
+                    break;
+                }
+            }
+        }
+        return candidates.stream()
+                .map(candidate -> new Neighbour(candidate, jaccard(entry.films, users.get(candidate).films)))
+                .sorted(Comparator.comparingDouble(Neighbour::getSimilarity).reversed()
+                        .thenComparingLong(Neighbour::getUserId))
+                .limit(k)
+                .collect(Collectors.toList());
+    }
+
+    private void put(long userId, Entry entry) {
+        users.put(userId, entry);
+        for (int band = 0; band < BANDS; band++) {
+            buckets.get(band).merge(bandKey(entry.signature, band), new long[]{userId},
+                    (set, ignored) -> LongSets.add(set, userId));
+        }
+    }
+
+    private void remove(long userId) {
+        Entry entry = users.remove(userId);
+        if (entry == null) {
+            return;
+        }
+        for (int band = 0; band < BANDS; band++) {
+            buckets.get(band).computeIfPresent(bandKey(entry.signature, band), (key, set) -> {
+                long[] remaining = LongSets.remove(set, userId);
+                return remaining.length == 0 ? null : remaining;
+            });
+        }
+    }
+
+    private int[] signature(long[] films) {
+        int[] signature = new int[SIGNATURE_SIZE];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (long film : films) {
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                signature[i] = Math.min(signature[i], hash(i, film));
+            }
+        }
+        return signature;
+    }
+
+    private int[] withFilm(int[] signature, long filmId) {
+        int[] result = signature.clone();
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            result[i] = Math.min(result[i], hash(i, filmId));
+        }
+        return result;
+    }
+
+    private int hash(int function, long filmId) {
+        long hash = filmId + seeds[function];
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return (int) ((hash ^ (hash >>> 31)) >>> 32);
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long key = 0;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = key * 31 + signature[row];
+        }
+        return key;
+    }
+
+    private static double jaccard(long[] first, long[] second) {
+        int common = LongSets.intersect(first, second).length;
+        return (double) common / (first.length + second.length - common);
+    }
+
+    private static final class Entry {
+        private final long[] films;
+        private final byte[] rates;
+        private final int[] signature;
+
+        private Entry(long[] films, byte[] rates, int[] signature) {
+            this.films = films;
+            this.rates = rates;
+            this.signature = signature;
+        }
+    }
+
+    @Value
+    private static class Neighbour {
+        long userId;
+        double similarity;
+    }
+}
@@ -0,0 +1,124 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Множества оценённых фильмов и друзей каждого пользователя в виде отсортированных массивов id.
+ * Общие фильмы и общие друзья считаются пересечением массивов в памяти, из базы загружаются только
+ * найденные id. Множества обновляются при каждой оценке и изменении списка друзей, при старте
+ * строятся заново по данным хранилища.
+ */
+@Service
+@Slf4j
+public class SocialGraphIndex {
+    private final UserStorage userStorage;
+    private final Map<Long, long[]> ratedFilms = new ConcurrentHashMap<>();
+    private final Map<Long, long[]> friends = new ConcurrentHashMap<>();
+
+    public SocialGraphIndex(@Qualifier("UserDbStorage") UserStorage userStorage) {
+        this.userStorage = userStorage;
+    }
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        ratedFilms.clear();
+        friends.clear();
+        RatingMatrix matrix = userStorage.getRatingMatrix();
+        for (int user = 0; user < matrix.getUserCount(); user++) {
+            long[] films = new long[matrix.userEnd(user) - matrix.userStart(user)];
+            for (int i = 0; i < films.length; i++) {
+                films[i] = matrix.getFilmId(matrix.userFilm(matrix.userStart(user) + i));
+            }
+            ratedFilms.put(matrix.getUserId(user), films);
+        }
+        userStorage.getAllUsers().forEach(user -> setFriends(user.getId(), user.getFriends().keySet()));
+        log.info("Social graph index built for {} raters and {} users with friends", ratedFilms.size(), friends.size());
+    }
+
+    /**
+     * @return id фильмов, оценённых обоими пользователями, по возрастанию
+     */
+    public List<Long> getCommonFilms(long userId, long otherId) {
+        return toList(LongSets.intersect(get(ratedFilms, userId), get(ratedFilms, otherId)));
+    }
+
+    /**
+     * @return id пользователей, которые есть в списках друзей обоих пользователей, по возрастанию
+     */
+    public List<Long> getCommonFriends(long userId, long otherId) {
+        return toList(LongSets.intersect(get(friends, userId), get(friends, otherId)));
+    }
+
+    public void addRate(long userId, long filmId) {
+        ratedFilms.compute(userId, (id, set) -> LongSets.add(set == null ? LongSets.EMPTY : set, filmId));
+    }
+
+    public void removeRate(long userId, long filmId) {
+        ratedFilms.computeIfPresent(userId, (id, set) -> emptyToNull(LongSets.remove(set, filmId)));
+    }
+
+    public void addFriend(long userId, long friendId) {
+        friends.compute(userId, (id, set) -> LongSets.add(set == null ? LongSets.EMPTY : set, friendId));
+    }
+
+    public void removeFriend(long userId, long friendId) {
+        friends.computeIfPresent(userId, (id, set) -> emptyToNull(LongSets.remove(set, friendId)));
+    }
+
+    public void setFriends(long userId, Collection<Long> friendIds) {
+        long[] set = LongSets.of(friendIds);
+        if (set.length == 0) {
+            friends.remove(userId);
+        } else {
+            friends.put(userId, set);
+        }
+    }
+
+    /**
+     * Заменяет оценивших фильм пользователей: фильм создаётся и обновляется вместе со списком оценок.
+     */
+    public void putFilm(long filmId, Collection<Long> userIds) {
+        removeFilm(filmId);
+        userIds.forEach(userId -> addRate(userId, filmId));
+    }
+
+    /**
+     * Удаляет фильм из множеств всех пользователей. Вызывается редко, поэтому обходит все множества.
+     */
+    public void removeFilm(long filmId) {
+        ratedFilms.keySet().forEach(userId -> removeRate(userId, filmId));
+    }
+
+    /**
+     * Удаляет пользователя вместе с его оценками и из списков друзей других пользователей.
+     */
+    public void removeUser(long userId) {
+        ratedFilms.remove(userId);
+        friends.remove(userId);
+        friends.keySet().forEach(id -> removeFriend(id, userId));
+    }
+
+    private static long[] get(Map<Long, long[]> sets, long userId) {
+        return sets.getOrDefault(userId, LongSets.EMPTY);
+    }
+
+    private static long[] emptyToNull(long[] set) {
+        return set.length == 0 ? null : set;
+    }
+
+    private static List<Long> toList(long[] ids) {
+        return Arrays.stream(ids).boxed().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.time.Duration;
+
+/**
+ * Кэш пользователей по id. Вес пользователя растёт с числом друзей.
+ */
+@Component
+public class UserCache extends EntityCache<Long, User> {
+    public UserCache(@Value("${filmorate.cache.users.max-weight:100000}") long maxWeight,
+                     @Value("${filmorate.cache.users.ttl:10m}") Duration ttl) {
+        super("users", maxWeight, ttl, user -> 1 + user.getFriends().size());
+    }
+}
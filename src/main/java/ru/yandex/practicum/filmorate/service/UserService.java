@@ -4,7 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
-import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.model.event.EventOperations;
@@ -16,34 +16,74 @@ import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class UserService {
+    private static final int POPULAR_FALLBACK_SIZE = 10;
+
     private final UserStorage userStorage;
-    private final EventService eventService;
     private final RecommendationService recommendationService;
+    private final PrecomputedRecommendations recommendations;
     private final FilmStorage filmStorage;
+    private final LeaderboardService leaderboardService;
+    private final SocialGraphIndex socialGraphIndex;
+    private final UserCache userCache;
+    private final FilmCache filmCache;
+    private final SimilarUsersIndex similarUsersIndex;
+    private final RateWriteQueue rateWriteQueue;
+    private final EventService eventService;
 
     public UserService(@Qualifier("UserDbStorage")UserStorage userStorage,
-                       EventService eventService,
                        RecommendationService recommendationService,
-                       @Qualifier("FilmDbStorage")FilmStorage filmStorage) {
+                       PrecomputedRecommendations recommendations,
+                       @Qualifier("FilmDbStorage")FilmStorage filmStorage,
+                       LeaderboardService leaderboardService,
+                       SocialGraphIndex socialGraphIndex,
+                       UserCache userCache,
+                       FilmCache filmCache,
+                       SimilarUsersIndex similarUsersIndex,
+                       RateWriteQueue rateWriteQueue,
+                       EventService eventService) {
         this.userStorage = userStorage;
-        this.eventService = eventService;
         this.recommendationService = recommendationService;
+        this.recommendations = recommendations;
         this.filmStorage = filmStorage;
+        this.leaderboardService = leaderboardService;
+        this.socialGraphIndex = socialGraphIndex;
+        this.userCache = userCache;
+        this.filmCache = filmCache;
+        this.similarUsersIndex = similarUsersIndex;
+        this.rateWriteQueue = rateWriteQueue;
+        this.eventService = eventService;
     }
 
     public User addUser(User user) {
         log.debug("Adding user: " + user);
-        return userStorage.addUser(user);
+        User added = userStorage.addUser(user);
+        socialGraphIndex.setFriends(added.getId(), added.getFriends().keySet());
+        return added;
+    }
+
+    /**
+     * Добавляет пользователей одним пакетом; возвращённые пользователи не перечитываются из базы.
+     */
+    public List<User> addUsers(List<User> users) {
+        log.debug("Adding {} users in batch", users.size());
+        List<User> added = userStorage.addUsers(users);
+        added.forEach(user -> socialGraphIndex.setFriends(user.getId(), user.getFriends().keySet()));
+        return added;
     }
 
+    /**
+     * Версии обрабатываются так же, как в {@link FilmService#updateFilm}; друзья из тела запроса
+     * не записываются.
+     */
     public User updateUser(User user) {
         log.debug("Updating user: " + user);
-        return userStorage.updateUser(user);
+        User updated = userStorage.updateUser(user);
+        userCache.invalidate(updated.getId());
+        return updated;
     }
 
     public Collection<User> getAllUsers() {
@@ -51,41 +91,53 @@ public class UserService {
         return userStorage.getAllUsers();
     }
 
+    public Collection<User> getUsersPage(Long after, Integer limit) {
+        int pageSize = Paging.pageSize(limit);
+        log.debug("Getting {} users after id {}", pageSize, after);
+        return userStorage.getUsersPage(after == null ? 0 : after, pageSize);
+    }
+
     public void addFriend(long userId, long friendId) {
-        User user = getUserById(userId);
+        isExist(userId);
         isExist(friendId);
-        log.debug("Adding friend: {} to user: {}", friendId, user);
-        user.getFriends().put(friendId, "Requested");
-        userStorage.updateUser(user);
-        eventService.addEvent(Event.builder()
-                .userId(userId)
-                .entityId(friendId)
-                .eventType(EventTypes.FRIEND)
-                .operation(EventOperations.ADD)
-                .timestamp(Instant.now().toEpochMilli())
-                .build());
+        log.debug("Adding friend: {} to user: {}", friendId, userId);
+        eventService.awaitUserEvents(userId);
+        try {
+            userStorage.addFriend(userId, friendId, friendEvent(userId, friendId, EventOperations.ADD));
+        } finally {
+            userCache.invalidate(userId);
+        }
+        socialGraphIndex.addFriend(userId, friendId);
     }
 
     public void removeFriend(long userId, long friendId) {
-        User user = getUserById(userId);
+        isExist(userId);
         isExist(friendId);
-        log.debug("Removing friend: {} from user: {}", friendId, user);
-        user.getFriends().remove(friendId);
-        userStorage.updateUser(user);
-        eventService.addEvent(Event.builder()
+        log.debug("Removing friend: {} from user: {}", friendId, userId);
+        eventService.awaitUserEvents(userId);
+        try {
+            userStorage.removeFriend(userId, friendId, friendEvent(userId, friendId, EventOperations.REMOVE));
+        } finally {
+            userCache.invalidate(userId);
+        }
+        socialGraphIndex.removeFriend(userId, friendId);
+    }
+
+    private static Event friendEvent(long userId, long friendId, EventOperations operation) {
+        return Event.builder()
                 .userId(userId)
                 .entityId(friendId)
                 .eventType(EventTypes.FRIEND)
-                .operation(EventOperations.REMOVE)
+                .operation(operation)
                 .timestamp(Instant.now().toEpochMilli())
-                .build());
+                .build();
     }
 
     public Collection<User> getCommonFriendsList(long userId, long friendId) {
         User user = getUserById(userId);
         User friend = getUserById(friendId);
         log.debug("Get common friend for friend: {} and user: {}", friend, user);
-        return userStorage.getCommonFriendsList(userId, friendId);
+        return userStorage.getUsersByIds(socialGraphIndex.getCommonFriends(userId, friendId));
     }
 
     public Collection<User> getFriendsList(long userId) {
@@ -95,7 +147,7 @@ public class UserService {
     }
 
     public User getUserById(long id) {
-        User user = userStorage.getById(id);
+        User user = userCache.get(id, userStorage::getById);
         if (user == null) {
             log.warn("User with id {} doesn't exist", id);
             throw new UserNotFoundException(Long.toString(id));
@@ -105,34 +157,44 @@ public class UserService {
     }
 
     public void deleteUser(long id) {
+        rateWriteQueue.flush();
+        Map<Long, Integer> rates = userStorage.getUserRates(id);
         if (!userStorage.deleteUser(userStorage.getById(id))) {
             throw new UserNotFoundException("User with id " + id + " is not found");
         }
+        rates.forEach(leaderboardService::removeRate);
+        userCache.invalidate(id);
+        userCache.invalidateIf(user -> user.getFriends().containsKey(id));
+        rates.keySet().forEach(filmCache::invalidate);
+        socialGraphIndex.removeUser(id);
+        recommendationService.removeUser(id);
+        similarUsersIndex.removeUser(id);
+        recommendations.removeUser(id);
     }
 
-    public Collection<Film> getRecommendation(long id) {
-        isExist(id);
-        log.debug("Getting recommendation films for user " + id);
-        Map<Long, Map<Long, Integer>> filmsRates = userStorage.getFilmsRates();
-        Map<Long, Double> recommendationFiltered = recommendationService.getRecommendationFiltered(filmsRates, id);
-        if (filmsRates.get(id).isEmpty() || recommendationFiltered.isEmpty()) {
-            return filmStorage.getTopFilms(10, 0,0);
-        }
+    public Collection<FilmSummary> getRecommendation(long id) {
+        return getRecommendation(id, null);
+    }
 
-        List<Film> filmList = recommendationFiltered.entrySet().stream()
-                .filter(e -> e.getValue() > 5.0)
-                .map(e -> filmStorage.getById(e.getKey()))
-                .collect(Collectors.toList());
-        if (filmList.isEmpty()) {
-            return filmStorage.getTopFilms(10, 0,0);
-        } else {
-            return filmList;
+    /**
+     * Не больше limit фильмов из заранее посчитанного списка рекомендаций ({@link PrecomputedRecommendations}),
+     * загруженные одним запросом. Если рекомендовать нечего, возвращает самые популярные фильмы.
+     */
+    public Collection<FilmSummary> getRecommendation(long id, Integer limit) {
+        int size = Paging.pageSize(limit);
+        isExist(id);
+        log.debug("Getting {} recommendation films for user {}", size, id);
+        List<Long> filmIds = recommendations.get(id, size);
+        if (filmIds.isEmpty()) {
+            return filmStorage.getFilmSummariesByIds(
+                    leaderboardService.getTop(Math.min(size, POPULAR_FALLBACK_SIZE), 0, 0));
         }
+        return filmStorage.getFilmSummariesByIds(filmIds);
     }
 
     public void isExist(Long id) {
         log.debug("Checking is user with id {} exists", id);
-        boolean isExists = userStorage.isExist(id);
+        boolean isExists = userCache.getIfPresent(id) != null || userStorage.isExist(id);
         if (!isExists) {
             log.warn("User with id {} doesn't exist", id);
             throw new UserNotFoundException(Long.toString(id));
@@ -1,14 +1,31 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
 
 import java.util.Collection;
+import java.util.List;
 
 public interface EventStorage {
 
     void addEvent(Event event);
 
+    /**
+     * Записывает события одним пакетом в порядке списка.
+     */
+    void addEvents(List<Event> events);
+
     Event getEventById(long id);
 
     Collection<Event> getUserEvents(long id);
+
+    /**
+     * @return id последнего записанного события или 0, если событий нет
+     */
+    long getLastEventId();
+
+    /**
+     * @return до limit событий типа type с id больше after по возрастанию id
+     */
+    List<Event> getEventsAfter(long after, EventTypes type, int limit);
 }
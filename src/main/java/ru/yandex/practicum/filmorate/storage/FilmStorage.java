@@ -1,23 +1,74 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRanking;
+import ru.yandex.practicum.filmorate.model.FilmRate;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.RateChange;
+import ru.yandex.practicum.filmorate.model.event.Event;
 
 import java.util.Collection;
+import java.util.List;
 
 public interface FilmStorage {
     Film addFilm(Film film);
 
+    /**
+     * Добавляет фильмы одной транзакцией и проставляет им id; в отличие от {@link #addFilm} фильмы
+     * не перечитываются из базы.
+     */
+    List<Film> addFilms(List<Film> films);
+
+    /**
+     * Заменяет поля, жанры и режиссёров фильма одной транзакцией; оценки не меняются. Если у фильма
+     * задана версия, обновление применяется только к ней.
+     *
+     * @throws ru.yandex.practicum.filmorate.exceptions.ConflictException если версия фильма уже другая
+     */
     Film updateFilm(Film film);
 
     Collection<Film> getAllFilms();
 
+    Collection<Film> getFilmsPage(long after, int limit);
+
+    List<FilmSummary> getFilmSummaries(long after, int limit);
+
     Collection<Film> getTopFilms(int size, int genreId, int year);
 
     boolean deleteFilm(Film film);
 
+    Integer addRate(long filmId, long userId, int rate);
+
+    Integer removeRate(long filmId, long userId);
+
+    /**
+     * @return оценка пользователя фильму или null, если её нет
+     */
+    Integer getRate(long filmId, long userId);
+
+    /**
+     * Применяет изменения оценок по порядку и записывает события одной транзакцией. Изменения
+     * несуществующих фильмов и пользователей пропускаются вместе с их событиями.
+     *
+     * @return для каждого изменения из changes предыдущая оценка в виде RateChange или null,
+     *          если изменение пропущено
+     */
+    List<RateChange> saveRates(List<RateChange> changes, List<Event> events);
+
     Film getById(long id);
 
-    Collection<Film> getFilmsForDirectorSorted(Long id, String sortBy);
+    List<Film> getFilmsByIds(List<Long> ids);
+
+    List<FilmSummary> getFilmSummariesByIds(List<Long> ids);
+
+    List<FilmRate> getFilmRates(long filmId, long afterUserId, int limit);
+
+    /**
+     * @return год, жанры и счётчики оценок всех фильмов, без загрузки самих оценок
+     */
+    List<FilmRanking> getFilmRankings();
+
+    List<FilmSummary> getFilmSummariesForDirector(Long id, String sortBy);
 
     Collection<Film> getSearchResult(String query, String by);
 
@@ -1,26 +1,54 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.event.Event;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 public interface UserStorage {
     User addUser(User user);
 
+    /**
+     * Добавляет пользователей одной транзакцией и проставляет им id, не перечитывая их из базы.
+     */
+    List<User> addUsers(List<User> users);
+
+    /**
+     * Заменяет поля пользователя, условно по версии, как {@link FilmStorage#updateFilm}; друзья
+     * не меняются.
+     *
+     * @throws ru.yandex.practicum.filmorate.exceptions.ConflictException если версия пользователя уже другая
+     */
     User updateUser(User user);
 
+    void addFriend(long userId, long friendId, Event event);
+
+    void removeFriend(long userId, long friendId, Event event);
+
     Collection<User> getAllUsers();
 
+    Collection<User> getUsersPage(long after, int limit);
+
     User getById(long id);
 
+    List<User> getUsersByIds(List<Long> ids);
+
     boolean deleteUser(User user);
 
     Collection<Film> getRecommendations(long id);
 
     Map<Long, Map<Long, Integer>> getFilmsRates();
 
+    RatingMatrix getRatingMatrix();
+
+    long getRatingCount();
+
+    Map<Long, Integer> getUserRates(long userId);
+
     Collection<User> getCommonFriendsList(long userId, long friendId);
 
     Collection<User> getFriendsList(long userId);
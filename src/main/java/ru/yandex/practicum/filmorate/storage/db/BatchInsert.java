@@ -0,0 +1,52 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Пакетная вставка строк с получением сгенерированных ключей: одна подготовленная команда
+ * на весь пакет вместо отдельного INSERT и чтения ключа на каждую строку.
+ */
+final class BatchInsert {
+    private BatchInsert() {
+    }
+
+    /**
+     * @return ключи вставленных строк в порядке rows
+     * @throws IncorrectResultSizeDataAccessException если драйвер вернул ключей меньше, чем строк
+     */
+    static long[] withKeys(JdbcTemplate jdbcTemplate, String sql, String keyColumn, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return new long[0];
+        }
+        return Objects.requireNonNull(jdbcTemplate.execute((ConnectionCallback<long[]>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql, new String[]{keyColumn})) {
+                for (Object[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        statement.setObject(i + 1, row[i]);
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                long[] keys = new long[rows.size()];
+                int count = 0;
+                try (ResultSet rs = statement.getGeneratedKeys()) {
+                    while (rs.next() && count < keys.length) {
+                        keys[count++] = rs.getLong(1);
+                    }
+                }
+                if (count != keys.length) {
+                    throw new IncorrectResultSizeDataAccessException("Expected " + keys.length +
+                            " generated keys, got " + count, keys.length, count);
+                }
+                return keys;
+            }
+        }));
+    }
+}
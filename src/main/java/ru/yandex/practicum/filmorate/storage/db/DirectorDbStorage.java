@@ -1,7 +1,6 @@
 package ru.yandex.practicum.filmorate.storage.db;
 
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -22,31 +21,29 @@ import java.util.Optional;
 @Repository
 public class DirectorDbStorage implements DirectorStorage {
     private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceData;
     static final RowMapper<Director> directorMapper = (rs, rowNum) -> new Director(rs.getLong("director_id"),
             rs.getString("director_name"));
 
-    public DirectorDbStorage(NamedParameterJdbcTemplate jdbcTemplate) {
+    public DirectorDbStorage(NamedParameterJdbcTemplate jdbcTemplate, ReferenceDataRegistry referenceData) {
         this.jdbcTemplate = jdbcTemplate;
+        this.referenceData = referenceData;
     }
 
     @Override
     public Collection<Director> getAll() {
-        String sql = "SELECT * FROM director";
-        log.debug("Getting all directors from db");
-        return jdbcTemplate.query(sql, directorMapper);
+        log.debug("Getting all directors");
+        return referenceData.getDirectors();
     }
 
     @Override
     public Optional<Director> getById(Long id) {
-        String sql = "SELECT * FROM director WHERE director_id=:id";
-        try {
-            Director director = jdbcTemplate.queryForObject(sql, Map.of("id", id), directorMapper);
-            log.debug("Getting director with id {}", id);
-            return Optional.ofNullable(director);
-        } catch (EmptyResultDataAccessException e) {
-            log.warn("Empty sql response for director id: {}", id);
-            return Optional.empty();
+        Optional<Director> director = referenceData.getDirector(id);
+        if (director.isEmpty()) {
+            log.warn("There is no director with id: {}", id);
         }
+        log.debug("Getting director with id {}", id);
+        return director;
     }
 
     @Override
@@ -59,7 +56,9 @@ public class DirectorDbStorage implements DirectorStorage {
         jdbcTemplate.update(sql, sqlParameterSource, keyHolder);
         long id = Objects.requireNonNull(keyHolder.getKey()).longValue();
         log.debug("Director added with id: {}", id);
-        return getById(id).orElseThrow(() -> new NotFoundException("Error creating director id " + id));
+        Director created = new Director(id, director.getName());
+        referenceData.putDirector(created);
+        return created;
     }
 
     @Override
@@ -69,16 +68,20 @@ public class DirectorDbStorage implements DirectorStorage {
         SqlParameterSource sqlParameterSource = new MapSqlParameterSource()
                 .addValue("id", id)
                 .addValue("name", director.getName());
-        jdbcTemplate.update(sql, sqlParameterSource);
+        if (jdbcTemplate.update(sql, sqlParameterSource) == 0) {
+            throw new NotFoundException("There is no director with id: " + id);
+        }
         log.debug("Director with id {} has been updated", id);
-        return getById(id).orElseThrow(() -> new NotFoundException("Error creating director id " + id));
-
+        Director updated = new Director(id, director.getName());
+        referenceData.putDirector(updated);
+        return updated;
     }
 
     @Override
     public void delete(Long id) {
         String sql = "DELETE FROM director WHERE director_id=:id";
         if (jdbcTemplate.update(sql, Map.of("id", id)) > 0) {
+            referenceData.removeDirector(id);
             log.debug("Director {} has been deleted", id);
         } else {
             throw new NotFoundException("There is no director with id: " + id);
@@ -12,21 +12,31 @@ import ru.yandex.practicum.filmorate.storage.EventStorage;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
 @Component
 public class EventDbStorage implements EventStorage {
 
+    private static final String INSERT_EVENT = "INSERT INTO event " +
+            "(user_id, entity_id, time_stamp, event_type, operation, rate) VALUES (?, ?, ?, ?, ?, ?)";
+
     private final JdbcTemplate jdbcTemplate;
 
     @Override
     public void addEvent(Event event) {
-        String sql = "INSERT INTO event (user_id, entity_id, time_stamp, event_type, operation, rate) " +
-                "VALUES (?, ?, ?, ?, ?, ?);";
-        jdbcTemplate.update(sql, event.getUserId(), event.getEntityId(), event.getTimestamp(),
+        jdbcTemplate.update(INSERT_EVENT, event.getUserId(), event.getEntityId(), event.getTimestamp(),
                 event.getEventType().toString(), event.getOperation().toString(), event.getFilmRate());
     }
 
+    @Override
+    public void addEvents(List<Event> events) {
+        jdbcTemplate.batchUpdate(INSERT_EVENT, events.stream()
+                .map(event -> new Object[]{event.getUserId(), event.getEntityId(), event.getTimestamp(),
+                        event.getEventType().toString(), event.getOperation().toString(), event.getFilmRate()})
+                .collect(Collectors.toList()));
+    }
+
     @Override
     public Event getEventById(long id) {
         String sql = "SELECT * FROM event WHERE event_id = ?";
@@ -35,13 +45,25 @@ public class EventDbStorage implements EventStorage {
 
     @Override
     public Collection<Event> getUserEvents(long id) {
-        String sql = "SELECT * FROM event WHERE user_id = ?;";
+        String sql = "SELECT * FROM event WHERE user_id = ? ORDER BY event_id";
         return jdbcTemplate.query(sql, (rs, rowNum) -> makeEvent(rs), id);
     }
 
+    @Override
+    public long getLastEventId() {
+        Long id = jdbcTemplate.queryForObject("SELECT MAX(event_id) FROM event", Long.class);
+        return id == null ? 0 : id;
+    }
+
+    @Override
+    public List<Event> getEventsAfter(long after, EventTypes type, int limit) {
+        String sql = "SELECT * FROM event WHERE event_id > ? AND event_type = ? ORDER BY event_id LIMIT ?";
+        return jdbcTemplate.query(sql, (rs, rowNum) -> makeEvent(rs), after, type.toString(), limit);
+    }
+
     private Event makeEvent(ResultSet rs) throws SQLException {
         return Event.builder()
-                .eventId(rs.getInt("event_id"))
+                .eventId(rs.getLong("event_id"))
                 .userId(rs.getInt("user_id"))
                 .entityId(rs.getInt("entity_id"))
                 .timestamp(rs.getLong("time_stamp"))
@@ -2,35 +2,44 @@ package ru.yandex.practicum.filmorate.storage.db;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
-import org.springframework.dao.IncorrectResultSizeDataAccessException;
-import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.exceptions.ConflictException;
+import ru.yandex.practicum.filmorate.exceptions.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.exceptions.NotFoundException;
 import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
 import ru.yandex.practicum.filmorate.exceptions.ValidationException;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRanking;
+import ru.yandex.practicum.filmorate.model.FilmRate;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.RateChange;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
-import static ru.yandex.practicum.filmorate.storage.db.DirectorDbStorage.directorMapper;
-import static ru.yandex.practicum.filmorate.storage.db.GenreDbStorage.genreMapper;
-import static ru.yandex.practicum.filmorate.storage.db.MpaDbStorage.mpaMapper;
+import static ru.yandex.practicum.filmorate.storage.db.FilmHydrator.SELECT_FILMS;
 
 @Repository("FilmDbStorage")
 @Primary
@@ -38,70 +47,32 @@ import static ru.yandex.practicum.filmorate.storage.db.MpaDbStorage.mpaMapper;
 public class FilmDbStorage implements FilmStorage {
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
-    static final String SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS = "SELECT f.name AS f_name, description, " +
-            "release_date, duration, rate, f.film_id, m.mpa_id, m.mpa_name, g.genre_id, g.name, l.user_id, l.film_rate, " +
-            "d.director_id, d.director_name " +
-            "FROM film AS f " +
-            "LEFT JOIN mpa AS m ON f.mpa_id = m.mpa_id " +
-            "LEFT JOIN film_genre AS fg ON f.film_id = fg.film_id " +
-            "LEFT JOIN genre AS g ON fg.genre_id = g.genre_id " +
-            "LEFT JOIN film_rates AS l ON f.film_id = l.film_id " +
-            "LEFT JOIN director_film AS fd ON f.film_id = fd.film_id " +
-            "LEFT JOIN director AS d ON fd.director_id = d.director_id";
-
-    static final ResultSetExtractor<List<Film>> filmWithGenresAndLikesExtractor = rs -> {
-        Map<Long, Film> filmMap = new LinkedHashMap<>();
-        Film film;
-        while (rs.next()) {
-            Long filmId = rs.getLong("film_id");
-            film = filmMap.get(filmId);
-            if (film == null) {
-                String name = rs.getString("f_name");
-                String description = rs.getString("description");
-                LocalDate releaseDate = rs.getDate("release_date").toLocalDate();
-                Integer duration = rs.getInt("duration");
-                film = new Film(name, description, releaseDate, duration);
-                film.setAvgRate(rs.getDouble("rate"));
-                film.setId(rs.getLong("film_id"));
-                film.setMpa(mpaMapper.mapRow(rs, 0));
-                filmMap.put(filmId, film);
-            }
-            Set<Genre> genres = film.getGenres();
-            if (rs.getInt("genre_id") != 0) {
-                genres.add(genreMapper.mapRow(rs, 0));
-            }
-            Map<Long, Integer> rates = film.getRates();
-            Long userId = rs.getLong("user_id");
-            Integer userRate = rs.getInt("film_rate");
-            if (userId != 0 && userRate != 0) {
-                rates.put(userId, userRate);
-            }
-            Set<Director> directors = film.getDirectors();
-            if (rs.getLong("director_id") != 0) {
-                directors.add(directorMapper.mapRow(rs, 0));
-            }
-        }
-        return new ArrayList<>(filmMap.values());
-    };
+    private final TransactionTemplate transactionTemplate;
+    private final FilmHydrator filmHydrator;
+    private final EventStorage eventStorage;
+    private final ReferenceDataRegistry referenceData;
 
-    public FilmDbStorage(NamedParameterJdbcTemplate jdbcTemplate) {
+    public FilmDbStorage(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                         ReferenceDataRegistry referenceData, EventStorage eventStorage) {
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.filmHydrator = new FilmHydrator(jdbcTemplate, referenceData);
+        this.eventStorage = eventStorage;
+        this.referenceData = referenceData;
     }
 
     @Override
     public Film addFilm(Film film) {
-        String sql = "INSERT INTO film(name, description, release_date, duration, rate, mpa_id) " +
-                "VALUES (:name, :desc, :release_date, :duration, :rate, :mpa)";
+        String sql = "INSERT INTO film(name, description, release_date, duration, mpa_id) " +
+                "VALUES (:name, :desc, :release_date, :duration, :mpa)";
         SqlParameterSource sqlParameterSource = new MapSqlParameterSource()
                 .addValue("name", film.getName())
                 .addValue("desc", film.getDescription())
                 .addValue("release_date", film.getReleaseDate())
                 .addValue("duration", film.getDuration())
-                .addValue("rate", film.getRates().values().stream().mapToInt(x -> x)
-                        .average().orElse(0.0) * 10 / 10.0)
                 .addValue("mpa", film.getMpa().getId());
         KeyHolder keyHolder = new GeneratedKeyHolder();
-        jdbcTemplate.update(sql, sqlParameterSource, keyHolder);
+        jdbcTemplate.update(sql, sqlParameterSource, keyHolder, new String[]{"film_id"});
         long id = Objects.requireNonNull(keyHolder.getKey()).longValue();
         log.debug("Film added with id: " + id);
         Map<Long, Integer> rates = film.getRates();
@@ -115,6 +86,7 @@ public class FilmDbStorage implements FilmStorage {
                             .addValue("id", id))
                     .toArray(SqlParameterSource[]::new);
             jdbcTemplate.batchUpdate(sql, params);
+            recountRates(id);
         }
         Set<Genre> genres = film.getGenres();
         if (genres != null && !genres.isEmpty()) {
@@ -141,40 +113,95 @@ public class FilmDbStorage implements FilmStorage {
         return getById(id);
     }
 
+    @Override
+    public List<Film> addFilms(List<Film> films) {
+        transactionTemplate.executeWithoutResult(status -> insertFilms(films));
+        log.debug("Added {} films in batch", films.size());
+        return films;
+    }
+
+    /**
+     * Счётчики оценок записываются сразу в строку фильма, поэтому пересчёт по film_rates не нужен.
+     * Названия рейтинга, жанров и режиссёров берутся из справочников в памяти.
+     */
+    private void insertFilms(List<Film> films) {
+        List<Object[]> rows = new ArrayList<>(films.size());
+        for (Film film : films) {
+            Map<Long, Integer> rates = film.getRates() == null ? Map.of() : film.getRates();
+            rows.add(new Object[]{film.getName(), film.getDescription(), film.getReleaseDate(), film.getDuration(),
+                    film.getMpa().getId(), rates.values().stream().mapToLong(Integer::longValue).sum(), rates.size()});
+        }
+        long[] ids = BatchInsert.withKeys(jdbcTemplate.getJdbcTemplate(), "INSERT INTO film " +
+                "(name, description, release_date, duration, mpa_id, rating_sum, rating_count) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)", "film_id", rows);
+        List<Object[]> genres = new ArrayList<>();
+        List<Object[]> directors = new ArrayList<>();
+        List<Object[]> rates = new ArrayList<>();
+        for (int i = 0; i < films.size(); i++) {
+            Film film = films.get(i);
+            long id = ids[i];
+            film.setId(id);
+            film.setVersion(0L);
+            film.setMpa(referenceData.getMpa(film.getMpa().getId()).orElse(film.getMpa()));
+            if (film.getGenres() != null) {
+                film.getGenres().forEach(genre -> genres.add(new Object[]{id, genre.getId()}));
+                film.setGenres(film.getGenres().stream()
+                        .map(genre -> referenceData.getGenre(genre.getId()).orElse(genre))
+                        .collect(Collectors.toCollection(() -> new TreeSet<>(Comparator.comparingInt(Genre::getId)))));
+            }
+            if (film.getDirectors() != null) {
+                film.getDirectors().forEach(director -> directors.add(new Object[]{id, director.getId()}));
+                film.setDirectors(film.getDirectors().stream()
+                        .map(director -> referenceData.getDirector(director.getId()).orElse(director))
+                        .collect(Collectors.toSet()));
+            }
+            if (film.getRates() != null) {
+                film.getRates().forEach((userId, rate) -> rates.add(new Object[]{id, userId, rate}));
+                film.setAvgRate(film.getRates().values().stream().mapToInt(Integer::intValue).average().orElse(0));
+            }
+        }
+        jdbcTemplate.getJdbcTemplate().batchUpdate("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)",
+                genres);
+        jdbcTemplate.getJdbcTemplate().batchUpdate("INSERT INTO director_film (film_id, director_id) VALUES (?, ?)",
+                directors);
+        jdbcTemplate.getJdbcTemplate().batchUpdate("INSERT INTO film_rates (film_id, user_id, film_rate) " +
+                "VALUES (?, ?, ?)", rates);
+    }
+
+    /**
+     * Строка фильма обновляется первой и остаётся заблокированной до конца транзакции, поэтому жанры
+     * и режиссёры заменяются без параллельных записей того же фильма. Оценки не меняются: их пишут
+     * только addRate и removeRate.
+     */
     @Override
     public Film updateFilm(Film film) {
+        transactionTemplate.executeWithoutResult(status -> replaceFilm(film));
+        return getById(film.getId());
+    }
+
+    private void replaceFilm(Film film) {
         long id = film.getId();
-        try {
-            jdbcTemplate.queryForObject("SELECT film_id FROM film WHERE film_id = :id",
-                    Map.of("id", id), Long.class);
-        } catch (IncorrectResultSizeDataAccessException e) {
-            log.warn("There is no film in the database with id: " + id);
-            throw new UserNotFoundException("Wrong id");
-        }
-        String sql = "UPDATE film SET film_id = :id, name = :name, description = :desc, release_date = :release_date, " +
-                "duration = :duration, rate = :rate, mpa_id = :mpa WHERE film_id = :id";
+        Long version = film.getVersion();
+        String sql = "UPDATE film SET name = :name, description = :desc, release_date = :release_date, " +
+                "duration = :duration, mpa_id = :mpa, version = version + 1 WHERE film_id = :id" +
+                (version == null ? "" : " AND version = :version");
         SqlParameterSource sqlParameterSource = new MapSqlParameterSource()
                 .addValue("id", id)
                 .addValue("desc", film.getDescription())
                 .addValue("name", film.getName())
                 .addValue("release_date", film.getReleaseDate())
                 .addValue("duration", film.getDuration())
-                .addValue("rate", film.getRates().values().stream().mapToInt(x -> x)
-                        .average().orElse(0.0) * 10 / 10.0)
-                .addValue("mpa", film.getMpa().getId());
-        jdbcTemplate.update(sql, sqlParameterSource);
-        log.debug("Update film with id: " + id);
-        Map<Long, Integer> rates = film.getRates();
-        jdbcTemplate.update("DELETE FROM film_rates WHERE film_id = :id", Map.of("id", id));
-        if (rates != null && !rates.isEmpty()) {
-            sql = "INSERT INTO film_rates (film_id, user_id, film_rate) VALUES(:id, :user, :rate)";
-            log.debug("Updating likes for film with id: " + id);
-            SqlParameterSource[] params = rates.entrySet().stream()
-                    .map(mapEntry -> new MapSqlParameterSource().addValue("user", mapEntry.getKey())
-                            .addValue("rate", mapEntry.getValue())
-                            .addValue("id", id)).toArray(SqlParameterSource[]::new);
-            jdbcTemplate.batchUpdate(sql, params);
+                .addValue("mpa", film.getMpa().getId())
+                .addValue("version", version);
+        if (jdbcTemplate.update(sql, sqlParameterSource) == 0) {
+            if (!isExist(id)) {
+                log.warn("There is no film in the database with id: " + id);
+                throw new UserNotFoundException("Wrong id");
+            }
+            log.debug("Film {} was modified concurrently, expected version {}", id, version);
+            throw new ConflictException("Film " + id + " has been modified, expected version " + version);
         }
+        log.debug("Update film with id: " + id);
         Set<Genre> genres = film.getGenres();
         jdbcTemplate.update("DELETE FROM film_genre WHERE film_id = :id", Map.of("id", id));
         if (genres != null && !genres.isEmpty()) {
@@ -196,35 +223,219 @@ public class FilmDbStorage implements FilmStorage {
                     .toArray(SqlParameterSource[]::new);
             jdbcTemplate.batchUpdate(sql, params);
         }
-        return getById(film.getId());
+    }
+
+    private void recountRates(long id) {
+        String sql = "UPDATE film SET " +
+                "rating_sum = (SELECT COALESCE(SUM(film_rate), 0) FROM film_rates WHERE film_id = :id), " +
+                "rating_count = (SELECT COUNT(*) FROM film_rates WHERE film_id = :id) " +
+                "WHERE film_id = :id";
+        jdbcTemplate.update(sql, Map.of("id", id));
+    }
+
+    /**
+     * Записывает одну оценку и поправляет счётчики rating_sum/rating_count фильма на разницу со старой оценкой.
+     * Строка фильма блокируется на время транзакции, поэтому параллельные оценки одного фильма
+     * применяются по очереди.
+     *
+     * @return предыдущая оценка пользователя или null, если её не было
+     */
+    @Override
+    public Integer addRate(long filmId, long userId, int rate) {
+        return transactionTemplate.execute(status -> saveRate(filmId, userId, rate));
+    }
+
+    private Integer saveRate(long filmId, long userId, int rate) {
+        lockFilm(filmId);
+        Integer previousRate = findRate(filmId, userId);
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("filmId", filmId)
+                .addValue("userId", userId)
+                .addValue("rate", rate);
+        jdbcTemplate.update("MERGE INTO film_rates (film_id, user_id, film_rate) KEY (film_id, user_id) " +
+                "VALUES (:filmId, :userId, :rate)", params);
+        updateRateCounters(filmId, rate - (previousRate == null ? 0 : previousRate), previousRate == null ? 1 : 0);
+        log.debug("Rate {} from user {} saved for film {}, previous rate: {}", rate, userId, filmId, previousRate);
+        return previousRate;
+    }
+
+    /**
+     * @return удалённая оценка пользователя или null, если её не было
+     */
+    @Override
+    public Integer removeRate(long filmId, long userId) {
+        return transactionTemplate.execute(status -> deleteRate(filmId, userId));
+    }
+
+    private Integer deleteRate(long filmId, long userId) {
+        lockFilm(filmId);
+        Integer previousRate = findRate(filmId, userId);
+        if (previousRate == null) {
+            return null;
+        }
+        jdbcTemplate.update("DELETE FROM film_rates WHERE film_id = :filmId AND user_id = :userId",
+                Map.of("filmId", filmId, "userId", userId));
+        updateRateCounters(filmId, -previousRate, -1);
+        log.debug("Rate {} from user {} removed from film {}", previousRate, userId, filmId);
+        return previousRate;
+    }
+
+    @Override
+    public Integer getRate(long filmId, long userId) {
+        return findRate(filmId, userId);
+    }
+
+    /**
+     * Блокирует строки всех затронутых фильмов в порядке id, читает их текущие оценки одним запросом,
+     * применяет изменения в памяти и записывает итоговые оценки, счётчики фильмов и события пакетами.
+     */
+    @Override
+    public List<RateChange> saveRates(List<RateChange> changes, List<Event> events) {
+        if (changes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return transactionTemplate.execute(status -> applyRates(changes, events));
+    }
+
+    private List<RateChange> applyRates(List<RateChange> changes, List<Event> events) {
+        Set<Long> filmIds = changes.stream().map(RateChange::getFilmId).collect(Collectors.toSet());
+        Set<Long> userIds = changes.stream().map(RateChange::getUserId).collect(Collectors.toSet());
+        Set<Long> films = new HashSet<>(jdbcTemplate.queryForList("SELECT film_id FROM film " +
+                "WHERE film_id IN (:ids) ORDER BY film_id FOR UPDATE", Map.of("ids", filmIds), Long.class));
+        Set<Long> users = new HashSet<>(jdbcTemplate.queryForList("SELECT user_id FROM users WHERE user_id IN (:ids)",
+                Map.of("ids", userIds), Long.class));
+        Map<Long, Map<Long, Integer>> current = new HashMap<>();
+        Map<Long, Set<Long>> stored = new HashMap<>();
+        // Пары читаются по первичному ключу: условие IN по двум столбцам H2 проверяет перебором списков.
+        Long[] pairFilmIds = changes.stream().map(RateChange::getFilmId).toArray(Long[]::new);
+        Long[] pairUserIds = changes.stream().map(RateChange::getUserId).toArray(Long[]::new);
+        jdbcTemplate.query("SELECT DISTINCT r.film_id, r.user_id, r.film_rate " +
+                        "FROM TABLE(film_id BIGINT = :filmIds, user_id BIGINT = :userIds) AS k " +
+                        "JOIN film_rates AS r ON r.film_id = k.film_id AND r.user_id = k.user_id",
+                Map.of("filmIds", pairFilmIds, "userIds", pairUserIds), rs -> {
+                    current.computeIfAbsent(rs.getLong("film_id"), id -> new HashMap<>())
+                            .put(rs.getLong("user_id"), rs.getInt("film_rate"));
+                    stored.computeIfAbsent(rs.getLong("film_id"), id -> new HashSet<>()).add(rs.getLong("user_id"));
+                });
+        Map<Long, long[]> counters = new HashMap<>();
+        Map<Long, Set<Long>> touched = new HashMap<>();
+        List<RateChange> previous = new ArrayList<>(changes.size());
+        for (RateChange change : changes) {
+            if (!films.contains(change.getFilmId()) || !users.contains(change.getUserId())) {
+                log.debug("Skipping rate change {}: film or user doesn't exist", change);
+                previous.add(null);
+                continue;
+            }
+            Map<Long, Integer> filmRates = current.computeIfAbsent(change.getFilmId(), id -> new HashMap<>());
+            Integer previousRate = change.getRate() == null
+                    ? filmRates.remove(change.getUserId())
+                    : filmRates.put(change.getUserId(), change.getRate());
+            previous.add(new RateChange(change.getFilmId(), change.getUserId(), previousRate));
+            touched.computeIfAbsent(change.getFilmId(), id -> new HashSet<>()).add(change.getUserId());
+            long[] counter = counters.computeIfAbsent(change.getFilmId(), id -> new long[2]);
+            counter[0] += (change.getRate() == null ? 0 : change.getRate()) - (previousRate == null ? 0 : previousRate);
+            counter[1] += (change.getRate() == null ? 0 : 1) - (previousRate == null ? 0 : 1);
+        }
+        // Какие строки уже есть в базе, известно из прочитанных оценок, поэтому вместо MERGE хватает
+        // отдельных INSERT, UPDATE и DELETE.
+        List<SqlParameterSource> inserts = new ArrayList<>();
+        List<SqlParameterSource> updates = new ArrayList<>();
+        List<SqlParameterSource> deletes = new ArrayList<>();
+        touched.forEach((filmId, userIdsOfFilm) -> userIdsOfFilm.forEach(userId -> {
+            Integer rate = current.get(filmId).get(userId);
+            boolean exists = stored.getOrDefault(filmId, Set.of()).contains(userId);
+            if (rate == null && !exists) {
+                return;
+            }
+            (rate == null ? deletes : exists ? updates : inserts).add(new MapSqlParameterSource()
+                    .addValue("filmId", filmId)
+                    .addValue("userId", userId)
+                    .addValue("rate", rate));
+        }));
+        jdbcTemplate.batchUpdate("INSERT INTO film_rates (film_id, user_id, film_rate) " +
+                        "VALUES (:filmId, :userId, :rate)", inserts.toArray(SqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate("UPDATE film_rates SET film_rate = :rate " +
+                        "WHERE film_id = :filmId AND user_id = :userId", updates.toArray(SqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate("DELETE FROM film_rates WHERE film_id = :filmId AND user_id = :userId",
+                deletes.toArray(SqlParameterSource[]::new));
+        jdbcTemplate.batchUpdate("UPDATE film SET rating_sum = rating_sum + :sumDelta, " +
+                        "rating_count = rating_count + :countDelta, version = version + 1 WHERE film_id = :filmId",
+                counters.entrySet().stream()
+                        .map(counter -> new MapSqlParameterSource()
+                                .addValue("filmId", counter.getKey())
+                                .addValue("sumDelta", counter.getValue()[0])
+                                .addValue("countDelta", counter.getValue()[1]))
+                        .toArray(SqlParameterSource[]::new));
+        eventStorage.addEvents(events.stream()
+                .filter(event -> films.contains(event.getEntityId()) && users.contains(event.getUserId()))
+                .collect(Collectors.toList()));
+        log.debug("Inserted {}, updated {} and removed {} rates of {} films", inserts.size(), updates.size(),
+                deletes.size(), counters.size());
+        return previous;
+    }
+
+    private void lockFilm(long filmId) {
+        List<Long> ids = jdbcTemplate.queryForList("SELECT film_id FROM film WHERE film_id = :id FOR UPDATE",
+                Map.of("id", filmId), Long.class);
+        if (ids.isEmpty()) {
+            log.warn("There is no film in the database with id: " + filmId);
+            throw new FilmNotFoundException(Long.toString(filmId));
+        }
+    }
+
+    private Integer findRate(long filmId, long userId) {
+        List<Integer> rates = jdbcTemplate.queryForList("SELECT film_rate FROM film_rates " +
+                "WHERE film_id = :filmId AND user_id = :userId", Map.of("filmId", filmId, "userId", userId), Integer.class);
+        return rates.isEmpty() ? null : rates.get(0);
+    }
+
+    private void updateRateCounters(long filmId, int sumDelta, int countDelta) {
+        String sql = "UPDATE film SET rating_sum = rating_sum + :sumDelta, " +
+                "rating_count = rating_count + :countDelta, version = version + 1 WHERE film_id = :filmId";
+        jdbcTemplate.update(sql, Map.of("filmId", filmId, "sumDelta", sumDelta, "countDelta", countDelta));
     }
 
     @Override
     public Collection<Film> getAllFilms() {
         log.debug("Getting all films");
-        return jdbcTemplate.query(SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS, filmWithGenresAndLikesExtractor);
+        return filmHydrator.query(SELECT_FILMS + " ORDER BY f.film_id", Map.of());
+    }
+
+    @Override
+    public Collection<Film> getFilmsPage(long after, int limit) {
+        log.debug("Getting {} films after id {}", limit, after);
+        String sql = SELECT_FILMS + " WHERE f.film_id > :after ORDER BY f.film_id LIMIT :limit";
+        return filmHydrator.query(sql, Map.of("after", after, "limit", limit));
+    }
+
+    @Override
+    public List<FilmSummary> getFilmSummaries(long after, int limit) {
+        log.debug("Getting {} film summaries after id {}", limit, after);
+        String sql = SELECT_FILMS + " WHERE f.film_id > :after ORDER BY f.film_id LIMIT :limit";
+        return filmHydrator.querySummaries(sql, Map.of("after", after, "limit", limit));
     }
 
     @Override
     public Collection<Film> getTopFilms(int size, int genreId, int year) {
         log.debug("Getting top " + size + " films");
-        Map<String, Integer> keys = new HashMap<>();
+        Map<String, Object> keys = new HashMap<>();
         keys.put("genreId", genreId);
         keys.put("size", size);
-        keys.put("year", year);
-        String limitTop = " WHERE f.film_id IN (SELECT film.film_id FROM film ";
+        keys.put("yearStart", LocalDate.of(year == 0 ? 1 : year, 1, 1));
+        keys.put("nextYearStart", LocalDate.of(year == 0 ? 1 : year, 1, 1).plusYears(1));
+        List<String> conditions = new ArrayList<>();
         if (genreId != 0) {
-            limitTop += " LEFT JOIN film_genre USING (film_id) WHERE genre_id = :genreId";
+            conditions.add("f.film_id IN (SELECT film_id FROM film_genre WHERE genre_id = :genreId)");
         }
-        if (genreId != 0 && year != 0) {
-            limitTop += " AND EXTRACT(YEAR FROM f.release_date) = :year";
+        if (year != 0) {
+            conditions.add("f.release_date >= :yearStart AND f.release_date < :nextYearStart");
         }
-        if (year != 0 && genreId == 0) {
-            limitTop += " WHERE EXTRACT(YEAR FROM f.release_date) = :year";
+        String sql = SELECT_FILMS;
+        if (!conditions.isEmpty()) {
+            sql += " WHERE " + String.join(" AND ", conditions);
         }
-        limitTop += " ORDER BY rate DESC LIMIT :size) ORDER BY rate DESC";
-        return jdbcTemplate.query(SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS + limitTop, keys,
-                filmWithGenresAndLikesExtractor);
+        sql += " ORDER BY f.rate DESC LIMIT :size";
+        return filmHydrator.query(sql, keys);
     }
 
     @Override
@@ -236,9 +447,9 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public Film getById(long id) {
-        String sql = SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS + " WHERE f.film_id = :id";
+        String sql = SELECT_FILMS + " WHERE f.film_id = :id";
         log.debug("Getting film by id: " + id);
-        List<Film> film = jdbcTemplate.query(sql, Map.of("id", id), filmWithGenresAndLikesExtractor);
+        List<Film> film = filmHydrator.query(sql, Map.of("id", id));
         if (film.isEmpty()) {
             log.warn("Film not found for id: " + id);
             return null;
@@ -246,15 +457,81 @@ public class FilmDbStorage implements FilmStorage {
         return film.get(0);
     }
 
+    /**
+     * @return фильмы в порядке переданных id, отсутствующие в базе id пропускаются
+     */
     @Override
-    public Collection<Film> getFilmsForDirectorSorted(Long id, String sortBy) {
-        String sortSql = SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS + " WHERE d.director_id = :id ";
+    public List<Film> getFilmsByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        log.debug("Getting films by ids: " + ids);
+        Map<Long, Film> films = filmHydrator.query(SELECT_FILMS + " WHERE f.film_id IN (:ids)", Map.of("ids", ids))
+                .stream()
+                .collect(Collectors.toMap(Film::getId, film -> film));
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmSummary> getFilmSummariesByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        log.debug("Getting film summaries by ids: " + ids);
+        Map<Long, FilmSummary> films = filmHydrator.querySummaries(SELECT_FILMS + " WHERE f.film_id IN (:ids)",
+                        Map.of("ids", ids))
+                .stream()
+                .collect(Collectors.toMap(FilmSummary::getId, film -> film));
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmRate> getFilmRates(long filmId, long afterUserId, int limit) {
+        String sql = "SELECT user_id, film_rate FROM film_rates " +
+                "WHERE film_id = :filmId AND user_id > :after ORDER BY user_id LIMIT :limit";
+        log.debug("Getting {} rates of film {} after user {}", limit, filmId, afterUserId);
+        return jdbcTemplate.query(sql, Map.of("filmId", filmId, "after", afterUserId, "limit", limit),
+                (rs, rowNum) -> new FilmRate(rs.getLong("user_id"), rs.getInt("film_rate")));
+    }
+
+    @Override
+    public List<FilmRanking> getFilmRankings() {
+        String sql = "SELECT f.film_id, f.release_date, f.rating_sum, f.rating_count, fg.genre_id " +
+                "FROM film AS f LEFT JOIN film_genre AS fg ON f.film_id = fg.film_id";
+        Map<Long, FilmRanking> rankings = new LinkedHashMap<>();
+        log.debug("Getting rankings of all films");
+        jdbcTemplate.query(sql, Map.of(), rs -> {
+            long filmId = rs.getLong("film_id");
+            FilmRanking ranking = rankings.get(filmId);
+            if (ranking == null) {
+                ranking = new FilmRanking(filmId, rs.getDate("release_date").toLocalDate().getYear(), new HashSet<>(),
+                        rs.getLong("rating_sum"), rs.getInt("rating_count"));
+                rankings.put(filmId, ranking);
+            }
+            int genreId = rs.getInt("genre_id");
+            if (!rs.wasNull()) {
+                ranking.getGenreIds().add(genreId);
+            }
+        });
+        return new ArrayList<>(rankings.values());
+    }
+
+    @Override
+    public List<FilmSummary> getFilmSummariesForDirector(Long id, String sortBy) {
+        String sortSql = SELECT_FILMS +
+                " WHERE f.film_id IN (SELECT film_id FROM director_film WHERE director_id = :id)";
         if (sortBy.equalsIgnoreCase("likes")) {
-            sortSql += " ORDER BY rate DESC";
+            sortSql += " ORDER BY f.rate DESC";
         } else if (sortBy.equalsIgnoreCase("year")) {
-            sortSql += " ORDER BY release_date";
+            sortSql += " ORDER BY f.release_date";
         }
-        Collection<Film> films = jdbcTemplate.query(sortSql, Map.of("id", id), filmWithGenresAndLikesExtractor);
+        List<FilmSummary> films = filmHydrator.querySummaries(sortSql, Map.of("id", id));
         if (films.isEmpty()) {
             throw new NotFoundException("There is now films for director id: " + id);
         }
@@ -268,39 +545,32 @@ public class FilmDbStorage implements FilmStorage {
         if (!columns.contains("director") && !columns.contains("title")) {
             throw new ValidationException("Error in search params 'by' = " + by);
         }
-        StringBuilder sql = new StringBuilder();
-        sql.append("SELECT DISTINCT * FROM (\n");
+        List<String> conditions = new ArrayList<>();
         if (columns.contains("title")) {
-            sql.append(SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS);
-            sql.append(" WHERE f.name ILIKE :query\n");
-            if (columns.contains("director")) {
-                sql.append("UNION\n");
-            }
+            conditions.add("f.name ILIKE :query");
         }
         if (columns.contains("director")) {
-            sql.append(SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS);
-            sql.append(" WHERE d.director_name ILIKE :query\n");
+            conditions.add("f.film_id IN (SELECT fd.film_id FROM director_film AS fd " +
+                    "JOIN director AS d ON fd.director_id = d.director_id WHERE d.director_name ILIKE :query)");
         }
-        sql.append(") ORDER BY rate DESC;");
+        String sql = SELECT_FILMS + " WHERE " + String.join(" OR ", conditions) + " ORDER BY f.rate DESC";
         log.debug("Поиск подстроки '{}' в колонках '{}'.", query, by);
-        return jdbcTemplate.query(sql.toString(), mapSqlParameterSource, filmWithGenresAndLikesExtractor);
+        return filmHydrator.query(sql, mapSqlParameterSource.getValues());
     }
 
     @Override
     public Collection<Film> getCommonFilms(long uid, long fid) {
-        String sql = SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS +
+        String sql = SELECT_FILMS +
                 " WHERE f.film_id IN (" +
                 "SELECT film_id FROM film_rates WHERE user_id = :uid1 " +
                 "INTERSECT " +
                 "SELECT film_id FROM film_rates WHERE user_id = :uid2 " +
-                ") ORDER BY rate DESC;";
+                ") ORDER BY f.rate DESC";
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource()
                 .addValue("uid1", uid)
                 .addValue("uid2", fid);
         log.debug("Поиск общих фильмов для пользователей с id: {}, {}.", uid, fid);
-        return jdbcTemplate.query(sql,
-                mapSqlParameterSource,
-                filmWithGenresAndLikesExtractor);
+        return filmHydrator.query(sql, mapSqlParameterSource.getValues());
     }
 
     @Override
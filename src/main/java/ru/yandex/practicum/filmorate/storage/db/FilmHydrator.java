@@ -0,0 +1,124 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Загрузка фильмов в несколько запросов вместо одного JOIN по всем связанным таблицам.
+ * Сначала выбираются строки самих фильмов, затем жанры, режиссёры и оценки загружаются
+ * отдельным запросом на каждую таблицу по списку id и раскладываются по фильмам в памяти.
+ * Количество строк растёт как сумма размеров связанных наборов, а не как их произведение.
+ * Названия жанров, MPA и имена режиссёров берутся из {@link ReferenceDataRegistry}, а не из JOIN.
+ */
+@Slf4j
+class FilmHydrator {
+    static final String SELECT_FILMS = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " +
+            "f.rate, f.rating_count, f.mpa_id, f.version " +
+            "FROM film AS f";
+    private static final String SELECT_GENRES = "SELECT film_id, genre_id " +
+            "FROM film_genre " +
+            "WHERE film_id IN (:ids)";
+    private static final String SELECT_DIRECTORS = "SELECT film_id, director_id " +
+            "FROM director_film " +
+            "WHERE film_id IN (:ids)";
+    private static final String SELECT_RATES = "SELECT film_id, user_id, film_rate " +
+            "FROM film_rates " +
+            "WHERE film_id IN (:ids)";
+    private static final int IN_LIST_SIZE = 1000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ReferenceDataRegistry referenceData;
+    private final RowMapper<Film> filmMapper = this::mapFilm;
+
+    FilmHydrator(NamedParameterJdbcTemplate jdbcTemplate, ReferenceDataRegistry referenceData) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.referenceData = referenceData;
+    }
+
+    private Film mapFilm(ResultSet rs, int rowNum) throws SQLException {
+        String name = rs.getString("name");
+        String description = rs.getString("description");
+        LocalDate releaseDate = rs.getDate("release_date").toLocalDate();
+        Integer duration = rs.getInt("duration");
+        Film film = new Film(name, description, releaseDate, duration);
+        film.setId(rs.getLong("film_id"));
+        film.setAvgRate(rs.getDouble("rate"));
+        film.setVersion(rs.getLong("version"));
+        int mpaId = rs.getInt("mpa_id");
+        Mpa mpa = referenceData.resolveMpa(mpaId);
+        film.setMpa(mpa != null ? mpa : new Mpa(mpaId, null));
+        return film;
+    }
+
+    /**
+     * @param sql запрос, возвращающий колонки {@link #SELECT_FILMS}, по одной строке на фильм
+     * @return фильмы в порядке строк запроса с заполненными жанрами, режиссёрами и оценками
+     */
+    List<Film> query(String sql, Map<String, ?> params) {
+        return hydrate(jdbcTemplate.query(sql, params, filmMapper), true);
+    }
+
+    /**
+     * То же, что {@link #query}, но без загрузки оценок: количество оценок берётся из счётчика в строке фильма.
+     */
+    List<FilmSummary> querySummaries(String sql, Map<String, ?> params) {
+        Map<Long, Integer> ratingCounts = new HashMap<>();
+        List<Film> films = jdbcTemplate.query(sql, params, (rs, rowNum) -> {
+            Film film = mapFilm(rs, rowNum);
+            ratingCounts.put(film.getId(), rs.getInt("rating_count"));
+            return film;
+        });
+        return hydrate(films, false).stream()
+                .map(film -> FilmSummary.from(film, ratingCounts.get(film.getId())))
+                .collect(Collectors.toList());
+    }
+
+    List<Film> hydrate(List<Film> films, boolean withRates) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        Map<Long, Film> filmMap = new HashMap<>();
+        for (Film film : films) {
+            filmMap.put(film.getId(), film);
+        }
+        List<Long> ids = new ArrayList<>(filmMap.keySet());
+        for (int from = 0; from < ids.size(); from += IN_LIST_SIZE) {
+            Map<String, List<Long>> params = Map.of("ids", ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size())));
+            jdbcTemplate.query(SELECT_GENRES, params, rs -> {
+                Genre genre = referenceData.resolveGenre(rs.getInt("genre_id"));
+                if (genre != null) {
+                    filmMap.get(rs.getLong("film_id")).getGenres().add(genre);
+                }
+            });
+            jdbcTemplate.query(SELECT_DIRECTORS, params, rs -> {
+                Director director = referenceData.resolveDirector(rs.getLong("director_id"));
+                if (director != null) {
+                    filmMap.get(rs.getLong("film_id")).getDirectors().add(director);
+                }
+            });
+            if (withRates) {
+                jdbcTemplate.query(SELECT_RATES, params, rs -> {
+                    filmMap.get(rs.getLong("film_id")).getRates()
+                            .put(rs.getLong("user_id"), rs.getInt("film_rate"));
+                });
+            }
+        }
+        log.debug("Hydrated {} films", films.size());
+        return films;
+    }
+}
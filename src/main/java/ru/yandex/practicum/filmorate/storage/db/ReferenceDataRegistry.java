@@ -0,0 +1,153 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import static ru.yandex.practicum.filmorate.storage.db.DirectorDbStorage.directorMapper;
+import static ru.yandex.practicum.filmorate.storage.db.GenreDbStorage.genreMapper;
+import static ru.yandex.practicum.filmorate.storage.db.MpaDbStorage.mpaMapper;
+
+/**
+ * Справочники жанров, рейтингов MPA и режиссёров в памяти: массивы общих неизменяемых экземпляров,
+ * индексированные по id. Загружаются при старте (или при первом обращении, если объект создан вне Spring),
+ * режиссёры обновляются при каждой записи через {@link DirectorDbStorage}. Если при сборке фильма
+ * встречается неизвестный id, справочник перечитывается из базы: значит, запись прошла в обход хранилища.
+ */
+@Component
+@Slf4j
+public class ReferenceDataRegistry {
+    private static final String SELECT_GENRES = "SELECT genre_id, name FROM genre";
+    private static final String SELECT_MPA = "SELECT mpa_id, mpa_name FROM mpa";
+    private static final String SELECT_DIRECTORS = "SELECT director_id, director_name FROM director";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private volatile Genre[] genres;
+    private volatile Mpa[] mpas;
+    private volatile Director[] directors;
+
+    public ReferenceDataRegistry(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public synchronized void refresh() {
+        genres = index(jdbcTemplate.query(SELECT_GENRES, genreMapper), Genre::getId, Genre[]::new);
+        mpas = index(jdbcTemplate.query(SELECT_MPA, mpaMapper), Mpa::getId, Mpa[]::new);
+        directors = index(jdbcTemplate.query(SELECT_DIRECTORS, directorMapper), Director::getId, Director[]::new);
+        log.info("Reference data loaded: {} genres, {} mpa ratings, {} directors",
+                count(genres), count(mpas), count(directors));
+    }
+
+    public Optional<Genre> getGenre(int id) {
+        return Optional.ofNullable(get(loaded().genres, id));
+    }
+
+    public List<Genre> getGenres() {
+        return all(loaded().genres);
+    }
+
+    public Optional<Mpa> getMpa(int id) {
+        return Optional.ofNullable(get(loaded().mpas, id));
+    }
+
+    public List<Mpa> getMpas() {
+        return all(loaded().mpas);
+    }
+
+    public Optional<Director> getDirector(long id) {
+        return Optional.ofNullable(get(loaded().directors, id));
+    }
+
+    public List<Director> getDirectors() {
+        return all(loaded().directors);
+    }
+
+    public synchronized void putDirector(Director director) {
+        Director[] current = loaded().directors;
+        int id = Math.toIntExact(director.getId());
+        Director[] updated = Arrays.copyOf(current, Math.max(current.length, id + 1));
+        updated[id] = director;
+        directors = updated;
+    }
+
+    public synchronized void removeDirector(long id) {
+        Director[] current = loaded().directors;
+        if (id < current.length) {
+            Director[] updated = current.clone();
+            updated[(int) id] = null;
+            directors = updated;
+        }
+    }
+
+    Genre resolveGenre(int id) {
+        Genre genre = get(loaded().genres, id);
+        if (genre == null) {
+            refresh();
+            genre = get(genres, id);
+        }
+        return genre;
+    }
+
+    Mpa resolveMpa(int id) {
+        Mpa mpa = get(loaded().mpas, id);
+        if (mpa == null && id != 0) {
+            refresh();
+            mpa = get(mpas, id);
+        }
+        return mpa;
+    }
+
+    Director resolveDirector(long id) {
+        Director director = get(loaded().directors, id);
+        if (director == null) {
+            refresh();
+            director = get(directors, id);
+        }
+        return director;
+    }
+
+    private ReferenceDataRegistry loaded() {
+        if (directors == null) {
+            synchronized (this) {
+                if (directors == null) {
+                    refresh();
+                }
+            }
+        }
+        return this;
+    }
+
+    private static <T> T get(T[] items, long id) {
+        return id >= 0 && id < items.length ? items[(int) id] : null;
+    }
+
+    private static <T> List<T> all(T[] items) {
+        return Arrays.stream(items).filter(Objects::nonNull).collect(Collectors.toUnmodifiableList());
+    }
+
+    private static long count(Object[] items) {
+        return Arrays.stream(items).filter(Objects::nonNull).count();
+    }
+
+    private static <T> T[] index(List<T> items, ToLongFunction<T> id, IntFunction<T[]> array) {
+        long maxId = items.stream().mapToLong(id).max().orElse(-1);
+        T[] result = array.apply(Math.toIntExact(maxId + 1));
+        for (T item : items) {
+            result[(int) id.applyAsLong(item)] = item;
+        }
+        return result;
+    }
+}
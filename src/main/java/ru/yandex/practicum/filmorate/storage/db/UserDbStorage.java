@@ -3,43 +3,63 @@ package ru.yandex.practicum.filmorate.storage.db;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
 import org.springframework.dao.DataAccessException;
-import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.exceptions.ConflictException;
 import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
-import static ru.yandex.practicum.filmorate.storage.db.FilmDbStorage.SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS;
-import static ru.yandex.practicum.filmorate.storage.db.FilmDbStorage.filmWithGenresAndLikesExtractor;
+import static ru.yandex.practicum.filmorate.storage.db.FilmHydrator.SELECT_FILMS;
 
 @Repository("UserDbStorage")
 @Primary
 @Slf4j
 public class UserDbStorage implements UserStorage {
     private final NamedParameterJdbcTemplate jdbcTemplate;
-    private static final String SELECT_ALL_USERS = "SELECT u.user_id, email, login, name, birthday, friend_id, status " +
+    private static final String SELECT_ALL_USERS = "SELECT u.user_id, email, login, name, birthday, version, " +
+            "friend_id, status " +
             "FROM users u " +
             "LEFT JOIN user_friends f ON u.user_id = f.user_id ";
 
-    public UserDbStorage(NamedParameterJdbcTemplate jdbcTemplate) {
+    private static final String SELECT_RATING_MATRIX = "SELECT user_id, film_id, film_rate FROM film_rates " +
+            "ORDER BY user_id, film_id";
+    private static final int RATINGS_FETCH_SIZE = 10_000;
+
+    private final TransactionTemplate transactionTemplate;
+    private final FilmHydrator filmHydrator;
+    private final EventStorage eventStorage;
+
+    public UserDbStorage(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                         ReferenceDataRegistry referenceData, EventStorage eventStorage) {
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.filmHydrator = new FilmHydrator(jdbcTemplate, referenceData);
+        this.eventStorage = eventStorage;
     }
 
     @Override
@@ -69,38 +89,96 @@ public class UserDbStorage implements UserStorage {
     }
 
     @Override
-    public User updateUser(User user) {
-        Long id = user.getId();
-        try {
-            jdbcTemplate.queryForObject("SELECT user_id FROM users WHERE user_id = :id",
-                    Map.of("id", id), Long.class);
-            log.debug("Updating user with id: " + id);
-        } catch (IncorrectResultSizeDataAccessException e) {
-            log.warn("There is no user in the database with id: " + id);
-            throw new UserNotFoundException("Wrong id");
+    public List<User> addUsers(List<User> users) {
+        transactionTemplate.executeWithoutResult(status -> insertUsers(users));
+        log.debug("Added {} users in batch", users.size());
+        return users;
+    }
+
+    private void insertUsers(List<User> users) {
+        List<Object[]> rows = users.stream()
+                .map(user -> new Object[]{user.getEmail(), user.getLogin(), user.getName(), user.getBirthday()})
+                .collect(Collectors.toList());
+        long[] ids = BatchInsert.withKeys(jdbcTemplate.getJdbcTemplate(),
+                "INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)", "user_id", rows);
+        List<Object[]> friends = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            long id = ids[i];
+            user.setId(id);
+            user.setVersion(0L);
+            if (user.getFriends() != null) {
+                user.getFriends().forEach((friendId, status) -> friends.add(new Object[]{id, friendId, status}));
+            }
         }
-        String sql = "UPDATE users SET email = :email, login = :login, name = :name, birthday = :birthday " +
-                "WHERE user_id = :id";
+        jdbcTemplate.getJdbcTemplate().batchUpdate("INSERT INTO user_friends (user_id, friend_id, status) " +
+                "VALUES (?, ?, ?)", friends);
+    }
+
+    /**
+     * Обновляет поля пользователя, условно по версии, если она передана. Друзья не меняются: их пишут
+     * только addFriend и removeFriend.
+     */
+    @Override
+    public User updateUser(User user) {
+        long id = user.getId();
+        Long version = user.getVersion();
+        log.debug("Updating user with id: " + id);
+        String sql = "UPDATE users SET email = :email, login = :login, name = :name, birthday = :birthday, " +
+                "version = version + 1 WHERE user_id = :id" + (version == null ? "" : " AND version = :version");
         SqlParameterSource sqlParameterSource = new MapSqlParameterSource()
-                .addValue("id", user.getId())
+                .addValue("id", id)
                 .addValue("email", user.getEmail())
                 .addValue("login", user.getLogin())
                 .addValue("name", user.getName())
-                .addValue("birthday", user.getBirthday());
-        jdbcTemplate.update(sql, sqlParameterSource);
-        Map<Long, String> friends = user.getFriends();
-        jdbcTemplate.update("DELETE FROM user_friends WHERE user_id = :id", Map.of("id", user.getId()));
-        if (friends.size() > 0) {
-            log.debug("Updating friends for user with id: " + id);
-            sql = "INSERT INTO user_friends (user_id, friend_id, status) VALUES (:id, :friend_id, :status)";
-            SqlParameterSource[] params = friends.entrySet().stream()
-                    .map(friend -> new MapSqlParameterSource().addValue("friend_id", friend.getKey())
-                            .addValue("status", friend.getValue())
-                            .addValue("id", user.getId()))
-                    .toArray(SqlParameterSource[]::new);
-            jdbcTemplate.batchUpdate(sql, params);
+                .addValue("birthday", user.getBirthday())
+                .addValue("version", version);
+        if (jdbcTemplate.update(sql, sqlParameterSource) == 0) {
+            if (!isExist(id)) {
+                log.warn("There is no user in the database with id: " + id);
+                throw new UserNotFoundException("Wrong id");
+            }
+            log.debug("User {} was modified concurrently, expected version {}", id, version);
+            throw new ConflictException("User " + id + " has been modified, expected version " + version);
         }
-        return getById(user.getId());
+        return getById(id);
+    }
+
+    /**
+     * Добавляет одну запись в user_friends по первичному ключу, не трогая остальных друзей,
+     * и в той же транзакции пишет событие и увеличивает версию пользователя.
+     */
+    @Override
+    public void addFriend(long userId, long friendId, Event event) {
+        transactionTemplate.executeWithoutResult(status -> {
+            incrementVersion(userId);
+            jdbcTemplate.update("MERGE INTO user_friends (user_id, friend_id, status) KEY (user_id, friend_id) " +
+                    "VALUES (:id, :friendId, :status)", new MapSqlParameterSource()
+                    .addValue("id", userId)
+                    .addValue("friendId", friendId)
+                    .addValue("status", "Requested"));
+            eventStorage.addEvent(event);
+        });
+        log.debug("Friend {} added to user {}", friendId, userId);
+    }
+
+    /**
+     * Удаляет одну запись из user_friends по первичному ключу и в той же транзакции пишет событие
+     * и увеличивает версию пользователя.
+     */
+    @Override
+    public void removeFriend(long userId, long friendId, Event event) {
+        transactionTemplate.executeWithoutResult(status -> {
+            incrementVersion(userId);
+            jdbcTemplate.update("DELETE FROM user_friends WHERE user_id = :id AND friend_id = :friendId",
+                    Map.of("id", userId, "friendId", friendId));
+            eventStorage.addEvent(event);
+        });
+        log.debug("Friend {} removed from user {}", friendId, userId);
+    }
+
+    private void incrementVersion(long userId) {
+        jdbcTemplate.update("UPDATE users SET version = version + 1 WHERE user_id = :id", Map.of("id", userId));
     }
 
     @Override
@@ -109,6 +187,16 @@ public class UserDbStorage implements UserStorage {
         return jdbcTemplate.query(SELECT_ALL_USERS, new UserWithFriendsMapper());
     }
 
+    @Override
+    public Collection<User> getUsersPage(long after, int limit) {
+        String sql = "SELECT u.user_id, email, login, name, birthday, version, friend_id, status " +
+                "FROM (SELECT * FROM users WHERE user_id > :after ORDER BY user_id LIMIT :limit) AS u " +
+                "LEFT JOIN user_friends f ON u.user_id = f.user_id " +
+                "ORDER BY u.user_id";
+        log.debug("Getting {} users after id {}", limit, after);
+        return jdbcTemplate.query(sql, Map.of("after", after, "limit", limit), new UserWithFriendsMapper());
+    }
+
     @Override
     public User getById(long id) {
         String sql = SELECT_ALL_USERS + " WHERE u.user_id = :id";
@@ -120,8 +208,35 @@ public class UserDbStorage implements UserStorage {
         return userList.get(0);
     }
 
+    @Override
+    public List<User> getUsersByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        log.debug("Getting users by ids: " + ids);
+        Map<Long, User> users = new HashMap<>();
+        jdbcTemplate.query(SELECT_ALL_USERS + "WHERE u.user_id IN (:ids)", Map.of("ids", ids),
+                new UserWithFriendsMapper()).forEach(user -> users.put(user.getId(), user));
+        return ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public boolean deleteUser(User user) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> deleteUserWithRates(user)));
+    }
+
+    private boolean deleteUserWithRates(User user) {
+        String sqlRates = "UPDATE film AS f SET " +
+                "rating_sum = rating_sum - (SELECT r.film_rate FROM film_rates AS r " +
+                "WHERE r.film_id = f.film_id AND r.user_id = :id), " +
+                "rating_count = rating_count - 1, version = version + 1 " +
+                "WHERE f.film_id IN (SELECT film_id FROM film_rates WHERE user_id = :id)";
+        jdbcTemplate.update(sqlRates, Map.of("id", user.getId()));
+        jdbcTemplate.update("UPDATE users SET version = version + 1 WHERE user_id IN " +
+                "(SELECT user_id FROM user_friends WHERE friend_id = :id)", Map.of("id", user.getId()));
         String sqlQuery = "DELETE FROM users WHERE user_id = :id";
         log.debug("Delete user with id: " + user.getId());
         return jdbcTemplate.update(sqlQuery, Map.of("id", user.getId())) > 0;
@@ -130,7 +245,7 @@ public class UserDbStorage implements UserStorage {
     private static final class UserWithFriendsMapper implements ResultSetExtractor<List<User>> {
         @Override
         public List<User> extractData(ResultSet rs) throws SQLException, DataAccessException {
-            Map<Long, User> map = new HashMap<>();
+            Map<Long, User> map = new LinkedHashMap<>();
             User user;
             while (rs.next()) {
                 Long userId = rs.getLong("user_id");
@@ -142,6 +257,7 @@ public class UserDbStorage implements UserStorage {
                         User newUser = new User(email, login, birthday);
                         newUser.setId(rs.getLong("user_id"));
                         newUser.setName(rs.getString("name"));
+                        newUser.setVersion(rs.getLong("version"));
                         return newUser;
                     } catch (SQLException e) {
                         log.warn("SQL Exception for user: " + id);
@@ -160,14 +276,14 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public Collection<Film> getRecommendations(long id) {
-        String sql = SELECT_ALL_FILMS_WITH_GENRES_LIKES_AND_DIRECTORS + " WHERE f.film_id IN (" +
+        String sql = SELECT_FILMS + " WHERE f.film_id IN (" +
                 "SELECT f.film_id FROM film_rates AS f " +
                 "JOIN (SELECT f3.user_id FROM film_rates AS f2 " +
                 "LEFT JOIN film_rates AS f3 ON f2.film_id = f3.film_id WHERE f2.user_id = :id AND f3.user_id <> f2.user_id " +
                 "GROUP BY f3.user_id ORDER BY COUNT(f3.film_id) DESC LIMIT 1) AS f1 ON f.user_id = f1.user_id " +
                 "WHERE f.film_rate >= 6 AND f.film_id NOT IN (SELECT film_id FROM film_rates WHERE user_id = :id))";
         log.debug("Getting recommendation films for user " + id);
-        return jdbcTemplate.query(sql, Map.of("id", id), filmWithGenresAndLikesExtractor);
+        return filmHydrator.query(sql, Map.of("id", id));
     }
 
     @Override
@@ -189,6 +305,41 @@ public class UserDbStorage implements UserStorage {
         return rates;
     }
 
+    /**
+     * Читает все оценки одним запросом по покрывающему индексу (user_id, film_id, film_rate) в порядке
+     * пользователей, не накапливая строки ResultSet: драйвер подгружает их порциями по RATINGS_FETCH_SIZE.
+     */
+    @Override
+    public RatingMatrix getRatingMatrix() {
+        long count = getRatingCount();
+        RatingMatrix.Builder builder = new RatingMatrix.Builder((int) count);
+        log.debug("Streaming {} rates into rating matrix", count);
+        jdbcTemplate.getJdbcTemplate().query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_RATING_MATRIX,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(RATINGS_FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> builder.add(rs.getLong(1), rs.getLong(2), rs.getInt(3)));
+        return builder.build();
+    }
+
+    @Override
+    public long getRatingCount() {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_rates", Map.of(), Long.class);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public Map<Long, Integer> getUserRates(long userId) {
+        String sql = "SELECT film_id, film_rate FROM film_rates WHERE user_id = :id";
+        Map<Long, Integer> rates = new HashMap<>();
+        log.debug("Getting rates of user " + userId);
+        jdbcTemplate.query(sql, Map.of("id", userId), rs -> {
+            rates.put(rs.getLong("film_id"), rs.getInt("film_rate"));
+        });
+        return rates;
+    }
+
     @Override
     public Collection<User> getCommonFriendsList(long userId, long friendId) {
         String sql = SELECT_ALL_USERS + "WHERE u.user_id IN " +
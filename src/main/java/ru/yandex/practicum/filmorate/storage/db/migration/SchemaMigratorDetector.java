@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.storage.db.migration;
+
+import org.springframework.boot.sql.init.dependency.AbstractBeansOfTypeDatabaseInitializerDetector;
+
+import java.util.Set;
+
+/**
+ * Помечает {@link SchemaMigrator} как инициализатор базы, чтобы бины, работающие с JDBC,
+ * создавались только после применения миграций.
+ */
+public class SchemaMigratorDetector extends AbstractBeansOfTypeDatabaseInitializerDetector {
+
+    @Override
+    protected Set<Class<?>> getDatabaseInitializerBeanTypes() {
+        return Set.of(SchemaMigrator.class);
+    }
+}
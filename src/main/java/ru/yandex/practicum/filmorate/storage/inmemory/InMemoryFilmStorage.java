@@ -2,13 +2,24 @@ package ru.yandex.practicum.filmorate.storage.inmemory;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.exceptions.ConflictException;
 import ru.yandex.practicum.filmorate.exceptions.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRanking;
+import ru.yandex.practicum.filmorate.model.FilmRate;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.RateChange;
+import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @Repository("inMemoryFilmStorage")
@@ -21,6 +32,7 @@ public class InMemoryFilmStorage implements FilmStorage {
     public Film addFilm(Film film) {
         long filmId = getNextId();
         film.setId(filmId);
+        film.setVersion(0L);
         database.put(filmId, film);
         log.debug("Film added: " + film);
         return database.get(filmId);
@@ -30,17 +42,30 @@ public class InMemoryFilmStorage implements FilmStorage {
         return id++;
     }
 
+    @Override
+    public List<Film> addFilms(List<Film> films) {
+        films.forEach(this::addFilm);
+        return films;
+    }
+
     @Override
     public Film updateFilm(Film film) {
         Long filmId = film.getId();
         if (!database.containsKey(filmId)) {
             log.warn("Film id is not in db. Id: " + filmId);
             throw new FilmNotFoundException("Incorrect film id for update");
-        } else {
-            database.put(filmId, film);
-            log.debug("Film updated: " + film);
-            return database.get(filmId);
         }
+        Film stored = database.get(filmId);
+        long version = stored.getVersion();
+        if (film.getVersion() != null && film.getVersion() != version) {
+            throw new ConflictException("Film " + filmId + " has been modified, expected version " + film.getVersion());
+        }
+        film.setRates(stored.getRates());
+        film.setAvgRate(stored.getAvgRate());
+        film.setVersion(version + 1);
+        database.put(filmId, film);
+        log.debug("Film updated: " + film);
+        return database.get(filmId);
     }
 
     @Override
@@ -48,6 +73,22 @@ public class InMemoryFilmStorage implements FilmStorage {
         return database.values();
     }
 
+    @Override
+    public Collection<Film> getFilmsPage(long after, int limit) {
+        return database.values().stream()
+                .filter(film -> film.getId() > after)
+                .sorted(Comparator.comparingLong(Film::getId))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmSummary> getFilmSummaries(long after, int limit) {
+        return getFilmsPage(after, limit).stream()
+                .map(FilmSummary::from)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public Collection<Film> getTopFilms(int size, int genreId, int year) {
         return getAllFilms().stream()
@@ -61,13 +102,104 @@ public class InMemoryFilmStorage implements FilmStorage {
         return database.remove(film.getId()) != null;
     }
 
+    @Override
+    public Integer addRate(long filmId, long userId, int rate) {
+        Film film = getExisting(filmId);
+        Integer previousRate = film.getRates().put(userId, rate);
+        updateRates(film);
+        return previousRate;
+    }
+
+    @Override
+    public Integer removeRate(long filmId, long userId) {
+        Film film = getExisting(filmId);
+        Integer previousRate = film.getRates().remove(userId);
+        updateRates(film);
+        return previousRate;
+    }
+
+    @Override
+    public Integer getRate(long filmId, long userId) {
+        return getExisting(filmId).getRates().get(userId);
+    }
+
+    @Override
+    public List<RateChange> saveRates(List<RateChange> changes, List<Event> events) {
+        List<RateChange> previous = new ArrayList<>();
+        for (RateChange change : changes) {
+            Film film = database.get(change.getFilmId());
+            if (film == null) {
+                previous.add(null);
+                continue;
+            }
+            Integer previousRate = change.getRate() == null
+                    ? film.getRates().remove(change.getUserId())
+                    : film.getRates().put(change.getUserId(), change.getRate());
+            previous.add(new RateChange(change.getFilmId(), change.getUserId(), previousRate));
+            updateRates(film);
+        }
+        return previous;
+    }
+
+    private Film getExisting(long filmId) {
+        Film film = database.get(filmId);
+        if (film == null) {
+            throw new FilmNotFoundException(Long.toString(filmId));
+        }
+        return film;
+    }
+
+    private void updateRates(Film film) {
+        film.setAvgRate(film.getRates().values().stream().mapToInt(x -> x).average().orElse(0.0));
+        film.setVersion(film.getVersion() + 1);
+    }
+
     @Override
     public Film getById(long id) {
         return database.get(id);
     }
 
     @Override
-    public Collection<Film> getFilmsForDirectorSorted(Long id, String sortBy) {
+    public List<Film> getFilmsByIds(List<Long> ids) {
+        return ids.stream()
+                .map(database::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmSummary> getFilmSummariesByIds(List<Long> ids) {
+        return getFilmsByIds(ids).stream()
+                .map(FilmSummary::from)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmRanking> getFilmRankings() {
+        return database.values().stream()
+                .map(film -> new FilmRanking(film.getId(), film.getReleaseDate().getYear(),
+                        film.getGenres().stream().map(Genre::getId).collect(Collectors.toSet()),
+                        film.getRates().values().stream().mapToLong(Integer::longValue).sum(),
+                        film.getRates().size()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmRate> getFilmRates(long filmId, long afterUserId, int limit) {
+        Film film = database.get(filmId);
+        if (film == null) {
+            return List.of();
+        }
+        return film.getRates().entrySet().stream()
+                .filter(rate -> rate.getKey() > afterUserId)
+                .sorted(Map.Entry.comparingByKey())
+                .limit(limit)
+                .map(rate -> new FilmRate(rate.getKey(), rate.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<FilmSummary> getFilmSummariesForDirector(Long id, String sortBy) {
         throw new UnsupportedOperationException();
     }
 
@@ -2,30 +2,49 @@ package ru.yandex.practicum.filmorate.storage.inmemory;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.exceptions.ConflictException;
 import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.event.Event;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 @Repository("inMemoryUserStorage")
 @Slf4j
 public class InMemoryUserStorage implements UserStorage {
     private final HashMap<Long, User> database = new HashMap<>();
+    private final InMemoryFilmStorage filmStorage;
     private long id = 1;
 
+    public InMemoryUserStorage(InMemoryFilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
     @Override
     public User addUser(User user) {
         long userId = getNextId();
         user.setId(userId);
+        user.setVersion(0L);
         log.info("User added: " + user);
         database.put(user.getId(), user);
         return database.get(userId);
     }
 
+    @Override
+    public List<User> addUsers(List<User> users) {
+        users.forEach(this::addUser);
+        return users;
+    }
+
     private long getNextId() {
         return id++;
     }
@@ -36,11 +55,47 @@ public class InMemoryUserStorage implements UserStorage {
         if (!database.containsKey(userId)) {
             log.warn("There is no user in the database with id: " + userId);
             throw new UserNotFoundException("Wrong id");
-        } else {
-            log.debug("Update user id: " + userId);
-            database.put(user.getId(), user);
-            return database.get(userId);
         }
+        User stored = database.get(userId);
+        long version = stored.getVersion();
+        if (user.getVersion() != null && user.getVersion() != version) {
+            throw new ConflictException("User " + userId + " has been modified, expected version " + user.getVersion());
+        }
+        log.debug("Update user id: " + userId);
+        user.setFriends(stored.getFriends());
+        user.setVersion(version + 1);
+        database.put(user.getId(), user);
+        return database.get(userId);
+    }
+
+    /**
+     * Событие не сохраняется: у хранилищ в памяти нет ленты событий, реализации {@code EventStorage}
+     * в памяти нет, и читать событие было бы некому.
+     */
+    @Override
+    public void addFriend(long userId, long friendId, Event event) {
+        User user = getExisting(userId);
+        user.getFriends().put(friendId, "Requested");
+        user.setVersion(user.getVersion() + 1);
+    }
+
+    /**
+     * Как и в {@link #addFriend}, событие не сохраняется.
+     */
+    @Override
+    public void removeFriend(long userId, long friendId, Event event) {
+        User user = getExisting(userId);
+        user.getFriends().remove(friendId);
+        user.setVersion(user.getVersion() + 1);
+    }
+
+    private User getExisting(long userId) {
+        User user = database.get(userId);
+        if (user == null) {
+            log.warn("There is no user in the database with id: " + userId);
+            throw new UserNotFoundException("Wrong id");
+        }
+        return user;
     }
 
     @Override
@@ -49,11 +104,28 @@ public class InMemoryUserStorage implements UserStorage {
         return database.values();
     }
 
+    @Override
+    public Collection<User> getUsersPage(long after, int limit) {
+        return database.values().stream()
+                .filter(user -> user.getId() > after)
+                .sorted(Comparator.comparingLong(User::getId))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public User getById(long id) {
         return database.get(id);
     }
 
+    @Override
+    public List<User> getUsersByIds(List<Long> ids) {
+        return ids.stream()
+                .map(database::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public boolean deleteUser(User user) {
         return database.remove(user.getId()) != null;
@@ -66,7 +138,32 @@ public class InMemoryUserStorage implements UserStorage {
 
     @Override
     public Map<Long, Map<Long, Integer>> getFilmsRates() {
-        throw new UnsupportedOperationException();
+        Map<Long, Map<Long, Integer>> rates = new HashMap<>();
+        filmStorage.getAllFilms().forEach(film -> film.getRates().forEach((userId, rate) ->
+                rates.computeIfAbsent(userId, k -> new HashMap<>()).put(film.getId(), rate)));
+        return rates;
+    }
+
+    @Override
+    public RatingMatrix getRatingMatrix() {
+        return RatingMatrix.of(getFilmsRates());
+    }
+
+    @Override
+    public long getRatingCount() {
+        return getRatingMatrix().size();
+    }
+
+    @Override
+    public Map<Long, Integer> getUserRates(long userId) {
+        Map<Long, Integer> rates = new HashMap<>();
+        filmStorage.getAllFilms().forEach(film -> {
+            Integer rate = film.getRates().get(userId);
+            if (rate != null) {
+                rates.put(film.getId(), rate);
+            }
+        });
+        return rates;
     }
 
     @Override
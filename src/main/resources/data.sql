@@ -1,14 +0,0 @@
-INSERT INTO genre (name)
-    VALUES ('Комедия'),
-       ('Драма'),
-       ('Мультфильм'),
-       ('Триллер'),
-       ('Документальный'),
-       ('Боевик');
-
-INSERT INTO mpa(mpa_name)
-    VALUES ('G'),
-        ('PG'),
-        ('PG-13'),
-        ('R'),
-        ('NC-17');
\ No newline at end of file
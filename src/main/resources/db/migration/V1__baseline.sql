@@ -1,22 +1,11 @@
-DROP TABLE mpa IF EXISTS CASCADE;
-DROP TABLE film IF EXISTS CASCADE;
-DROP TABLE users IF EXISTS CASCADE;
-DROP TABLE genre IF EXISTS CASCADE;
-DROP TABLE director IF EXISTS CASCADE;
-DROP TABLE film_genre IF EXISTS;
-DROP TABLE user_friends IF EXISTS;
-DROP TABLE film_rates IF EXISTS;
-DROP TABLE review_likes IF EXISTS;
-DROP TABLE review IF EXISTS;
-DROP TABLE director_film IF EXISTS;
-DROP TABLE event IF EXISTS;
-
-CREATE TABLE mpa (
+-- Схема, которую раньше пересоздавал schema.sql при каждом запуске.
+-- IF NOT EXISTS позволяет принять под версионирование уже существующую базу.
+CREATE TABLE IF NOT EXISTS mpa (
     mpa_id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     mpa_name VARCHAR(20) NOT NULL
 );
 
-CREATE TABLE film (
+CREATE TABLE IF NOT EXISTS film (
     film_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     name VARCHAR(100) NOT NULL,
     description VARCHAR(200) NOT NULL,
@@ -27,7 +16,7 @@ CREATE TABLE film (
     CONSTRAINT fk_mpa_id FOREIGN KEY (mpa_id) REFERENCES mpa
 );
 
-CREATE TABLE users (
+CREATE TABLE IF NOT EXISTS users (
     user_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     email VARCHAR(100) NOT NULL,
     login VARCHAR(20) NOT NULL,
@@ -35,19 +24,19 @@ CREATE TABLE users (
     birthday DATE NOT NULL
 );
 
-CREATE TABLE genre (
+CREATE TABLE IF NOT EXISTS genre (
     genre_id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     name VARCHAR(20) NOT NULL
 );
 
-CREATE TABLE film_genre (
+CREATE TABLE IF NOT EXISTS film_genre (
     film_id BIGINT,
     genre_id INT,
     CONSTRAINT fk_genre_film_id FOREIGN KEY (film_id) REFERENCES film ON DELETE CASCADE,
     CONSTRAINT fk_genre_id FOREIGN KEY (genre_id) REFERENCES genre
 );
 
-CREATE TABLE user_friends (
+CREATE TABLE IF NOT EXISTS user_friends (
     user_id BIGINT,
     friend_id BIGINT,
     status VARCHAR(20),
@@ -55,7 +44,7 @@ CREATE TABLE user_friends (
     CONSTRAINT fk_friends_friend_id FOREIGN KEY (friend_id) REFERENCES users ON DELETE CASCADE
 );
 
-CREATE TABLE film_rates (
+CREATE TABLE IF NOT EXISTS film_rates (
     film_id BIGINT,
     user_id BIGINT,
     film_rate INTEGER CHECK(film_rate BETWEEN 1 AND 10),
@@ -77,19 +66,19 @@ CREATE TABLE IF NOT EXISTS review_likes (
     is_like BOOLEAN
 );
 
-CREATE TABLE director (
+CREATE TABLE IF NOT EXISTS director (
     director_id BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
     director_name VARCHAR(50)
 );
 
-CREATE TABLE director_film (
+CREATE TABLE IF NOT EXISTS director_film (
     director_id BIGINT,
     film_id BIGINT,
     CONSTRAINT fk_director_director_id FOREIGN KEY (director_id) REFERENCES director ON DELETE CASCADE,
     CONSTRAINT fk_director_film_id FOREIGN KEY (film_id) REFERENCES film ON DELETE CASCADE
 );
 
-CREATE TABLE event  (
+CREATE TABLE IF NOT EXISTS event  (
     event_id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     user_id BIGINT REFERENCES users(user_id) ON DELETE CASCADE,
     entity_id BIGINT,
@@ -97,5 +86,19 @@ CREATE TABLE event  (
     event_type VARCHAR(6),
     operation VARCHAR(6),
     rate INTEGER
-)
+);
+
+MERGE INTO genre (genre_id, name) KEY (genre_id)
+    VALUES (1, 'Комедия'),
+       (2, 'Драма'),
+       (3, 'Мультфильм'),
+       (4, 'Триллер'),
+       (5, 'Документальный'),
+       (6, 'Боевик');
 
+MERGE INTO mpa (mpa_id, mpa_name) KEY (mpa_id)
+    VALUES (1, 'G'),
+        (2, 'PG'),
+        (3, 'PG-13'),
+        (4, 'R'),
+        (5, 'NC-17');
@@ -0,0 +1,11 @@
+-- Сумма и количество оценок фильма хранятся в строке фильма, средняя оценка вычисляется из них.
+ALTER TABLE film ADD COLUMN IF NOT EXISTS rating_sum BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE film ADD COLUMN IF NOT EXISTS rating_count INT DEFAULT 0 NOT NULL;
+
+UPDATE film AS f SET
+    rating_sum = (SELECT COALESCE(SUM(r.film_rate), 0) FROM film_rates AS r WHERE r.film_id = f.film_id),
+    rating_count = (SELECT COUNT(*) FROM film_rates AS r WHERE r.film_id = f.film_id);
+
+ALTER TABLE film DROP COLUMN rate;
+ALTER TABLE film ADD COLUMN rate FLOAT GENERATED ALWAYS AS (CASE WHEN rating_count = 0 THEN 0
+    ELSE CAST(rating_sum AS FLOAT) / rating_count END);
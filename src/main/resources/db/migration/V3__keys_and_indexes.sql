@@ -0,0 +1,49 @@
+-- Составные первичные ключи для таблиц связей и индексы под запросы хранилищ.
+-- Перед созданием ключей удаляются неполные строки и дубликаты, оставленные прежней схемой.
+DELETE FROM film_rates WHERE film_id IS NULL OR user_id IS NULL;
+DELETE FROM film_rates AS a WHERE EXISTS (SELECT 1 FROM film_rates AS b
+    WHERE b.film_id = a.film_id AND b.user_id = a.user_id AND b._ROWID_ < a._ROWID_);
+ALTER TABLE film_rates ALTER COLUMN film_id SET NOT NULL;
+ALTER TABLE film_rates ALTER COLUMN user_id SET NOT NULL;
+ALTER TABLE film_rates ADD CONSTRAINT pk_film_rates PRIMARY KEY (film_id, user_id);
+CREATE INDEX film_rates_user_idx ON film_rates (user_id, film_id, film_rate);
+
+UPDATE film AS f SET
+    rating_sum = (SELECT COALESCE(SUM(r.film_rate), 0) FROM film_rates AS r WHERE r.film_id = f.film_id),
+    rating_count = (SELECT COUNT(*) FROM film_rates AS r WHERE r.film_id = f.film_id);
+
+DELETE FROM film_genre WHERE film_id IS NULL OR genre_id IS NULL;
+DELETE FROM film_genre AS a WHERE EXISTS (SELECT 1 FROM film_genre AS b
+    WHERE b.film_id = a.film_id AND b.genre_id = a.genre_id AND b._ROWID_ < a._ROWID_);
+ALTER TABLE film_genre ALTER COLUMN film_id SET NOT NULL;
+ALTER TABLE film_genre ALTER COLUMN genre_id SET NOT NULL;
+ALTER TABLE film_genre ADD CONSTRAINT pk_film_genre PRIMARY KEY (film_id, genre_id);
+CREATE INDEX film_genre_genre_idx ON film_genre (genre_id, film_id);
+
+DELETE FROM director_film WHERE film_id IS NULL OR director_id IS NULL;
+DELETE FROM director_film AS a WHERE EXISTS (SELECT 1 FROM director_film AS b
+    WHERE b.film_id = a.film_id AND b.director_id = a.director_id AND b._ROWID_ < a._ROWID_);
+ALTER TABLE director_film ALTER COLUMN film_id SET NOT NULL;
+ALTER TABLE director_film ALTER COLUMN director_id SET NOT NULL;
+ALTER TABLE director_film ADD CONSTRAINT pk_director_film PRIMARY KEY (film_id, director_id);
+CREATE INDEX director_film_director_idx ON director_film (director_id, film_id);
+
+DELETE FROM user_friends WHERE user_id IS NULL OR friend_id IS NULL;
+DELETE FROM user_friends AS a WHERE EXISTS (SELECT 1 FROM user_friends AS b
+    WHERE b.user_id = a.user_id AND b.friend_id = a.friend_id AND b._ROWID_ < a._ROWID_);
+ALTER TABLE user_friends ALTER COLUMN user_id SET NOT NULL;
+ALTER TABLE user_friends ALTER COLUMN friend_id SET NOT NULL;
+ALTER TABLE user_friends ADD CONSTRAINT pk_user_friends PRIMARY KEY (user_id, friend_id);
+CREATE INDEX user_friends_friend_idx ON user_friends (friend_id, user_id);
+
+DELETE FROM review_likes WHERE review_id IS NULL OR user_id IS NULL;
+DELETE FROM review_likes AS a WHERE EXISTS (SELECT 1 FROM review_likes AS b
+    WHERE b.review_id = a.review_id AND b.user_id = a.user_id AND b._ROWID_ < a._ROWID_);
+ALTER TABLE review_likes ALTER COLUMN review_id SET NOT NULL;
+ALTER TABLE review_likes ALTER COLUMN user_id SET NOT NULL;
+ALTER TABLE review_likes ADD CONSTRAINT pk_review_likes PRIMARY KEY (review_id, user_id);
+
+CREATE INDEX review_film_idx ON review (film_id, id);
+CREATE INDEX event_user_idx ON event (user_id, event_id);
+CREATE INDEX film_rate_idx ON film (rate DESC, film_id);
+CREATE INDEX film_release_date_idx ON film (release_date);
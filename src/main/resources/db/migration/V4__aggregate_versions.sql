@@ -0,0 +1,4 @@
+-- Версии строк фильма и пользователя для условных обновлений: каждая запись фильма, его оценок,
+-- пользователя или его друзей увеличивает версию на единицу.
+ALTER TABLE film ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE users ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,122 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class RatingMatrixTest {
+    private static final int USERS = 200_000;
+    private static final int FILMS = 20_000;
+    private static final int RATINGS = 10_000_000;
+    private static final int BOXED_RATINGS = 1_000_000;
+
+    @Test
+    void storesRatesInBothOrientations() {
+        RatingMatrix matrix = RatingMatrix.of(Map.of(
+                7L, Map.of(300L, 5, 100L, 7),
+                3L, Map.of(200L, 1, 300L, 9)));
+
+        assertEquals(4, matrix.size());
+        assertEquals(2, matrix.getUserCount());
+        assertEquals(3, matrix.getFilmCount());
+        assertEquals(3L, matrix.getUserId(0));
+        assertEquals(100L, matrix.getFilmId(0));
+        assertEquals(-1, matrix.indexOfUser(5));
+        assertEquals(Map.of(100L, 7, 300L, 5), matrix.getUserRates(7));
+        assertEquals(Map.of(), matrix.getUserRates(5));
+
+        int film = matrix.indexOfFilm(300);
+        assertEquals(2, matrix.filmEnd(film) - matrix.filmStart(film));
+        assertEquals(3L, matrix.getUserId(matrix.filmUser(matrix.filmStart(film))));
+        assertEquals(9, matrix.filmRate(matrix.filmStart(film)));
+        assertEquals(7L, matrix.getUserId(matrix.filmUser(matrix.filmStart(film) + 1)));
+        assertEquals(5, matrix.filmRate(matrix.filmStart(film) + 1));
+    }
+
+    @Test
+    void rejectsUnorderedInput() {
+        RatingMatrix.Builder builder = new RatingMatrix.Builder(0).add(2, 10, 5);
+        assertThrows(IllegalArgumentException.class, () -> builder.add(2, 10, 6));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(1, 20, 6));
+    }
+
+    /**
+     * Сравнение памяти на 10 миллионах оценок: матрица против вложенных HashMap, как их возвращает
+     * getFilmsRates (замер HashMap на миллионе оценок, умноженный на 10).
+     */
+    @Test
+    @Tag("benchmark")
+    void measuresMemoryAtTenMillionRatings() {
+        long before = usedMemory();
+        RatingMatrix matrix = randomMatrix(RATINGS);
+        long matrixBytes = usedMemory() - before;
+        assertEquals(RATINGS, matrix.size());
+        long checksum = 0;
+        for (int film = 0; film < matrix.getFilmCount(); film++) {
+            for (int position = matrix.filmStart(film); position < matrix.filmEnd(film); position++) {
+                checksum += matrix.filmRate(position);
+            }
+        }
+        for (int position = 0; position < matrix.size(); position++) {
+            checksum -= matrix.userRate(position);
+        }
+        assertEquals(0, checksum, "Обе ориентации содержат одни и те же оценки");
+        assertTrue(matrix.getSizeInBytes() / RATINGS <= 12, "Около 10 байт на оценку");
+
+        matrix = null;
+        before = usedMemory();
+        Map<Long, Map<Long, Integer>> boxed = randomMaps(BOXED_RATINGS);
+        long boxedBytes = (usedMemory() - before) * (RATINGS / BOXED_RATINGS);
+        assertEquals(BOXED_RATINGS, boxed.values().stream().mapToInt(Map::size).sum());
+
+        log.info("Rating matrix benchmark, {} ratings: CSR {} MB measured ({} bytes per rating), " +
+                        "nested HashMap ~{} MB ({} bytes per rating)",
+                RATINGS, matrixBytes >> 20, matrixBytes / RATINGS, boxedBytes >> 20, boxedBytes / RATINGS);
+    }
+
+    private static RatingMatrix randomMatrix(int ratings) {
+        Random random = new Random(3);
+        RatingMatrix.Builder builder = new RatingMatrix.Builder(ratings);
+        int perUser = ratings / USERS;
+        for (long userId = 1; userId <= USERS; userId++) {
+            long filmId = 0;
+            for (int i = 0; i < perUser; i++) {
+                filmId += 1 + random.nextInt(FILMS / perUser);
+                builder.add(userId, filmId, 1 + random.nextInt(10));
+            }
+        }
+        return builder.build();
+    }
+
+    private static Map<Long, Map<Long, Integer>> randomMaps(int ratings) {
+        Random random = new Random(3);
+        Map<Long, Map<Long, Integer>> rates = new HashMap<>();
+        int perUser = ratings / USERS;
+        for (long userId = 1; userId <= USERS; userId++) {
+            Map<Long, Integer> userRates = rates.computeIfAbsent(userId, id -> new HashMap<>());
+            long filmId = 0;
+            for (int i = 0; i < perUser; i++) {
+                filmId += 1 + random.nextInt(FILMS / perUser);
+                userRates.put(filmId, 1 + random.nextInt(10));
+            }
+        }
+        return rates;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
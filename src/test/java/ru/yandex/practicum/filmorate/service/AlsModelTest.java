@@ -0,0 +1,146 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Оценки генерируются из случайных векторов ранга TRUE_RANK с шумом; у каждого пользователя десятая часть
+ * оценок откладывается и не участвует в обучении.
+ */
+@Slf4j
+class AlsModelTest {
+    private static final int USERS = 3_000;
+    private static final int FILMS = 500;
+    private static final int RATES_PER_USER = 40;
+    private static final int TRUE_RANK = 3;
+
+    private final Map<Long, Map<Long, Integer>> train = new HashMap<>();
+    private final Map<Long, Map<Long, Integer>> test = new HashMap<>();
+
+    @Test
+    void parallelTrainingMatchesSequential() {
+        split(300);
+        RatingMatrix matrix = RatingMatrix.of(train);
+        AlsModel sequential = train(matrix, 1);
+        AlsModel parallel = train(matrix, 4);
+        for (long userId = 1; userId <= 300; userId += 7) {
+            float[] factors = sequential.foldIn(train.get(userId));
+            assertTrue(Arrays.equals(factors, parallel.foldIn(train.get(userId))));
+            assertEquals(sequential.recommend(train.get(userId), 0, 10), parallel.recommend(train.get(userId), 0, 10));
+        }
+    }
+
+    @Test
+    void recommendsUnratedFilmsByPrediction() {
+        split(300);
+        AlsModel model = train(RatingMatrix.of(train), 2);
+        Map<Long, Integer> rates = train.get(1L);
+        float[] factors = model.foldIn(rates);
+
+        List<Long> recommended = model.recommend(rates, 5.0, 20);
+        assertEquals(20, recommended.size());
+        for (int i = 0; i < recommended.size(); i++) {
+            long filmId = recommended.get(i);
+            assertFalse(rates.containsKey(filmId));
+            assertTrue(model.predict(factors, filmId) > 5.0);
+            if (i > 0) {
+                assertTrue(model.predict(factors, recommended.get(i - 1)) >= model.predict(factors, filmId));
+            }
+        }
+        assertEquals(List.of(), model.recommend(rates, 11, 20));
+        assertTrue(Double.isNaN(model.predict(factors, FILMS + 1)));
+    }
+
+    /**
+     * RMSE на отложенных оценках против прогноза средней оценкой, время обучения и выдачи рекомендаций.
+     */
+    @Test
+    void reportsHeldOutRmseAndLatency() {
+        split(USERS);
+        RatingMatrix matrix = RatingMatrix.of(train);
+        int processors = Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        AlsModel model = train(matrix, processors);
+        long trainNanos = System.nanoTime() - start;
+
+        double mean = train.values().stream().flatMap(rates -> rates.values().stream())
+                .mapToInt(Integer::intValue).average().orElse(0);
+        double squares = 0;
+        double baselineSquares = 0;
+        int count = 0;
+        long[] latencies = new long[USERS];
+        for (long userId = 1; userId <= USERS; userId++) {
+            long serveStart = System.nanoTime();
+            model.recommend(train.get(userId), 5.0, PrecomputedRecommendations.STORED_SIZE);
+            latencies[(int) userId - 1] = System.nanoTime() - serveStart;
+            float[] factors = model.foldIn(train.get(userId));
+            for (Map.Entry<Long, Integer> rate : test.get(userId).entrySet()) {
+                double error = model.predict(factors, rate.getKey()) - rate.getValue();
+                squares += error * error;
+                baselineSquares += (mean - rate.getValue()) * (mean - rate.getValue());
+                count++;
+            }
+        }
+        double rmse = Math.sqrt(squares / count);
+        double baseline = Math.sqrt(baselineSquares / count);
+        Arrays.sort(latencies);
+        log.info("ALS benchmark, {} train / {} held-out rates, rank 8: RMSE {} (mean baseline {}); trained in {}ms " +
+                        "on {} threads; recommendations p50 {}us, p99 {}us", matrix.size(), count,
+                String.format("%.3f", rmse), String.format("%.3f", baseline), trainNanos / 1_000_000, processors,
+                latencies[USERS / 2] / 1000, latencies[USERS * 99 / 100] / 1000);
+        assertTrue(rmse < baseline * 0.75, "RMSE " + rmse + " против " + baseline);
+    }
+
+    private static AlsModel train(RatingMatrix matrix, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> AlsModel.train(matrix, 8, 0.05f, 10, 1)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void split(int users) {
+        Random random = new Random(29);
+        double[][] filmFactors = new double[FILMS + 1][TRUE_RANK];
+        for (double[] factors : filmFactors) {
+            for (int k = 0; k < TRUE_RANK; k++) {
+                factors[k] = random.nextGaussian();
+            }
+        }
+        for (long userId = 1; userId <= users; userId++) {
+            double[] userFactors = new double[TRUE_RANK];
+            for (int k = 0; k < TRUE_RANK; k++) {
+                userFactors[k] = random.nextGaussian();
+            }
+            Map<Long, Integer> userTrain = new HashMap<>();
+            Map<Long, Integer> userTest = new HashMap<>();
+            while (userTrain.size() + userTest.size() < RATES_PER_USER) {
+                long filmId = 1 + random.nextInt(FILMS);
+                if (userTrain.containsKey(filmId) || userTest.containsKey(filmId)) {
+                    continue;
+                }
+                double score = 5.5 + random.nextGaussian() * 0.5;
+                for (int k = 0; k < TRUE_RANK; k++) {
+                    score += userFactors[k] * filmFactors[(int) filmId][k];
+                }
+                int rate = (int) Math.max(1, Math.min(10, Math.round(score)));
+                (random.nextInt(10) == 0 ? userTest : userTrain).put(filmId, rate);
+            }
+            train.put(userId, userTrain);
+            test.put(userId, userTest);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.exceptions.ConflictException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Оценки и друзья добавляются из нескольких потоков одновременно с обновлениями того же фильма или
+ * пользователя. Часть обновлений отправляется с версией, как у клиента, который при конфликте перечитывает
+ * запись, часть — без версии из копии, прочитанной до начала записи оценок и друзей; ни одна оценка и ни
+ * одна дружба не должны потеряться.
+ */
+@Slf4j
+@SpringBootTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class ConcurrentUpdatesTest {
+    private static final int WRITERS = 4;
+    private static final int WRITES_PER_WRITER = 25;
+    private static final int UPDATERS = 2;
+    private static final int UPDATES_PER_UPDATER = 20;
+
+    private final FilmService filmService;
+    private final UserService userService;
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+
+    @Test
+    void updatesDoNotLoseConcurrentRates() throws Exception {
+        List<User> users = addUsers(WRITERS * WRITES_PER_WRITER);
+        Film film = new Film("Film", "desc", LocalDate.of(2000, 1, 1), 100);
+        film.setMpa(new Mpa(1, null));
+        long filmId = filmService.addFilm(film).getId();
+
+        Map<Long, Integer> expected = new HashMap<>();
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            List<User> own = users.subList(writer * WRITES_PER_WRITER, (writer + 1) * WRITES_PER_WRITER);
+            own.forEach(user -> expected.put(user.getId(), (int) (1 + user.getId() % 10)));
+            tasks.add(() -> {
+                own.forEach(user -> filmService.addRate(user.getId(), filmId, (int) (1 + user.getId() % 10)));
+                return 0;
+            });
+        }
+        Film stale = filmStorage.getById(filmId);
+        for (int updater = 0; updater < UPDATERS; updater++) {
+            int number = updater;
+            tasks.add(() -> updateRepeatedly(() -> {
+                Film current = filmStorage.getById(filmId);
+                Film changed = new Film(current.getName(), "update " + number, current.getReleaseDate(),
+                        current.getDuration());
+                changed.setId(filmId);
+                changed.setMpa(current.getMpa());
+                changed.setVersion(current.getVersion());
+                filmService.updateFilm(changed);
+            }));
+            tasks.add(() -> updateRepeatedly(() -> {
+                Film changed = new Film(stale.getName(), "versionless update " + number, stale.getReleaseDate(),
+                        stale.getDuration());
+                changed.setId(filmId);
+                changed.setMpa(stale.getMpa());
+                changed.setRates(stale.getRates());
+                filmService.updateFilm(changed);
+            }));
+        }
+        int conflicts = run(tasks);
+
+        Film result = filmStorage.getById(filmId);
+        assertEquals(expected, result.getRates());
+        assertEquals(expected.values().stream().mapToInt(Integer::intValue).average().orElse(0), result.getAvgRate(),
+                1e-9, "Счётчики оценок в строке фильма совпадают с оценками");
+        assertEquals(WRITERS * WRITES_PER_WRITER + 2 * UPDATERS * UPDATES_PER_UPDATER, result.getVersion());
+        log.info("Film stress test: {} rates, {} updates, {} conflicts", expected.size(),
+                2 * UPDATERS * UPDATES_PER_UPDATER, conflicts);
+    }
+
+    @Test
+    void updatesDoNotLoseConcurrentFriends() throws Exception {
+        List<User> users = addUsers(WRITERS * WRITES_PER_WRITER + 1);
+        long userId = users.get(0).getId();
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            List<User> own = users.subList(1 + writer * WRITES_PER_WRITER, 1 + (writer + 1) * WRITES_PER_WRITER);
+            tasks.add(() -> {
+                own.forEach(friend -> userService.addFriend(userId, friend.getId()));
+                return 0;
+            });
+        }
+        User stale = userStorage.getById(userId);
+        for (int updater = 0; updater < UPDATERS; updater++) {
+            int number = updater;
+            tasks.add(() -> updateRepeatedly(() -> {
+                User current = userStorage.getById(userId);
+                User changed = new User(current.getEmail(), current.getLogin(), current.getBirthday());
+                changed.setId(userId);
+                changed.setName("update " + number);
+                changed.setVersion(current.getVersion());
+                userService.updateUser(changed);
+            }));
+            tasks.add(() -> updateRepeatedly(() -> {
+                User changed = new User(stale.getEmail(), stale.getLogin(), stale.getBirthday());
+                changed.setId(userId);
+                changed.setName("versionless update " + number);
+                changed.setFriends(stale.getFriends());
+                userService.updateUser(changed);
+            }));
+        }
+        int conflicts = run(tasks);
+
+        User result = userStorage.getById(userId);
+        assertEquals(WRITERS * WRITES_PER_WRITER, result.getFriends().size());
+        assertTrue(users.subList(1, users.size()).stream().allMatch(user -> result.getFriends().containsKey(user.getId())));
+        assertEquals(WRITERS * WRITES_PER_WRITER + 2 * UPDATERS * UPDATES_PER_UPDATER, result.getVersion());
+        log.info("User stress test: {} friends, {} updates, {} conflicts", result.getFriends().size(),
+                2 * UPDATERS * UPDATES_PER_UPDATER, conflicts);
+    }
+
+    /**
+     * @return число конфликтов, после которых обновление пришлось перечитать и повторить
+     */
+    private static int updateRepeatedly(Runnable update) {
+        int conflicts = 0;
+        for (int i = 0; i < UPDATES_PER_UPDATER; i++) {
+            while (true) {
+                try {
+                    update.run();
+                    break;
+                } catch (ConflictException e) {
+                    conflicts++;
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    private static int run(List<Callable<Integer>> tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        try {
+            int conflicts = 0;
+            for (Future<Integer> future : pool.invokeAll(tasks)) {
+                conflicts += future.get();
+            }
+            return conflicts;
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private List<User> addUsers(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User("stress" + i + "@mail.ru", "stress" + i, LocalDate.of(2000, 1, 1));
+            user.setName("stress" + i);
+            users.add(user);
+        }
+        return userService.addUsers(users);
+    }
+}
@@ -0,0 +1,86 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DeviationTableTest {
+    private static final int USERS = 40;
+    private static final int FILMS = 25;
+
+    @Test
+    void incrementalUpdatesMatchRebuild() {
+        Random random = new Random(11);
+        DeviationTable incremental = new DeviationTable();
+        Map<Long, Map<Long, Integer>> marks = new HashMap<>();
+        for (int step = 0; step < 3000; step++) {
+            long userId = 1 + random.nextInt(USERS);
+            long filmId = 1 + random.nextInt(FILMS);
+            int action = random.nextInt(10);
+            if (action < 6) {
+                int rate = 1 + random.nextInt(10);
+                incremental.setRate(userId, filmId, rate);
+                marks.computeIfAbsent(userId, id -> new HashMap<>()).put(filmId, rate);
+            } else if (action < 8) {
+                Integer expected = marks.getOrDefault(userId, new HashMap<>()).remove(filmId);
+                assertEquals(expected, incremental.removeRate(userId, filmId));
+            } else if (action < 9 && step % 50 == 0) {
+                incremental.removeUser(userId);
+                marks.remove(userId);
+            } else if (step % 100 == 0) {
+                Map<Long, Integer> filmRates = Map.of(userId, 7, userId % USERS + 1, 3);
+                incremental.putFilm(filmId, filmRates);
+                marks.values().forEach(rates -> rates.remove(filmId));
+                filmRates.forEach((raterId, rate) ->
+                        marks.computeIfAbsent(raterId, id -> new HashMap<>()).put(filmId, rate));
+            }
+        }
+
+        DeviationTable rebuilt = DeviationTable.of(RatingMatrix.of(marks));
+        assertEquals(rebuilt.getFilms(), incremental.getFilms());
+        assertEquals(rebuilt.size(), incremental.size());
+        for (long filmId = 1; filmId <= FILMS; filmId++) {
+            for (long otherId = 1; otherId <= FILMS; otherId++) {
+                long[] expected = rebuilt.getDeviation(filmId, otherId);
+                if (expected == null) {
+                    assertNull(incremental.getDeviation(filmId, otherId));
+                } else {
+                    assertArrayEquals(expected, incremental.getDeviation(filmId, otherId));
+                }
+            }
+        }
+        for (long userId = 1; userId <= USERS; userId++) {
+            assertEquals(rebuilt.getUserRates(userId), incremental.getUserRates(userId));
+            assertEquals(rebuilt.predict(userId), incremental.predict(userId));
+        }
+    }
+
+    @Test
+    void predictsFromAverageDeviations() {
+        DeviationTable table = new DeviationTable();
+        table.setRate(1, 1, 5);
+        table.setRate(1, 2, 3);
+        table.setRate(2, 1, 3);
+        table.setRate(2, 2, 4);
+        table.setRate(2, 3, 8);
+        table.setRate(3, 2, 2);
+
+        assertArrayEquals(new long[]{1, 2}, table.getDeviation(1, 2));
+        assertArrayEquals(new long[]{0, 3}, table.getDeviation(2, 2));
+        Map<Long, Double> predictions = table.predict(3);
+        assertEquals(2.5, predictions.get(1L), 0.00001, "2 + среднее отклонение ((5 - 3) + (3 - 4)) / 2");
+        assertEquals(6.0, predictions.get(3L), 0.00001);
+        assertEquals(Map.of(), table.predict(4));
+
+        table.removeUser(2);
+        assertNull(table.getDeviation(2, 3));
+        assertEquals(Map.of(1L, 4.0), table.predict(3));
+    }
+}
@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EntityCacheTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private EntityCache<Long, String> cache;
+
+    @BeforeEach
+    void init() {
+        cache = new EntityCache<>("test", 10, Duration.ofNanos(100), String::length, now::get);
+    }
+
+    @Test
+    void readsThroughAndCountsHits() {
+        assertEquals("aaa", cache.get(1L, this::load));
+        assertEquals("aaa", cache.get(1L, this::load));
+        assertNull(cache.get(2L, id -> null));
+        assertNull(cache.get(2L, id -> null), "Отсутствующие сущности не кэшируются");
+        assertEquals(1, loads.get());
+        EntityCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(3, stats.getWeight());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedByWeight() {
+        cache.get(1L, id -> "aaaa");
+        cache.get(2L, id -> "bbbb");
+        cache.get(1L, this::load);
+        cache.get(3L, id -> "cccc");
+        assertEquals("aaaa", cache.getIfPresent(1L));
+        assertNull(cache.getIfPresent(2L));
+        assertEquals(1, cache.getStats().getEvictions());
+        assertEquals(8, cache.getStats().getWeight());
+
+        cache.get(4L, id -> "x".repeat(11));
+        assertNull(cache.getIfPresent(4L), "Запись тяжелее всего кэша не кладётся");
+    }
+
+    @Test
+    void expiresAndInvalidatesEntries() {
+        cache.get(1L, this::load);
+        now.addAndGet(101);
+        assertNull(cache.getIfPresent(1L));
+        assertEquals(1, cache.getStats().getExpirations());
+
+        cache.get(1L, this::load);
+        cache.get(2L, id -> "bb");
+        cache.invalidate(1L);
+        assertNull(cache.getIfPresent(1L));
+        cache.invalidateIf(value -> value.startsWith("b"));
+        assertEquals(0, cache.getStats().getSize());
+        assertEquals(0, cache.getStats().getWeight());
+    }
+
+    @Test
+    void dropsValueLoadedConcurrentlyWithInvalidation() {
+        assertEquals("stale", cache.get(1L, id -> {
+            cache.invalidate(id);
+            return "stale";
+        }));
+        assertNull(cache.getIfPresent(1L));
+    }
+
+    private String load(Long id) {
+        loads.incrementAndGet();
+        return "aaa";
+    }
+}
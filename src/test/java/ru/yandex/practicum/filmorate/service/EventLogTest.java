@@ -0,0 +1,299 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.db.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.db.migration.SchemaMigrator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class EventLogTest {
+    private static final int THREADS = 4;
+    private static final int EVENTS_PER_THREAD = 500;
+
+    @Test
+    void waitsForCommitAndKeepsOrderOfEachUser() throws Exception {
+        RecordingStorage storage = new RecordingStorage();
+        EventLog eventLog = eventLog(storage, EventLog.Durability.WAIT_FOR_COMMIT);
+        try {
+            appendConcurrently(event -> {
+                eventLog.append(event);
+                assertTrue(storage.contains(event), "Событие записано до возврата");
+            });
+        } finally {
+            eventLog.shutdown();
+        }
+        assertOrderOfEachUser(storage.events());
+        EventLog.Stats stats = eventLog.getStats();
+        assertEquals(THREADS * EVENTS_PER_THREAD, stats.getCommittedEvents());
+        assertEquals(stats.getGroups(), storage.groups());
+    }
+
+    @Test
+    void writesQueuedEventsOnShutdown() throws Exception {
+        RecordingStorage storage = new RecordingStorage();
+        storage.delayMillis = 2;
+        EventLog eventLog = eventLog(storage, EventLog.Durability.FIRE_AND_FORGET);
+        appendConcurrently(eventLog::append);
+        eventLog.shutdown();
+
+        assertEquals(THREADS * EVENTS_PER_THREAD, storage.events().size());
+        assertOrderOfEachUser(storage.events());
+        assertTrue(storage.groups() < THREADS * EVENTS_PER_THREAD, "События записываются группами");
+        eventLog.append(event(1, 1));
+        assertEquals(THREADS * EVENTS_PER_THREAD + 1, storage.events().size(), "После остановки событие пишется сразу");
+    }
+
+    @Test
+    void feedSeesOwnEventsInFireAndForgetMode() {
+        RecordingStorage storage = new RecordingStorage();
+        storage.delayMillis = 20;
+        EventLog eventLog = eventLog(storage, EventLog.Durability.FIRE_AND_FORGET);
+        try {
+            Event event = event(7, 1);
+            eventLog.append(event);
+            eventLog.awaitCommitted(7);
+            assertTrue(storage.contains(event));
+        } finally {
+            eventLog.shutdown();
+        }
+    }
+
+    @Test
+    void rejectedEventDoesNotFailItsGroup() throws Exception {
+        RecordingStorage storage = new RecordingStorage();
+        CountDownLatch firstGroup = new CountDownLatch(1);
+        storage.beforeGroup = () -> firstGroup.await(5, TimeUnit.SECONDS);
+        EventLog eventLog = eventLog(storage, EventLog.Durability.FIRE_AND_FORGET);
+        try {
+            eventLog.append(event(1, 1));
+            eventLog.append(event(1, 2));
+            eventLog.append(event(-1, 3));
+            eventLog.append(event(1, 4));
+            firstGroup.countDown();
+            eventLog.awaitCommitted(1);
+            eventLog.awaitCommitted(-1);
+        } finally {
+            eventLog.shutdown();
+        }
+        assertEquals(List.of(1L, 2L, 4L), storage.events().stream()
+                .map(Event::getEntityId)
+                .collect(Collectors.toList()));
+        assertEquals(1, eventLog.getStats().getFailedEvents());
+
+        EventLog waiting = eventLog(storage, EventLog.Durability.WAIT_FOR_COMMIT);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> waiting.append(event(-1, 5)));
+            waiting.append(event(1, 6));
+        } finally {
+            waiting.shutdown();
+        }
+        assertEquals(6L, storage.events().get(3).getEntityId());
+    }
+
+    /**
+     * Запись событий по одному против журнала в обоих режимах на файловой базе: каждый поток, как
+     * запрос, добавляет события своего пользователя.
+     */
+    @Test
+    void reportsThroughput() throws Exception {
+        Path dir = Files.createTempDirectory("event-log");
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:file:" + dir.resolve("events") + ";DB_CLOSE_ON_EXIT=FALSE");
+        dataSource.setMaximumPoolSize(THREADS + 1);
+        try {
+            new SchemaMigrator(dataSource).migrate();
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            for (long userId = 1; userId <= THREADS; userId++) {
+                jdbcTemplate.update("INSERT INTO users (user_id, email, login, name, birthday) " +
+                        "VALUES (?, ?, ?, 'name', '2000-01-01')", userId, "user" + userId + "@mail.ru", "user" + userId);
+            }
+            EventDbStorage eventStorage = new EventDbStorage(jdbcTemplate);
+            TransactionTemplate transactions = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+            long directNanos = appendConcurrently(eventStorage::addEvent);
+            EventLog waiting = new EventLog(eventStorage, transactions, EventLog.Durability.WAIT_FOR_COMMIT, 8192, 512);
+            long waitingNanos = appendConcurrently(waiting::append);
+            waiting.shutdown();
+            EventLog async = new EventLog(eventStorage, transactions, EventLog.Durability.FIRE_AND_FORGET, 8192, 512);
+            long asyncNanos = appendConcurrently(async::append);
+            async.shutdown();
+
+            int total = THREADS * EVENTS_PER_THREAD;
+            for (long userId = 1; userId <= THREADS; userId++) {
+                List<Long> entities = jdbcTemplate.queryForList("SELECT entity_id FROM event WHERE user_id = ? " +
+                        "ORDER BY event_id", Long.class, userId);
+                assertEquals(3 * EVENTS_PER_THREAD, entities.size());
+                for (int i = 0; i < entities.size(); i++) {
+                    assertEquals(1 + i % EVENTS_PER_THREAD, entities.get(i));
+                }
+            }
+            log.info("Event log benchmark, {} threads x {} events: direct {} events/s, wait for commit {} events/s " +
+                            "({} groups), fire and forget {} events/s", THREADS, EVENTS_PER_THREAD,
+                    total * 1_000_000_000L / directNanos, total * 1_000_000_000L / waitingNanos,
+                    waiting.getStats().getGroups(), total * 1_000_000_000L / asyncNanos);
+        } finally {
+            dataSource.close();
+            FileSystemUtils.deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Поток i добавляет события пользователя i + 1 с entity_id 1..EVENTS_PER_THREAD.
+     *
+     * @return время до возврата последнего вызова
+     */
+    private static long appendConcurrently(Consumer<Event> append) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                long userId = thread + 1;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (long entityId = 1; entityId <= EVENTS_PER_THREAD; entityId++) {
+                        append.accept(event(userId, entityId));
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void assertOrderOfEachUser(List<Event> events) {
+        Map<Long, List<Long>> byUser = events.stream().collect(Collectors.groupingBy(Event::getUserId,
+                Collectors.mapping(Event::getEntityId, Collectors.toList())));
+        assertEquals(THREADS, byUser.size());
+        byUser.values().forEach(entities -> {
+            assertEquals(EVENTS_PER_THREAD, entities.size());
+            for (int i = 0; i < entities.size(); i++) {
+                assertEquals(i + 1, entities.get(i), "События пользователя записаны в порядке добавления");
+            }
+        });
+    }
+
+    private static EventLog eventLog(EventStorage storage, EventLog.Durability durability) {
+        return new EventLog(storage, TransactionOperations.withoutTransaction(), durability, 64, 32);
+    }
+
+    private static Event event(long userId, long entityId) {
+        return new Event(0, userId, entityId, 1L, EventTypes.REVIEW, EventOperations.ADD, 0);
+    }
+
+    /**
+     * Хранит записанные события в памяти; событие пользователя -1 отклоняется вместе с группой.
+     */
+    private static class RecordingStorage implements EventStorage {
+        private final List<Event> events = new ArrayList<>();
+        private int groups;
+        volatile long delayMillis;
+        volatile Interruptible beforeGroup;
+
+        @Override
+        public synchronized void addEvent(Event event) {
+            reject(List.of(event));
+            events.add(event);
+        }
+
+        @Override
+        public void addEvents(List<Event> group) {
+            try {
+                Interruptible before = beforeGroup;
+                beforeGroup = null;
+                if (before != null) {
+                    before.run();
+                }
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                reject(group);
+                groups++;
+                events.addAll(group);
+            }
+        }
+
+        synchronized List<Event> events() {
+            return new ArrayList<>(events);
+        }
+
+        synchronized int groups() {
+            return groups;
+        }
+
+        synchronized boolean contains(Event event) {
+            return events.stream().anyMatch(stored -> stored == event);
+        }
+
+        private static void reject(List<Event> group) {
+            if (group.stream().anyMatch(event -> event.getUserId() == -1)) {
+                throw new IllegalArgumentException("Unknown user");
+            }
+        }
+
+        @Override
+        public Event getEventById(long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Collection<Event> getUserEvents(long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLastEventId() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Event> getEventsAfter(long after, EventTypes type, int limit) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Interruptible {
+        void run() throws InterruptedException;
+    }
+}
@@ -0,0 +1,85 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryFilmStorage;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FilmSearchIndexTest {
+    private FilmStorage filmStorage;
+    private FilmSearchIndex index;
+    private long firstId;
+    private long secondId;
+    private long thirdId;
+
+    @BeforeEach
+    void init() {
+        filmStorage = new InMemoryFilmStorage();
+        DirectorStorage directorStorage = mock(DirectorStorage.class);
+        when(directorStorage.getAll()).thenReturn(List.of(new Director(3L, "Без фильмов")));
+        firstId = addFilm("First film", new Director(1L, "Steven Spielberg")).getId();
+        secondId = addFilm("Фильм второй", new Director(1L, "Steven Spielberg"), new Director(2L, "Третий режиссёр")).getId();
+        thirdId = addFilm("Spielberg tribute").getId();
+        index = new FilmSearchIndex(filmStorage, directorStorage);
+        index.rebuild();
+    }
+
+    @Test
+    void findsSubstringsIgnoringCase() {
+        assertEquals(Set.of(firstId), index.search("IRST F", true, false));
+        assertEquals(Set.of(secondId), index.search("фИЛЬм", true, false));
+        assertEquals(Set.of(firstId), index.search("ir", true, false), "Короткий запрос ищется перебором");
+        assertEquals(Set.of(firstId, secondId, thirdId), index.search("", true, false));
+        assertEquals(Set.of(), index.search("film first", true, false), "Все триграммы есть, но подстроки нет");
+    }
+
+    @Test
+    void keepsTitleAndDirectorSemantics() {
+        assertEquals(Set.of(thirdId), index.search("spielberg", true, false));
+        assertEquals(Set.of(firstId, secondId), index.search("spielberg", false, true));
+        assertEquals(Set.of(firstId, secondId, thirdId), index.search("spielberg", true, true));
+        assertEquals(Set.of(secondId), index.search("трет", false, true));
+        assertEquals(Set.of(), index.search("трет", true, false));
+        assertEquals(Set.of(), index.search("без", false, true), "У режиссёра без фильмов нечего искать");
+    }
+
+    @Test
+    void followsFilmAndDirectorChanges() {
+        Film second = filmStorage.getById(secondId);
+        Film renamed = new Film("Renamed", second.getDescription(), second.getReleaseDate(), second.getDuration());
+        renamed.setId(secondId);
+        renamed.getDirectors().add(new Director(2L, null));
+        index.putFilm(renamed);
+        assertEquals(Set.of(), index.search("фильм", true, false));
+        assertEquals(Set.of(secondId), index.search("renamed", true, false));
+        assertEquals(Set.of(firstId), index.search("spielberg", false, true));
+
+        index.putDirector(new Director(2L, "Кубрик"));
+        assertEquals(Set.of(), index.search("трет", false, true));
+        assertEquals(Set.of(secondId), index.search("кубрик", false, true));
+
+        index.removeDirector(2L);
+        assertEquals(Set.of(), index.search("кубрик", false, true));
+        index.removeFilm(firstId);
+        assertEquals(Set.of(thirdId), index.search("spielberg", true, true));
+    }
+
+    private Film addFilm(String name, Director... directors) {
+        Film film = new Film(name, "desc", LocalDate.of(2000, 1, 1), 100);
+        film.setMpa(new Mpa(1, null));
+        film.getDirectors().addAll(List.of(directors));
+        return filmStorage.addFilm(film);
+    }
+}
@@ -0,0 +1,169 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.ImportReport;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import javax.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+@SpringBootTest(properties = "filmorate.import.batch-size=3")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class ImportServiceTest {
+    private final ImportService importService;
+    private final FilmService filmService;
+    private final UserService userService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final UserStorage userStorage;
+    private final FilmStorage filmStorage;
+    private final EventStorage eventStorage;
+
+    @Test
+    void importsValidLinesAndReportsTheRest() throws IOException {
+        ImportReport users = importService.importUsers(ndjson(
+                "{\"email\":\"first@mail.ru\",\"login\":\"first\",\"birthday\":\"1990-01-01\"}",
+                "",
+                "{\"email\":\"second@mail.ru\",\"login\":\"second\",\"name\":\"Second\",\"birthday\":\"1991-01-01\"," +
+                        "\"friends\":{\"1\":\"Requested\"}}",
+                "{\"email\":\"broken\",\"login\":\"broken\",\"birthday\":\"1990-01-01\"}",
+                "{\"email\":"));
+        assertEquals(2, users.getImported());
+        assertEquals(2, users.getFailed());
+        assertEquals(List.of(4L, 5L), lines(users));
+        assertEquals("Incorrect email", users.getErrors().get(0).getMessage());
+        assertTrue(users.getErrors().get(1).getMessage().startsWith("Malformed JSON"));
+        User first = userStorage.getById(1);
+        assertEquals("first", first.getName(), "Пустое имя заменяется логином");
+        assertEquals(Map.of(1L, "Requested"), userStorage.getById(2).getFriends());
+
+        ImportReport films = importService.importFilms(ndjson(
+                "{\"name\":\"First\",\"description\":\"d\",\"releaseDate\":\"2000-01-01\",\"duration\":90," +
+                        "\"mpa\":{\"id\":1},\"genres\":[{\"id\":1},{\"id\":2}],\"rates\":{\"1\":8,\"2\":6}}",
+                "{\"name\":\"Unknown mpa\",\"description\":\"d\",\"releaseDate\":\"2000-01-01\",\"duration\":90," +
+                        "\"mpa\":{\"id\":99}}",
+                "{\"name\":\"Second\",\"description\":\"d\",\"releaseDate\":\"2001-01-01\",\"duration\":100," +
+                        "\"mpa\":{\"id\":2}}",
+                "{\"name\":\"No mpa\",\"description\":\"d\",\"releaseDate\":\"2001-01-01\",\"duration\":100}"));
+        assertEquals(2, films.getImported());
+        assertEquals(List.of(2L, 4L), lines(films));
+        assertEquals("mpa is required", films.getErrors().get(1).getMessage());
+        List<Film> imported = filmStorage.getAllFilms().stream()
+                .sorted(Comparator.comparingLong(Film::getId))
+                .collect(Collectors.toList());
+        assertEquals(List.of("First", "Second"), imported.stream().map(Film::getName).collect(Collectors.toList()));
+        Film firstFilm = imported.get(0);
+        assertEquals(Set.of(1, 2), firstFilm.getGenres().stream().map(Genre::getId)
+                .collect(Collectors.toSet()));
+        assertEquals(7.0, firstFilm.getAvgRate());
+        assertEquals("G", firstFilm.getMpa().getName());
+
+        long secondId = imported.get(1).getId();
+        ImportReport rates = importService.importRates(ndjson(
+                "{\"filmId\":" + secondId + ",\"userId\":1,\"rate\":9}",
+                "{\"filmId\":" + secondId + ",\"userId\":2,\"rate\":4}",
+                "{\"filmId\":" + secondId + ",\"userId\":1,\"rate\":5}",
+                "{\"filmId\":" + secondId + ",\"userId\":100,\"rate\":5}",
+                "{\"filmId\":" + secondId + ",\"userId\":2,\"rate\":11}",
+                "{\"filmId\":\"x\",\"userId\":2,\"rate\":1}"));
+        assertEquals(3, rates.getImported());
+        assertEquals(List.of(4L, 5L, 6L), lines(rates));
+        assertEquals("Film or user doesn't exist", rates.getErrors().get(0).getMessage());
+        assertEquals("filmId must be an integer", rates.getErrors().get(2).getMessage());
+        Film second = filmService.getFilmById(secondId);
+        assertEquals(Map.of(1L, 5, 2L, 4), second.getRates());
+        assertEquals(4.5, second.getAvgRate());
+        assertEquals(2, eventStorage.getUserEvents(1).stream()
+                .filter(event -> event.getEventType() == EventTypes.RATE)
+                .count());
+    }
+
+    @Test
+    void readsNullCollectionsAsEmpty() throws IOException {
+        ImportReport users = importService.importUsers(ndjson(
+                "{\"email\":\"first@mail.ru\",\"login\":\"first\",\"birthday\":\"1990-01-01\",\"friends\":null}"));
+        assertEquals(1, users.getImported());
+        assertEquals(Map.of(), userStorage.getById(1).getFriends());
+
+        ImportReport films = importService.importFilms(ndjson(
+                "{\"name\":\"First\",\"description\":\"d\",\"releaseDate\":\"2000-01-01\",\"duration\":90," +
+                        "\"mpa\":{\"id\":1},\"rates\":null,\"genres\":null,\"directors\":null}",
+                "{\"name\":\"Null rate\",\"description\":\"d\",\"releaseDate\":\"2000-01-01\",\"duration\":90," +
+                        "\"mpa\":{\"id\":1},\"rates\":{\"1\":null}}"));
+        assertEquals(1, films.getImported());
+        assertEquals(List.of(2L), lines(films));
+        Film film = filmStorage.getAllFilms().iterator().next();
+        assertEquals(Map.of(), film.getRates());
+        assertTrue(film.getGenres().isEmpty());
+        assertTrue(film.getDirectors().isEmpty());
+    }
+
+    /**
+     * Скорость импорта пользователей и оценок пакетами по 1000 записей выводится в лог.
+     */
+    @Test
+    void reportsThroughput() throws IOException {
+        int count = 10_000;
+        StringBuilder users = new StringBuilder();
+        StringBuilder rates = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            users.append("{\"email\":\"user").append(i).append("@mail.ru\",\"login\":\"user").append(i)
+                    .append("\",\"birthday\":\"1990-01-01\"}\n");
+        }
+        Film film = new Film("Film", "desc", LocalDate.of(2000, 1, 1), 100);
+        film.setMpa(new Mpa(1, null));
+        long filmId = filmService.addFilm(film).getId();
+        for (int i = 1; i <= count; i++) {
+            rates.append("{\"filmId\":").append(filmId).append(",\"userId\":").append(i)
+                    .append(",\"rate\":").append(1 + i % 10).append("}\n");
+        }
+
+        ImportService importService = new ImportService(filmService, userService, objectMapper, validator, 1000);
+        long start = System.nanoTime();
+        assertEquals(count, importService.importUsers(ndjson(users.toString())).getImported());
+        long usersNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        assertEquals(count, importService.importRates(ndjson(rates.toString())).getImported());
+        long ratesNanos = System.nanoTime() - start;
+        log.info("Import benchmark, {} records of each kind: users {} records/s, rates {} records/s", count,
+                count * 1_000_000_000L / usersNanos, count * 1_000_000_000L / ratesNanos);
+        assertEquals(count, filmStorage.getById(filmId).getRates().size());
+    }
+
+    private static InputStream ndjson(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<Long> lines(ImportReport report) {
+        return report.getErrors().stream().map(ImportReport.LineError::getLine).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,103 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryFilmStorage;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LeaderboardServiceTest {
+    private FilmStorage filmStorage;
+    private LeaderboardService leaderboardService;
+    private long film2019Id;
+    private long film2020Id;
+    private long unratedId;
+
+    @BeforeEach
+    void init() {
+        filmStorage = new InMemoryFilmStorage();
+        film2019Id = addFilm("First", 2019, 1, 2).getId();
+        film2020Id = addFilm("Second", 2020, 1).getId();
+        unratedId = addFilm("Third", 2020, 2).getId();
+        filmStorage.addRate(film2019Id, 1, 8);
+        filmStorage.addRate(film2020Id, 1, 6);
+        filmStorage.addRate(film2020Id, 2, 4);
+        leaderboardService = new LeaderboardService(filmStorage);
+        leaderboardService.rebuild();
+    }
+
+    @Test
+    void topIsBuiltFromStoragePerBucket() {
+        assertEquals(List.of(film2019Id, film2020Id, unratedId), leaderboardService.getTop(10, 0, 0));
+        assertEquals(List.of(film2019Id), leaderboardService.getTop(1, 0, 0));
+        assertEquals(List.of(film2019Id, film2020Id), leaderboardService.getTop(10, 1, 0));
+        assertEquals(List.of(film2019Id, unratedId), leaderboardService.getTop(10, 2, 0));
+        assertEquals(List.of(film2020Id, unratedId), leaderboardService.getTop(10, 0, 2020));
+        assertEquals(List.of(unratedId), leaderboardService.getTop(10, 2, 2020));
+        assertEquals(List.of(), leaderboardService.getTop(10, 3, 0));
+    }
+
+    @Test
+    void ratesMoveFilmsInAllTheirBuckets() {
+        leaderboardService.addRate(unratedId, null, 10);
+        assertEquals(List.of(unratedId, film2019Id, film2020Id), leaderboardService.getTop(10, 0, 0));
+        assertEquals(List.of(unratedId, film2020Id), leaderboardService.getTop(10, 0, 2020));
+
+        leaderboardService.addRate(film2020Id, 4, 10);
+        assertEquals(List.of(film2019Id, film2020Id), leaderboardService.getTop(10, 1, 0),
+                "При равной оценке первым идёт фильм с меньшим id");
+
+        leaderboardService.addRate(film2020Id, null, 10);
+        assertEquals(List.of(film2020Id, film2019Id), leaderboardService.getTop(10, 1, 0));
+
+        leaderboardService.removeRate(unratedId, 10);
+        assertEquals(List.of(film2020Id, film2019Id, unratedId), leaderboardService.getTop(10, 0, 0));
+    }
+
+    @Test
+    void updatedAndDeletedFilmsLeaveOldBuckets() {
+        Film film = filmStorage.getById(film2019Id);
+        film.getGenres().clear();
+        film.getGenres().add(new Genre(3, null));
+        leaderboardService.put(film);
+        assertEquals(List.of(film2020Id), leaderboardService.getTop(10, 1, 0));
+        assertEquals(List.of(film2019Id), leaderboardService.getTop(10, 3, 2019));
+
+        leaderboardService.remove(film2019Id);
+        assertEquals(List.of(film2020Id, unratedId), leaderboardService.getTop(10, 0, 0));
+        assertEquals(List.of(), leaderboardService.getTop(10, 3, 0));
+    }
+
+    @Test
+    void updateKeepsRatesAndMovesGenres() {
+        Film film = filmStorage.getById(film2020Id);
+        Film changed = new Film(film.getName(), "updated", film.getReleaseDate(), film.getDuration());
+        changed.setId(film2020Id);
+        changed.getGenres().add(new Genre(2, null));
+        leaderboardService.update(changed);
+        assertEquals(List.of(film2019Id, film2020Id, unratedId), leaderboardService.getTop(10, 0, 0),
+                "Оценки обновлённого фильма не теряются");
+        assertEquals(List.of(film2019Id), leaderboardService.getTop(10, 1, 0));
+        assertEquals(List.of(film2019Id, film2020Id, unratedId), leaderboardService.getTop(10, 2, 0));
+
+        leaderboardService.addRate(film2020Id, 6, 10);
+        leaderboardService.addRate(film2020Id, 4, 10);
+        assertEquals(List.of(film2020Id, film2019Id, unratedId), leaderboardService.getTop(10, 0, 0));
+    }
+
+    private Film addFilm(String name, int year, int... genreIds) {
+        Film film = new Film(name, "desc", LocalDate.of(year, 1, 1), 100);
+        film.setMpa(new Mpa(1, null));
+        for (int genreId : genreIds) {
+            film.getGenres().add(new Genre(genreId, null));
+        }
+        return filmStorage.addFilm(film);
+    }
+}
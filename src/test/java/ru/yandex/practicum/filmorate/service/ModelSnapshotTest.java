@@ -0,0 +1,254 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryUserStorage;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelSnapshotTest {
+    private static final int FILMS = 50;
+
+    private final Map<Long, Map<Long, Integer>> marks = new HashMap<>();
+    private final List<Event> events = new ArrayList<>();
+    private Path directory;
+    private int matrixReads;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("model-snapshot");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void writesAndReadsSameTable() throws IOException {
+        fillMarks(300);
+        DeviationTable table = DeviationTable.of(RatingMatrix.of(marks));
+        Path path = directory.resolve("model.bin");
+
+        ModelSnapshot.write(path, table, 42);
+        ModelSnapshot snapshot = ModelSnapshot.read(path);
+
+        DeviationTable restored = snapshot.getTable();
+        assertEquals(42, snapshot.getEventId());
+        assertEquals(table.getRatingCount(), snapshot.getRatingCount());
+        assertEquals(table.getFilms(), restored.getFilms());
+        assertEquals(table.size(), restored.size());
+        for (long filmId = 1; filmId <= FILMS; filmId++) {
+            for (long otherId = 1; otherId <= FILMS; otherId++) {
+                long[] deviation = table.getDeviation(filmId, otherId);
+                if (deviation == null) {
+                    assertNull(restored.getDeviation(filmId, otherId));
+                } else {
+                    assertArrayEquals(deviation, restored.getDeviation(filmId, otherId));
+                }
+            }
+        }
+        for (long userId : marks.keySet()) {
+            assertEquals(table.getUserRates(userId), restored.getUserRates(userId));
+            assertEquals(table.predict(userId), restored.predict(userId));
+        }
+    }
+
+    @Test
+    void rejectsDamagedSnapshot() throws IOException {
+        fillMarks(100);
+        Path path = directory.resolve("model.bin");
+        ModelSnapshot.write(path, DeviationTable.of(RatingMatrix.of(marks)), 1);
+        byte[] original = Files.readAllBytes(path);
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(original.length / 2);
+            file.write(original[original.length / 2] ^ 1);
+        }
+        assertThrows(IOException.class, () -> ModelSnapshot.read(path));
+
+        Files.write(path, original);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(7);
+            file.write(ModelSnapshot.VERSION + 1);
+        }
+        assertThrows(IOException.class, () -> ModelSnapshot.read(path));
+
+        Files.write(path, Arrays.copyOf(original, original.length - 3));
+        assertThrows(IOException.class, () -> ModelSnapshot.read(path));
+    }
+
+    @Test
+    void restoresSnapshotAndAppliesLaterRateEvents() {
+        fillMarks(200);
+        marks.get(1L).put(1L, 5);
+        addEvent(1L, 1L, EventOperations.ADD, 5);
+        Path path = directory.resolve("model.bin");
+        RecommendationService first = service(path);
+        first.init();
+        first.shutdown();
+        assertTrue(Files.exists(path));
+        assertEquals(1, matrixReads);
+
+        long removedFilm = marks.get(2L).keySet().iterator().next();
+        marks.get(2L).remove(removedFilm);
+        addEvent(2L, removedFilm, EventOperations.REMOVE, 1);
+        marks.get(3L).put(FILMS + 1L, 9);
+        addEvent(3L, FILMS + 1L, EventOperations.ADD, 9);
+        marks.get(3L).put(FILMS + 1L, 4);
+        addEvent(3L, FILMS + 1L, EventOperations.ADD, 4);
+
+        RecommendationService restored = service(path);
+        restored.init();
+        assertEquals(1, matrixReads);
+        DeviationTable expected = DeviationTable.of(RatingMatrix.of(marks));
+        for (long userId : marks.keySet()) {
+            assertEquals(expected.predict(userId), restored.getRecommendation(userId));
+        }
+        restored.shutdown();
+    }
+
+    /**
+     * Событие оценки уже записано, а в модель оценка ещё не попала: снимок, сделанный в этот момент,
+     * не должен считать событие учтённым.
+     */
+    @Test
+    void replaysRateEventWrittenBeforeSnapshotButNotYetApplied() throws IOException {
+        fillMarks(100);
+        Path path = directory.resolve("model.bin");
+        RecommendationService first = service(path);
+        first.init();
+
+        long filmId = marks.get(1L).keySet().iterator().next();
+        int rate = marks.get(1L).get(filmId) % 10 + 1;
+        marks.get(1L).put(filmId, rate);
+        addEvent(1L, filmId, EventOperations.ADD, rate);
+        first.saveSnapshot();
+        Path early = Files.copy(path, directory.resolve("early.bin"));
+        first.setRate(1L, filmId, rate);
+        first.shutdown();
+
+        RecommendationService restored = service(early);
+        restored.init();
+        assertEquals(1, matrixReads);
+        assertEquals(rate, restored.getUserRates(1L).get(filmId));
+        assertEquals(DeviationTable.of(RatingMatrix.of(marks)).predict(2L), restored.getRecommendation(2L));
+        restored.shutdown();
+    }
+
+    @Test
+    void rebuildsWhenSnapshotDisagreesWithStorage() {
+        fillMarks(100);
+        Path path = directory.resolve("model.bin");
+        RecommendationService first = service(path);
+        first.init();
+        first.shutdown();
+
+        marks.get(1L).put(FILMS + 1L, 7);
+        RecommendationService second = service(path);
+        second.init();
+        assertEquals(2, matrixReads);
+        assertEquals(DeviationTable.of(RatingMatrix.of(marks)).predict(2L), second.getRecommendation(2L));
+
+        second.putFilm(FILMS + 1L, Map.of());
+        assertFalse(Files.exists(path));
+        second.shutdown();
+    }
+
+    private RecommendationService service(Path path) {
+        InMemoryUserStorage userStorage = new InMemoryUserStorage(new InMemoryFilmStorage()) {
+            @Override
+            public RatingMatrix getRatingMatrix() {
+                matrixReads++;
+                return RatingMatrix.of(marks);
+            }
+
+            @Override
+            public long getRatingCount() {
+                return marks.values().stream().mapToLong(Map::size).sum();
+            }
+        };
+        return new RecommendationService(userStorage, new ListEventStorage(), path.toString(), 1);
+    }
+
+    private void fillMarks(int users) {
+        Random random = new Random(3);
+        for (long userId = 1; userId <= users; userId++) {
+            Map<Long, Integer> rates = new HashMap<>();
+            for (int i = 0; i < 10; i++) {
+                rates.put(1L + random.nextInt(FILMS), 1 + random.nextInt(10));
+            }
+            marks.put(userId, rates);
+        }
+    }
+
+    private void addEvent(long userId, long filmId, EventOperations operation, int rate) {
+        events.add(new Event(events.size() + 1, userId, filmId, 0, EventTypes.RATE, operation, rate));
+    }
+
+    private class ListEventStorage implements EventStorage {
+        @Override
+        public void addEvent(Event event) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addEvents(List<Event> events) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Event getEventById(long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Collection<Event> getUserEvents(long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLastEventId() {
+            return events.size();
+        }
+
+        @Override
+        public List<Event> getEventsAfter(long after, EventTypes type, int limit) {
+            return events.stream()
+                    .filter(event -> event.getEventId() > after && event.getEventType() == type)
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@Slf4j
+class ParallelDeviationBuilderTest {
+    private static final int FILMS = 300;
+
+    @Test
+    void parallelBuildEqualsSequential() {
+        RatingMatrix matrix = randomMatrix(3_000, 40);
+        DeviationTable sequential = DeviationTable.of(matrix);
+        for (int parallelism : new int[]{1, 2, 4, 7}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                assertSameTable(sequential, DeviationTable.of(matrix, pool), matrix);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        assertEquals(0, DeviationTable.of(randomMatrix(0, 0), ForkJoinPool.commonPool()).size());
+    }
+
+    /**
+     * Время полной сборки последовательно и в пуле на все процессоры; на одноядерной машине
+     * показывает только накладные расходы разбиения.
+     */
+    @Test
+    @Tag("benchmark")
+    void measuresRebuildTime() {
+        RatingMatrix matrix = randomMatrix(20_000, 60);
+        int processors = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool all = new ForkJoinPool(processors);
+        try {
+            DeviationTable.of(matrix, all);
+            long start = System.nanoTime();
+            DeviationTable sequential = DeviationTable.of(matrix);
+            long sequentialNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            DeviationTable.of(matrix, single);
+            long singleNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            DeviationTable parallel = DeviationTable.of(matrix, all);
+            long parallelNanos = System.nanoTime() - start;
+            assertEquals(sequential.size(), parallel.size());
+            log.info("Slope-one rebuild benchmark, {} ratings: sequential {}ms; fork-join 1 thread {}ms, " +
+                            "{} threads {}ms", matrix.size(), sequentialNanos / 1_000_000, singleNanos / 1_000_000,
+                    processors, parallelNanos / 1_000_000);
+        } finally {
+            single.shutdown();
+            all.shutdown();
+        }
+    }
+
+    private static void assertSameTable(DeviationTable expected, DeviationTable actual, RatingMatrix matrix) {
+        assertEquals(expected.getFilms(), actual.getFilms());
+        assertEquals(expected.size(), actual.size());
+        for (long filmId = 1; filmId <= FILMS; filmId++) {
+            for (long otherId = 1; otherId <= FILMS; otherId++) {
+                long[] deviation = expected.getDeviation(filmId, otherId);
+                if (deviation == null) {
+                    assertNull(actual.getDeviation(filmId, otherId));
+                } else {
+                    assertArrayEquals(deviation, actual.getDeviation(filmId, otherId));
+                }
+            }
+        }
+        for (int user = 0; user < matrix.getUserCount(); user += 97) {
+            long userId = matrix.getUserId(user);
+            assertEquals(expected.getUserRates(userId), actual.getUserRates(userId));
+            assertEquals(expected.predict(userId), actual.predict(userId));
+        }
+    }
+
+    private static RatingMatrix randomMatrix(int users, int maxRatesPerUser) {
+        Random random = new Random(5);
+        RatingMatrix.Builder builder = new RatingMatrix.Builder(users * maxRatesPerUser / 2);
+        for (long userId = 1; userId <= users; userId++) {
+            int rates = 1 + random.nextInt(maxRatesPerUser);
+            long filmId = 0;
+            for (int i = 0; i < rates && filmId < FILMS - FILMS / maxRatesPerUser; i++) {
+                filmId += 1 + random.nextInt(FILMS / maxRatesPerUser);
+                builder.add(userId, filmId, 1 + random.nextInt(10));
+            }
+        }
+        return builder.build();
+    }
+}
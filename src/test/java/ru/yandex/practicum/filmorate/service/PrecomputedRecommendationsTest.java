@@ -0,0 +1,134 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryUserStorage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrecomputedRecommendationsTest {
+    private InMemoryUserStorage userStorage;
+    private RecommendationService recommendationService;
+    private SimilarUsersIndex similarUsersIndex;
+    private SimilarFilmsIndex similarFilmsIndex;
+    private AlsRecommender alsRecommender;
+    private PrecomputedRecommendations recommendations;
+
+    @BeforeEach
+    void init() {
+        userStorage = new InMemoryUserStorage(new InMemoryFilmStorage());
+        recommendationService = new RecommendationService(userStorage, null, "", 1);
+        similarUsersIndex = new SimilarUsersIndex(userStorage);
+        similarFilmsIndex = new SimilarFilmsIndex(userStorage, 10, 1);
+        alsRecommender = new AlsRecommender(userStorage, PrecomputedRecommendations.Engine.SLOPE_ONE,
+                8, 0.05f, 5, 1);
+        rate(1, 1, 9);
+        rate(1, 2, 8);
+        rate(2, 1, 9);
+    }
+
+    @AfterEach
+    void shutdown() {
+        recommendations.shutdown();
+        recommendationService.shutdown();
+        similarFilmsIndex.shutdown();
+        alsRecommender.shutdown();
+    }
+
+    @Test
+    void servesStoredListUntilOwnRatesChange() {
+        recommendations = new PrecomputedRecommendations(recommendationService, similarUsersIndex,
+                similarFilmsIndex, alsRecommender, PrecomputedRecommendations.Engine.SLOPE_ONE, Duration.ofHours(1), 2);
+        assertEquals(List.of(2L), recommendations.get(2, 10));
+
+        rate(1, 3, 10);
+        assertEquals(List.of(2L), recommendations.get(2, 10), "Чужие оценки учитываются при плановом пересчёте");
+        recommendations.refreshAll();
+        assertEquals(List.of(2L), recommendations.get(2, 10), "Список моложе max-staleness не пересчитывается");
+
+        rate(2, 2, 3);
+        recommendations.markChanged(2);
+        assertEquals(List.of(3L), recommendations.get(2, 10));
+        assertEquals(List.of(3L), recommendations.get(2, PrecomputedRecommendations.STORED_SIZE + 1));
+    }
+
+    @Test
+    void refreshesChangedAndStaleUsers() {
+        recommendations = new PrecomputedRecommendations(recommendationService, similarUsersIndex,
+                similarFilmsIndex, alsRecommender, PrecomputedRecommendations.Engine.SLOPE_ONE, Duration.ZERO, 2);
+        recommendations.refreshAll();
+        assertEquals(List.of(2L), recommendations.get(2, 10));
+
+        rate(1, 3, 10);
+        recommendations.refreshAll();
+        assertEquals(List.of(3L, 2L), recommendations.get(2, 10));
+        assertEquals(List.of(3L), recommendations.get(2, 1));
+
+        recommendations.removeUser(2);
+        recommendationService.removeUser(2);
+        similarUsersIndex.removeUser(2);
+        assertEquals(List.of(), recommendations.get(2, 10));
+    }
+
+    /**
+     * Фоновый пересчёт начинается до новой оценки и заканчивается после того, как запрос уже посчитал
+     * список с ней; старый список не должен заменить новый.
+     */
+    @Test
+    void backgroundRefreshDoesNotOverwriteNewerList() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean blocked = new AtomicBoolean();
+        AtomicReference<List<Long>> answer = new AtomicReference<>(List.of(5L));
+        SimilarFilmsIndex blockingIndex = new SimilarFilmsIndex(userStorage, 10, 1) {
+            @Override
+            public List<Long> getRecommendations(Map<Long, Integer> userRates, double minRate, int limit) {
+                List<Long> result = answer.get();
+                if (Thread.currentThread() instanceof ForkJoinWorkerThread && blocked.compareAndSet(false, true)) {
+                    started.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return result;
+            }
+        };
+        recommendations = new PrecomputedRecommendations(recommendationService, similarUsersIndex,
+                blockingIndex, alsRecommender, PrecomputedRecommendations.Engine.ITEM_COSINE, Duration.ofHours(1), 1);
+        try {
+            recommendations.markChanged(2);
+            Thread background = new Thread(recommendations::refreshAll);
+            background.start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            answer.set(List.of(7L));
+            recommendations.markChanged(2);
+            assertEquals(List.of(7L), recommendations.get(2, 10));
+            release.countDown();
+            background.join(5000);
+            assertEquals(List.of(7L), recommendations.get(2, 10), "Старый список не заменяет новый");
+        } finally {
+            release.countDown();
+            blockingIndex.shutdown();
+        }
+    }
+
+    private void rate(long userId, long filmId, int rate) {
+        recommendationService.setRate(userId, filmId, rate);
+        similarUsersIndex.setRate(userId, filmId, rate);
+    }
+}
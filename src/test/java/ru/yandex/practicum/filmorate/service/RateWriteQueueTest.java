@@ -0,0 +1,159 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.RateChange;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RateWriteQueueTest {
+    @Mock
+    private FilmStorage filmStorage;
+    @Mock
+    private EventLog eventLog;
+    @Captor
+    private ArgumentCaptor<List<RateChange>> changes;
+    @Captor
+    private ArgumentCaptor<List<Event>> events;
+
+    @Test
+    void coalescesWritesAndShowsThemBeforeFlush() {
+        when(filmStorage.isExist(anyLong())).thenReturn(true);
+        when(filmStorage.getRate(anyLong(), anyLong())).thenReturn(null);
+        when(filmStorage.getRate(1, 10)).thenReturn(3);
+        RateWriteQueue queue = queue(100, 1000);
+
+        assertEquals(3, queue.addRate(1, 10, 5));
+        assertEquals(5, queue.addRate(1, 10, 7));
+        assertNull(queue.addRate(1, 20, 9));
+        assertEquals(9, queue.removeRate(1, 20));
+        assertNull(queue.removeRate(1, 20), "Удалённая в очереди оценка не удаляется повторно");
+        assertEquals(7, queue.getRate(1, 10));
+        assertNull(queue.getRate(1, 20));
+
+        Film film = new Film("Film", "desc", LocalDate.of(2000, 1, 1), 100);
+        film.setId(1);
+        film.getRates().put(10L, 3);
+        film.getRates().put(30L, 2);
+        Film withPending = queue.withPending(film);
+        assertEquals(Map.of(10L, 7, 30L, 2), withPending.getRates());
+        assertEquals(4.5, withPending.getAvgRate());
+        assertEquals(Map.of(10L, 3, 30L, 2), film.getRates(), "Фильм из кэша не меняется");
+
+        RateWriteQueue.Stats stats = queue.getStats();
+        assertEquals(4, stats.getQueuedEvents());
+        assertEquals(2, stats.getQueuedRates());
+        assertEquals(2, stats.getCoalescedWrites());
+        verify(filmStorage, never()).saveRates(anyList(), anyList());
+
+        queue.flush();
+        verify(filmStorage).saveRates(changes.capture(), events.capture());
+        assertEquals(new HashSet<>(List.of(new RateChange(1, 10, 7), new RateChange(1, 20, null))),
+                new HashSet<>(changes.getValue()));
+        assertEquals(List.of(EventOperations.ADD, EventOperations.ADD, EventOperations.ADD, EventOperations.REMOVE),
+                events.getValue().stream().map(Event::getOperation).collect(Collectors.toList()));
+        assertEquals(9, events.getValue().get(3).getFilmRate());
+        assertSame(film, queue.withPending(film));
+        assertEquals(0, queue.getStats().getQueuedEvents());
+        assertEquals(1, queue.getStats().getFlushes());
+        verify(eventLog, never()).append(any());
+    }
+
+    @Test
+    void keepsChangesQueuedWhenFlushFails() {
+        when(filmStorage.isExist(anyLong())).thenReturn(true);
+        when(filmStorage.getRate(anyLong(), anyLong())).thenReturn(null);
+        RateWriteQueue queue = queue(100, 1000);
+        queue.addRate(1, 10, 5);
+        doThrow(new IllegalStateException("db is down")).when(filmStorage).saveRates(anyList(), anyList());
+
+        assertThrows(IllegalStateException.class, queue::flush);
+        assertEquals(1, queue.getStats().getQueuedEvents());
+        assertEquals(5, queue.getRate(1, 10));
+        assertEquals(5, queue.addRate(1, 10, 6));
+        assertEquals(1, queue.getStats().getQueuedRates());
+        assertEquals(2, queue.getStats().getQueuedEvents());
+    }
+
+    @Test
+    void flushesInBackgroundWhenBatchIsFull() {
+        when(filmStorage.isExist(anyLong())).thenReturn(true);
+        when(filmStorage.getRate(anyLong(), anyLong())).thenReturn(null);
+        RateWriteQueue queue = queue(2, 1000);
+        try {
+            queue.addRate(1, 10, 5);
+            queue.addRate(2, 10, 6);
+            verify(filmStorage, timeout(5000)).saveRates(anyList(), anyList());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    void flushesBeforeOtherEventsOfSameUser() {
+        when(filmStorage.isExist(anyLong())).thenReturn(true);
+        when(filmStorage.getRate(anyLong(), anyLong())).thenReturn(null);
+        RateWriteQueue queue = queue(100, 1000);
+        queue.addRate(1, 10, 5);
+
+        queue.flushUserEvents(20);
+        verify(filmStorage, never()).saveRates(anyList(), anyList());
+
+        queue.flushUserEvents(10);
+        InOrder inOrder = inOrder(eventLog, filmStorage);
+        inOrder.verify(eventLog).awaitCommitted(10);
+        inOrder.verify(filmStorage).saveRates(anyList(), anyList());
+        queue.flushUserEvents(10);
+        verify(filmStorage).saveRates(anyList(), anyList());
+    }
+
+    @Test
+    void writesThroughWhenDisabled() {
+        when(filmStorage.addRate(1, 10, 5)).thenReturn(4);
+        when(filmStorage.removeRate(1, 20)).thenReturn(null);
+        RateWriteQueue queue = new RateWriteQueue(filmStorage, eventLog, cache(), false, 100, 1000);
+
+        assertEquals(4, queue.addRate(1, 10, 5));
+        assertNull(queue.removeRate(1, 20));
+        verify(filmStorage).addRate(1, 10, 5);
+        verify(eventLog).append(any());
+        verify(filmStorage, never()).saveRates(anyList(), anyList());
+    }
+
+    private RateWriteQueue queue(int batchSize, int capacity) {
+        return new RateWriteQueue(filmStorage, eventLog, cache(), true, batchSize, capacity);
+    }
+
+    private static FilmCache cache() {
+        return new FilmCache(1000, Duration.ofMinutes(10));
+    }
+}
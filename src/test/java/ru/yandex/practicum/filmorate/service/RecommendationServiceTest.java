@@ -2,8 +2,11 @@ package ru.yandex.practicum.filmorate.service;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.inmemory.InMemoryUserStorage;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -15,12 +18,29 @@ class RecommendationServiceTest {
 
     @Test
     void fillMatricesTest() {
-        recommendationService = new RecommendationService();
+        recommendationService = new RecommendationService(new InMemoryUserStorage(new InMemoryFilmStorage()),
+                null, "", 1);
         fillMarks();
         Map<Long, Double> recommendations = recommendationService.getRecommendation(marks, 3L);
         assertEquals(recommendations.get(2L), (double)marks.get(3L).get(2L), 0.00001D, "");
     }
 
+    @Test
+    void selectsTopRecommendationsByScore() {
+        recommendationService = new RecommendationService(new InMemoryUserStorage(new InMemoryFilmStorage()),
+                null, "", 1);
+        for (long filmId = 1; filmId <= 6; filmId++) {
+            recommendationService.setRate(1L, filmId, (int) (filmId + 3));
+            recommendationService.setRate(2L, filmId, 5);
+        }
+        recommendationService.setRate(3L, 1L, 4);
+        recommendationService.setRate(3L, 2L, 5);
+
+        assertEquals(List.of(6L, 5L, 4L), recommendationService.getTopRecommendations(3L, 5.0, 3));
+        assertEquals(List.of(6L, 5L, 4L, 3L), recommendationService.getTopRecommendations(3L, 5.0, 10));
+        assertEquals(List.of(), recommendationService.getTopRecommendations(2L, 5.0, 10));
+    }
+
     private void fillMarks() {
         marks.put(1L, new HashMap<>() {{
                     put(1L, 5);
@@ -0,0 +1,80 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTest {
+
+    @Test
+    void keepsOrderAndRejectsWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(5);
+        assertEquals(8, buffer.capacity(), "Ёмкость округляется до степени двойки");
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, buffer.offer(i));
+        }
+        assertEquals(-1, buffer.offer(8));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(List.of(0, 1, 2), drained);
+        assertEquals(8, buffer.offer(8));
+        assertEquals(9, buffer.offer(9));
+
+        drained.clear();
+        assertEquals(7, buffer.drainTo(drained, 100));
+        assertEquals(List.of(3, 4, 5, 6, 7, 8, 9), drained);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.drainTo(drained, 100));
+    }
+
+    @Test
+    void keepsOrderOfEachProducer() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        RingBuffer<Long> buffer = new RingBuffer<>(256);
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int producer = 0; producer < producers; producer++) {
+                long base = (long) producer << 32;
+                futures.add(pool.submit(() -> {
+                    for (long i = 0; i < perProducer; i++) {
+                        while (buffer.offer(base | i) < 0) {
+                            Thread.yield();
+                        }
+                    }
+                }));
+            }
+            long[] next = new long[producers];
+            List<Long> drained = new ArrayList<>();
+            int total = 0;
+            while (total < producers * perProducer) {
+                drained.clear();
+                if (buffer.drainTo(drained, 64) == 0) {
+                    Thread.yield();
+                }
+                for (long item : drained) {
+                    int producer = (int) (item >>> 32);
+                    assertEquals(next[producer]++, item & 0xFFFFFFFFL, "Элементы писателя идут по порядку");
+                    total++;
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertTrue(buffer.isEmpty());
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
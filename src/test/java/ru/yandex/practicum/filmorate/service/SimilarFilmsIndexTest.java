@@ -0,0 +1,116 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SimilarFilmsIndexTest {
+    private static final int FILMS = 60;
+    private static final int NEIGHBOURS = 8;
+
+    @Test
+    void findsFilmsRatedAlike() {
+        SimilarFilmsIndex index = index(Map.of(
+                1L, Map.of(10L, 9, 20L, 8, 30L, 2),
+                2L, Map.of(10L, 8, 20L, 9, 30L, 3),
+                3L, Map.of(10L, 2, 20L, 3, 30L, 9, 40L, 8),
+                4L, Map.of(30L, 4, 40L, 9)), 1);
+        try {
+            assertEquals(List.of(20L), index.getSimilarFilms(10, 5), "Фильм с противоположными оценками не похож");
+            assertEquals(List.of(40L), index.getSimilarFilms(30, 5));
+            assertEquals(List.of(), index.getSimilarFilms(99, 5));
+            assertEquals(List.of(20L), index.getRecommendations(Map.of(10L, 10, 30L, 2), 5.0, 10));
+            assertEquals(List.of(), index.getRecommendations(Map.of(10L, 2, 30L, 4), 5.0, 10),
+                    "Прогноз не выше minRate не рекомендуется");
+
+            index.removeFilm(20);
+            assertEquals(List.of(), index.getSimilarFilms(10, 5));
+            assertEquals(List.of(), index.getRecommendations(Map.of(10L, 10, 30L, 2), 5.0, 10));
+        } finally {
+            index.shutdown();
+        }
+    }
+
+    @Test
+    void parallelNeighboursMatchBruteForce() {
+        Map<Long, Map<Long, Integer>> marks = randomMarks();
+        SimilarFilmsIndex sequential = index(marks, 1);
+        SimilarFilmsIndex parallel = index(marks, 4);
+        try {
+            for (long filmId = 1; filmId <= FILMS; filmId++) {
+                List<Long> similar = sequential.getSimilarFilms(filmId, NEIGHBOURS);
+                assertEquals(similar, parallel.getSimilarFilms(filmId, NEIGHBOURS));
+                List<Double> expected = bruteForce(marks, filmId).values().stream()
+                        .filter(similarity -> similarity > 0)
+                        .sorted((first, second) -> Double.compare(second, first))
+                        .limit(NEIGHBOURS)
+                        .collect(Collectors.toList());
+                Map<Long, Double> similarities = bruteForce(marks, filmId);
+                assertEquals(expected.size(), similar.size());
+                for (int i = 0; i < similar.size(); i++) {
+                    assertEquals(expected.get(i), similarities.get(similar.get(i)), 1e-5);
+                }
+                assertFalse(similar.contains(filmId));
+            }
+        } finally {
+            sequential.shutdown();
+            parallel.shutdown();
+        }
+    }
+
+    private static SimilarFilmsIndex index(Map<Long, Map<Long, Integer>> marks, int parallelism) {
+        UserStorage userStorage = mock(UserStorage.class);
+        when(userStorage.getRatingMatrix()).thenReturn(RatingMatrix.of(marks));
+        SimilarFilmsIndex index = new SimilarFilmsIndex(userStorage, NEIGHBOURS, parallelism);
+        index.rebuild();
+        return index;
+    }
+
+    /**
+     * Скорректированный косинус фильма filmId со всеми остальными прямо по определению.
+     */
+    private static Map<Long, Double> bruteForce(Map<Long, Map<Long, Integer>> marks, long filmId) {
+        Map<Long, Double> dots = new HashMap<>();
+        Map<Long, Double> squares = new HashMap<>();
+        marks.values().forEach(rates -> {
+            double mean = rates.values().stream().mapToInt(Integer::intValue).average().orElse(0);
+            rates.forEach((otherId, rate) -> {
+                squares.merge(otherId, (rate - mean) * (rate - mean), Double::sum);
+                if (rates.containsKey(filmId) && otherId != filmId) {
+                    dots.merge(otherId, (rates.get(filmId) - mean) * (rate - mean), Double::sum);
+                }
+            });
+        });
+        Map<Long, Double> similarities = new HashMap<>();
+        dots.forEach((otherId, dot) ->
+                similarities.put(otherId, dot / Math.sqrt(squares.get(filmId) * squares.get(otherId))));
+        return similarities;
+    }
+
+    private static Map<Long, Map<Long, Integer>> randomMarks() {
+        Random random = new Random(11);
+        Map<Long, Map<Long, Integer>> marks = new HashMap<>();
+        for (long userId = 1; userId <= 300; userId++) {
+            Map<Long, Integer> rates = new HashMap<>();
+            int taste = random.nextInt(3);
+            for (int i = 0; i < 15; i++) {
+                long filmId = 1 + random.nextInt(FILMS);
+                int base = filmId % 3 == taste ? 8 : 3;
+                rates.put(filmId, Math.max(1, Math.min(10, base + random.nextInt(5) - 2)));
+            }
+            marks.put(userId, rates);
+        }
+        return marks;
+    }
+}
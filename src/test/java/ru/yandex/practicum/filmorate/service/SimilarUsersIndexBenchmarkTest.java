@@ -0,0 +1,162 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.storage.db.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.db.ReferenceDataRegistry;
+import ru.yandex.practicum.filmorate.storage.db.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.db.migration.SchemaMigrator;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Полнота соседей {@link SimilarUsersIndex} относительно точных top-k по Жаккару, найденных перебором, и время
+ * рекомендаций индекса против SQL-рекомендателя {@link UserStorage#getRecommendations(long)}. Пользователи
+ * разбиты на группы со схожими вкусами: каждый оценивает часть фильмов своей группы и пару случайных.
+ */
+@Slf4j
+class SimilarUsersIndexBenchmarkTest {
+    private static final int USERS = 5_000;
+    private static final int GROUPS = 50;
+    private static final int FILMS_PER_GROUP = 40;
+    private static final int GROUP_RATES_PER_USER = 15;
+    private static final int RANDOM_RATES_PER_USER = 2;
+    private static final int SAMPLE = 200;
+    private static final int NEIGHBOURS = 10;
+
+    private EmbeddedDatabase embeddedDatabase;
+    private JdbcTemplate jdbcTemplate;
+    private UserStorage userStorage;
+    private final Map<Long, Set<Long>> userFilms = new HashMap<>();
+
+    @BeforeEach
+    void initDb() {
+        embeddedDatabase = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("similarUsersBenchmarkDb")
+                .build();
+        new SchemaMigrator(embeddedDatabase).migrate();
+        jdbcTemplate = new JdbcTemplate(embeddedDatabase);
+        NamedParameterJdbcTemplate namedJdbcTemplate = new NamedParameterJdbcTemplate(embeddedDatabase);
+        userStorage = new UserDbStorage(namedJdbcTemplate,
+                new TransactionTemplate(new DataSourceTransactionManager(embeddedDatabase)),
+                new ReferenceDataRegistry(namedJdbcTemplate), new EventDbStorage(jdbcTemplate));
+        seed();
+    }
+
+    @AfterEach
+    void releaseDb() {
+        embeddedDatabase.shutdown();
+    }
+
+    @Test
+    void recallAgainstExactNeighbours() {
+        long buildStart = System.nanoTime();
+        SimilarUsersIndex index = new SimilarUsersIndex(userStorage);
+        index.rebuild();
+        long buildNanos = System.nanoTime() - buildStart;
+
+        Random random = new Random(17);
+        double recallSum = 0;
+        long sqlNanos = 0;
+        long indexNanos = 0;
+        for (int i = 0; i < SAMPLE; i++) {
+            long userId = 1 + random.nextInt(USERS);
+            double threshold = exactThreshold(userId);
+            List<Long> approximate = index.getSimilarUsers(userId, NEIGHBOURS);
+            recallSum += (double) approximate.stream()
+                    .filter(otherId -> jaccard(userId, otherId) >= threshold)
+                    .count() / NEIGHBOURS;
+
+            long start = System.nanoTime();
+            int found = userStorage.getRecommendations(userId).size();
+            sqlNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            index.getRecommendations(userId, NEIGHBOURS, Math.max(found, 1));
+            indexNanos += System.nanoTime() - start;
+        }
+        double recall = recallSum / SAMPLE;
+
+        long neighboursStart = System.nanoTime();
+        for (long userId = 1; userId <= USERS; userId++) {
+            index.getSimilarUsers(userId, NEIGHBOURS);
+        }
+        long neighboursNanos = (System.nanoTime() - neighboursStart) / USERS;
+        log.info("Similar users benchmark, {} users: recall of exact top-{} Jaccard neighbours {} over {} users; " +
+                        "recommendations SQL {}us per user, index {}us per user, top-{} neighbours {}us " +
+                        "(built in {}ms)", USERS, NEIGHBOURS, String.format("%.3f", recall), SAMPLE,
+                sqlNanos / SAMPLE / 1000, indexNanos / SAMPLE / 1000, NEIGHBOURS, neighboursNanos / 1000,
+                buildNanos / 1_000_000);
+        assertTrue(recall > 0.9, "Полнота относительно точных соседей: " + recall);
+    }
+
+    /**
+     * @return сходство k-го из точных соседей: сосед индекса с не меньшим сходством считается найденным,
+     *          так что равные по сходству пользователи взаимозаменяемы
+     */
+    private double exactThreshold(long userId) {
+        return userFilms.keySet().stream()
+                .filter(otherId -> otherId != userId)
+                .map(otherId -> jaccard(userId, otherId))
+                .sorted(Comparator.reverseOrder())
+                .skip(NEIGHBOURS - 1)
+                .findFirst()
+                .orElse(0.0);
+    }
+
+    private double jaccard(long userId, long otherId) {
+        Set<Long> films = userFilms.get(userId);
+        Set<Long> other = userFilms.get(otherId);
+        long common = films.stream().filter(other::contains).count();
+        return (double) common / (films.size() + other.size() - common);
+    }
+
+    private void seed() {
+        Random random = new Random(23);
+        int films = GROUPS * FILMS_PER_GROUP;
+        List<Object[]> filmRows = new ArrayList<>();
+        List<Object[]> userRows = new ArrayList<>();
+        List<Object[]> rates = new ArrayList<>();
+        for (long filmId = 1; filmId <= films; filmId++) {
+            filmRows.add(new Object[]{filmId, "Film " + filmId, "desc", "2000-01-01", 100, 1 + filmId % 5});
+        }
+        for (long id = 1; id <= USERS; id++) {
+            long userId = id;
+            userRows.add(new Object[]{userId, "user" + userId + "@mail.ru", "user" + userId, "name", "2000-01-01"});
+            long group = userId % GROUPS;
+            Set<Long> filmIds = new HashSet<>();
+            while (filmIds.size() < GROUP_RATES_PER_USER) {
+                filmIds.add(1 + group * FILMS_PER_GROUP + random.nextInt(FILMS_PER_GROUP));
+            }
+            while (filmIds.size() < GROUP_RATES_PER_USER + RANDOM_RATES_PER_USER) {
+                filmIds.add(1L + random.nextInt(films));
+            }
+            filmIds.forEach(filmId -> rates.add(new Object[]{filmId, userId, 1 + random.nextInt(10)}));
+            userFilms.put(userId, filmIds);
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (user_id, email, login, name, birthday) VALUES (?, ?, ?, ?, ?)",
+                userRows);
+        jdbcTemplate.batchUpdate("INSERT INTO film (film_id, name, description, release_date, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", filmRows);
+        jdbcTemplate.batchUpdate("INSERT INTO film_rates (film_id, user_id, film_rate) VALUES (?, ?, ?)", rates);
+    }
+}
@@ -0,0 +1,57 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SimilarUsersIndexTest {
+    private SimilarUsersIndex index;
+
+    @BeforeEach
+    void init() {
+        UserStorage userStorage = mock(UserStorage.class);
+        when(userStorage.getRatingMatrix()).thenReturn(RatingMatrix.of(Map.of(
+                1L, Map.of(10L, 5, 20L, 7, 30L, 9, 40L, 8),
+                2L, Map.of(10L, 6, 20L, 7, 30L, 4, 40L, 2, 50L, 9, 60L, 3),
+                3L, Map.of(70L, 10, 80L, 10))));
+        index = new SimilarUsersIndex(userStorage);
+        index.rebuild();
+    }
+
+    @Test
+    void findsUsersWithSameFilms() {
+        assertEquals(List.of(2L), index.getSimilarUsers(1, 5));
+        assertEquals(List.of(50L), index.getRecommendations(1, 5, 10), "Только высоко оценённые фильмы соседа");
+        assertEquals(List.of(), index.getSimilarUsers(3, 5));
+        assertEquals(List.of(), index.getRecommendations(99, 5, 10));
+    }
+
+    @Test
+    void followsRateWrites() {
+        index.setRate(4, 70, 9);
+        index.setRate(4, 80, 8);
+        index.setRate(4, 90, 7);
+        assertEquals(List.of(4L), index.getSimilarUsers(3, 5));
+        assertEquals(List.of(90L), index.getRecommendations(3, 5, 10));
+
+        index.setRate(4, 90, 1);
+        assertEquals(List.of(), index.getRecommendations(3, 5, 10));
+        index.removeRate(4, 70);
+        index.removeRate(4, 80);
+        index.removeRate(4, 90);
+        assertEquals(List.of(), index.getSimilarUsers(3, 5));
+
+        index.putFilm(50, Map.of(1L, 10));
+        assertEquals(List.of(), index.getRecommendations(1, 5, 10));
+        index.removeUser(2);
+        assertEquals(List.of(), index.getSimilarUsers(1, 5));
+    }
+}
@@ -0,0 +1,152 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.storage.db.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.db.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.db.ReferenceDataRegistry;
+import ru.yandex.practicum.filmorate.storage.db.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.db.migration.SchemaMigrator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сравнение поиска общих друзей и общих фильмов через INTERSECT в базе и через пересечение
+ * отсортированных массивов в {@link SocialGraphIndex} на базе со 100 тысячами пользователей.
+ */
+@Slf4j
+@Tag("benchmark")
+class SocialGraphIndexBenchmarkTest {
+    private static final int USERS = 100_000;
+    private static final int FILMS = 500;
+    private static final int FRIENDS_PER_USER = 5;
+    private static final int RATES_PER_USER = 3;
+    private static final int POPULAR_USERS = 300;
+    private static final int PAIRS = 200;
+
+    private EmbeddedDatabase embeddedDatabase;
+    private JdbcTemplate jdbcTemplate;
+    private UserStorage userStorage;
+    private FilmStorage filmStorage;
+
+    @BeforeEach
+    void initDb() {
+        embeddedDatabase = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("socialGraphBenchmarkDb")
+                .build();
+        new SchemaMigrator(embeddedDatabase).migrate();
+        jdbcTemplate = new JdbcTemplate(embeddedDatabase);
+        NamedParameterJdbcTemplate namedJdbcTemplate = new NamedParameterJdbcTemplate(embeddedDatabase);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(embeddedDatabase));
+        ReferenceDataRegistry referenceData = new ReferenceDataRegistry(namedJdbcTemplate);
+        EventDbStorage eventStorage = new EventDbStorage(jdbcTemplate);
+        userStorage = new UserDbStorage(namedJdbcTemplate, transactionTemplate, referenceData, eventStorage);
+        filmStorage = new FilmDbStorage(namedJdbcTemplate, transactionTemplate, referenceData, eventStorage);
+        seed();
+    }
+
+    @AfterEach
+    void releaseDb() {
+        embeddedDatabase.shutdown();
+    }
+
+    @Test
+    void inMemoryIntersectionMatchesSql() {
+        long buildStart = System.nanoTime();
+        SocialGraphIndex index = new SocialGraphIndex(userStorage);
+        index.rebuild();
+        long buildNanos = System.nanoTime() - buildStart;
+
+        Random random = new Random(7);
+        List<long[]> pairs = new ArrayList<>();
+        for (int i = 0; i < PAIRS; i++) {
+            pairs.add(new long[]{1 + random.nextInt(USERS), 1 + random.nextInt(USERS)});
+        }
+
+        long sqlStart = System.nanoTime();
+        List<Set<Long>> sqlFriends = run(pairs, pair -> ids(userStorage.getCommonFriendsList(pair[0], pair[1]), User::getId));
+        List<Set<Long>> sqlFilms = run(pairs, pair -> ids(filmStorage.getCommonFilms(pair[0], pair[1]), Film::getId));
+        long sqlNanos = System.nanoTime() - sqlStart;
+
+        long indexStart = System.nanoTime();
+        List<Set<Long>> indexFriends = run(pairs, pair ->
+                ids(userStorage.getUsersByIds(index.getCommonFriends(pair[0], pair[1])), User::getId));
+        List<Set<Long>> indexFilms = run(pairs, pair ->
+                ids(filmStorage.getFilmsByIds(index.getCommonFilms(pair[0], pair[1])), Film::getId));
+        long indexNanos = System.nanoTime() - indexStart;
+
+        assertEquals(sqlFriends, indexFriends);
+        assertEquals(sqlFilms, indexFilms);
+        assertTrue(indexFriends.stream().anyMatch(ids -> !ids.isEmpty()), "Общие друзья должны находиться");
+        assertTrue(indexFilms.stream().anyMatch(ids -> !ids.isEmpty()), "Общие фильмы должны находиться");
+        log.info("Common friends and films for {} pairs of {} users: SQL INTERSECT {}ms; " +
+                        "index {}ms (built in {}ms)",
+                PAIRS, USERS, sqlNanos / 1_000_000, indexNanos / 1_000_000, buildNanos / 1_000_000);
+    }
+
+    private void seed() {
+        Random random = new Random(42);
+        List<Object[]> users = new ArrayList<>();
+        List<Object[]> films = new ArrayList<>();
+        List<Object[]> friends = new ArrayList<>();
+        List<Object[]> rates = new ArrayList<>();
+        for (long filmId = 1; filmId <= FILMS; filmId++) {
+            films.add(new Object[]{filmId, "Film " + filmId, "desc", "2000-01-01", 100, 1 + filmId % 5});
+        }
+        for (long userId = 1; userId <= USERS; userId++) {
+            users.add(new Object[]{userId, "user" + userId + "@mail.ru", "user" + userId, "name", "2000-01-01"});
+            Set<Long> friendIds = new HashSet<>();
+            while (friendIds.size() < FRIENDS_PER_USER) {
+                long friendId = 1 + random.nextInt(POPULAR_USERS);
+                if (friendId != userId && friendIds.add(friendId)) {
+                    friends.add(new Object[]{userId, friendId, "Requested"});
+                }
+            }
+            Set<Long> filmIds = new HashSet<>();
+            while (filmIds.size() < RATES_PER_USER) {
+                long filmId = 1 + random.nextInt(FILMS);
+                if (filmIds.add(filmId)) {
+                    rates.add(new Object[]{filmId, userId, 1 + random.nextInt(10)});
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (user_id, email, login, name, birthday) VALUES (?, ?, ?, ?, ?)", users);
+        jdbcTemplate.batchUpdate("INSERT INTO film (film_id, name, description, release_date, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", films);
+        jdbcTemplate.batchUpdate("INSERT INTO user_friends (user_id, friend_id, status) VALUES (?, ?, ?)", friends);
+        jdbcTemplate.batchUpdate("INSERT INTO film_rates (film_id, user_id, film_rate) VALUES (?, ?, ?)", rates);
+    }
+
+    private static List<Set<Long>> run(List<long[]> pairs, Function<long[], Set<Long>> query) {
+        return pairs.stream().map(query).collect(Collectors.toList());
+    }
+
+    private static <T> Set<Long> ids(Collection<T> items, Function<T, Long> id) {
+        return items.stream().map(id).collect(Collectors.toSet());
+    }
+}
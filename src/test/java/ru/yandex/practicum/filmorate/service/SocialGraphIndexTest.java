@@ -0,0 +1,86 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SocialGraphIndexTest {
+    private SocialGraphIndex index;
+
+    @BeforeEach
+    void init() {
+        UserStorage userStorage = mock(UserStorage.class);
+        when(userStorage.getRatingMatrix()).thenReturn(RatingMatrix.of(Map.of(
+                1L, Map.of(10L, 5, 20L, 7, 30L, 9),
+                2L, Map.of(30L, 1, 20L, 2, 40L, 3))));
+        when(userStorage.getAllUsers()).thenReturn(List.of(
+                user(1, 3L, 4L, 5L), user(2, 5L, 4L), user(3), user(4), user(5)));
+        index = new SocialGraphIndex(userStorage);
+        index.rebuild();
+    }
+
+    @Test
+    void intersectsSetsLoadedFromStorage() {
+        assertEquals(List.of(20L, 30L), index.getCommonFilms(1, 2));
+        assertEquals(List.of(4L, 5L), index.getCommonFriends(2, 1));
+        assertEquals(List.of(), index.getCommonFilms(1, 3));
+        assertEquals(List.of(), index.getCommonFriends(1, 99));
+    }
+
+    @Test
+    void followsRateAndFriendChanges() {
+        index.addRate(3, 20);
+        index.addRate(3, 10);
+        assertEquals(List.of(10L, 20L), index.getCommonFilms(1, 3));
+        index.removeRate(1, 20);
+        assertEquals(List.of(10L), index.getCommonFilms(3, 1));
+
+        index.addFriend(2, 3);
+        index.removeFriend(1, 5);
+        assertEquals(List.of(3L, 4L), index.getCommonFriends(1, 2));
+
+        index.putFilm(30, Set.of(3L, 2L));
+        assertEquals(List.of(20L, 30L), index.getCommonFilms(2, 3));
+        assertEquals(List.of(10L), index.getCommonFilms(1, 3));
+
+        index.removeFilm(10);
+        assertEquals(List.of(), index.getCommonFilms(1, 3));
+
+        index.removeUser(4);
+        assertEquals(List.of(3L), index.getCommonFriends(1, 2));
+    }
+
+    @Test
+    void intersectsSkewedSetsByBinarySearch() {
+        long[] large = new long[10_000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = i * 2L;
+        }
+        assertArrayEquals(new long[]{0, 500, 19_998}, LongSets.intersect(new long[]{-1, 0, 1, 500, 19_998, 20_000}, large));
+        assertArrayEquals(new long[]{0, 500, 19_998}, LongSets.intersect(large, new long[]{0, 500, 19_998}));
+        assertArrayEquals(new long[]{1, 3}, LongSets.intersect(new long[]{1, 2, 3}, new long[]{1, 3, 4}));
+        assertArrayEquals(new long[]{1, 2}, LongSets.add(LongSets.add(LongSets.EMPTY, 2), 1));
+        assertArrayEquals(new long[]{2}, LongSets.remove(new long[]{1, 2}, 1));
+    }
+
+    private static User user(long id, Long... friendIds) {
+        User user = new User("user" + id + "@mail.ru", "user" + id, LocalDate.of(2000, 1, 1));
+        user.setId(id);
+        for (Long friendId : friendIds) {
+            user.getFriends().put(friendId, "Requested");
+        }
+        return user;
+    }
+}
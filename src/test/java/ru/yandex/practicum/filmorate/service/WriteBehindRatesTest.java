@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Оценки в режиме write-behind: фоновый сброс отложен на час, поэтому оценки остаются в очереди.
+ */
+@SpringBootTest(properties = {"filmorate.rates.write-behind.enabled=true",
+        "filmorate.rates.write-behind.flush-delay=PT1H"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.ANY)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+class WriteBehindRatesTest {
+    private final FilmService filmService;
+    private final UserService userService;
+    private final RateWriteQueue rateWriteQueue;
+
+    @Test
+    void updateKeepsPendingRatesInPopular() {
+        User user = new User("user@mail.ru", "user", LocalDate.of(2000, 1, 1));
+        user.setName("name");
+        long userId = userService.addUser(user).getId();
+        long firstId = filmService.addFilm(film("First")).getId();
+        long secondId = filmService.addFilm(film("Second")).getId();
+        filmService.addRate(userId, secondId, 9);
+        assertEquals(1, rateWriteQueue.getStats().getQueuedRates());
+
+        Film changed = film("Second updated");
+        changed.setId(secondId);
+        Film updated = filmService.updateFilm(changed);
+
+        assertEquals(9.0, updated.getAvgRate());
+        assertEquals(List.of(secondId, firstId), filmService.getTopFilms(10, 0, 0).stream()
+                .map(FilmSummary::getId)
+                .collect(Collectors.toList()));
+        assertEquals(1, rateWriteQueue.getStats().getQueuedRates(), "Оценка всё ещё не записана");
+    }
+
+    private static Film film(String name) {
+        Film film = new Film(name, "desc", LocalDate.of(2000, 1, 1), 100);
+        film.setMpa(new Mpa(1, null));
+        return film;
+    }
+}
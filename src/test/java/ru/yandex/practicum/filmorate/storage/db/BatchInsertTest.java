@@ -0,0 +1,40 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BatchInsertTest {
+
+    @Test
+    void missingGeneratedKeysAreDataAccessError() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet keys = mock(ResultSet.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString(), any(String[].class))).thenReturn(statement);
+        when(statement.getGeneratedKeys()).thenReturn(keys);
+        when(keys.next()).thenReturn(true, false);
+        when(keys.getLong(1)).thenReturn(1L);
+
+        IncorrectResultSizeDataAccessException e = assertThrows(IncorrectResultSizeDataAccessException.class,
+                () -> BatchInsert.withKeys(new JdbcTemplate(dataSource), "INSERT INTO director (director_name) " +
+                        "VALUES (?)", "director_id", List.of(new Object[]{"First"}, new Object[]{"Second"})));
+        assertEquals(2, e.getExpectedSize());
+        assertEquals(1, e.getActualSize());
+    }
+}
@@ -79,10 +79,7 @@ class CommonFilmsDbStorageTest {
         Film film1 = filmStorage.getById(fid1);
         film1.getRates().put(uid1, 6);
 
-        Film film2 = filmStorage.getById(fid2);
-
-        film2.getRates().put(uid1, 8);
-        filmStorage.updateFilm(film2);
+        filmStorage.addRate(fid2, uid1, 8);
 
         Collection<Film> common = filmStorage.getCommonFilms(uid1, uid2);
         assertEquals(0, common.size(), "У пользователей нет общих фильмов");
@@ -91,10 +88,8 @@ class CommonFilmsDbStorageTest {
     @Test
     @Order(3)
     void getCommonSingleFilmTest() {
-        Film film = filmStorage.getById(fid3);
-        film.getRates().put(uid1, 7);
-        film.getRates().put(uid2, 8);
-        filmStorage.updateFilm(film);
+        filmStorage.addRate(fid3, uid1, 7);
+        filmStorage.addRate(fid3, uid2, 8);
 
         Collection<Film> common = filmStorage.getCommonFilms(uid1, uid2);
         assertEquals(1, common.size(), "У пользователей должен быть один общий фильм");
@@ -104,13 +99,8 @@ class CommonFilmsDbStorageTest {
     @Test
     @Order(4)
     void getSeveralCommonFilmsTest() {
-        Film film = filmStorage.getById(fid2);
-        film.getRates().put(uid1, 7);
-        filmStorage.updateFilm(film);
-
-        Film film2 = filmStorage.getById(fid2);
-        film2.getRates().put(uid2, 8);
-        filmStorage.updateFilm(film2);
+        filmStorage.addRate(fid2, uid1, 7);
+        filmStorage.addRate(fid2, uid2, 8);
 
         Collection<Film> common = filmStorage.getCommonFilms(uid1, uid2);
         assertEquals(2, common.size(), "У пользователей должен быть два общих фильма");
@@ -119,9 +109,7 @@ class CommonFilmsDbStorageTest {
     @Test
     @Order(5)
     void getCommonFilmsOneLikeRemovedTest() {
-        Film film = filmStorage.getById(fid3);
-        film.getRates().remove(uid1);
-        filmStorage.updateFilm(film);
+        filmStorage.removeRate(fid3, uid1);
         Collection<Film> common = filmStorage.getCommonFilms(uid1, uid2);
         assertEquals(1, common.size(), "У пользователей должен быть один общий фильм");
         assertEquals(fid2, common.iterator().next().getId(), "Фильм должен иметь id = 2");
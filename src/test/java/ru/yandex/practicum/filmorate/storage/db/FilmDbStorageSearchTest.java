@@ -5,9 +5,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
 import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exceptions.ValidationException;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
@@ -16,6 +18,7 @@ import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.DirectorStorage;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.storage.db.migration.SchemaMigrator;
 
 import java.time.LocalDate;
 import java.util.Collection;
@@ -34,15 +37,18 @@ class FilmDbStorageSearchTest {
     @BeforeEach
     void initDb() {
         embeddedDatabase = new EmbeddedDatabaseBuilder()
-                .addScript("schema.sql")
-                .addScript("data.sql")
                 .setType(EmbeddedDatabaseType.H2)
                 .setName("testDb")
                 .build();
+        new SchemaMigrator(embeddedDatabase).migrate();
         NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(embeddedDatabase);
-        directorStorage = new DirectorDbStorage(jdbcTemplate);
-        filmStorage = new FilmDbStorage(jdbcTemplate);
-        userStorage = new UserDbStorage(jdbcTemplate);
+        TransactionTemplate transactionTemplate =
+                new TransactionTemplate(new DataSourceTransactionManager(embeddedDatabase));
+        ReferenceDataRegistry referenceData = new ReferenceDataRegistry(jdbcTemplate);
+        directorStorage = new DirectorDbStorage(jdbcTemplate, referenceData);
+        EventDbStorage eventStorage = new EventDbStorage(jdbcTemplate.getJdbcTemplate());
+        filmStorage = new FilmDbStorage(jdbcTemplate, transactionTemplate, referenceData, eventStorage);
+        userStorage = new UserDbStorage(jdbcTemplate, transactionTemplate, referenceData, eventStorage);
         fillFilmDb();
     }
 
@@ -133,9 +139,7 @@ class FilmDbStorageSearchTest {
     void filmSortingByRateSingleLikeTest() {
         fillUserDb();
         directorStorage.update(new Director(2L, "Third son"));
-        Film film = filmStorage.getById(3L);
-        film.getRates().put(1L, 8);
-        filmStorage.updateFilm(film);
+        filmStorage.addRate(3L, 1L, 8);
         Collection<Film> searchResult = filmStorage.getSearchResult("tHirD", "title,director");
         assertEquals(3, searchResult.iterator().next().getId(), "Первым должен быть фильм с id = 3");
         assertEquals(8.0, searchResult.iterator().next().getAvgRate(), "Первым должен быть фильм с rate = 1");
@@ -145,13 +149,9 @@ class FilmDbStorageSearchTest {
     void filmSortingByRateMultipleLikesTest() {
         fillUserDb();
         directorStorage.update(new Director(2L, "Third son"));
-        Film film = filmStorage.getById(3L);
-        film.getRates().put(1L, 8);
-        filmStorage.updateFilm(film);
-        film = filmStorage.getById(2L);
-        film.getRates().put(1L, 9);
-        film.getRates().put(2L, 7);
-        filmStorage.updateFilm(film);
+        filmStorage.addRate(3L, 1L, 8);
+        filmStorage.addRate(2L, 1L, 9);
+        filmStorage.addRate(2L, 2L, 7);
         Collection<Film> searchResult = filmStorage.getSearchResult("tHirD", "title,director");
         assertEquals(2, searchResult.iterator().next().getId(), "Первым должен быть фильм с id = 2");
         assertEquals(8.0, searchResult.iterator().next().getAvgRate(), "Первым должен быть фильм с rate = 2");
@@ -6,19 +6,34 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.exceptions.ConflictException;
+import ru.yandex.practicum.filmorate.exceptions.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRanking;
+import ru.yandex.practicum.filmorate.model.FilmRate;
+import ru.yandex.practicum.filmorate.model.FilmSummary;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.RateChange;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.GenreStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -34,6 +49,8 @@ class FilmDbStorageTest {
     private final FilmService filmService;
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
+    private final EventStorage eventStorage;
+    private final DirectorStorage directorStorage;
 
     @Test
     void addFilm() {
@@ -62,6 +79,39 @@ class FilmDbStorageTest {
         Film filmFromDb = filmStorage.updateFilm(film);
         assertEquals(filmId.getId(), filmFromDb.getId());
         assertEquals(film.getName(), filmFromDb.getName());
+        assertEquals(1L, filmFromDb.getVersion());
+    }
+
+    @Test
+    void updateFilmWithStaleVersion() {
+        User user = new User("stale@mail.ru", "stale", LocalDate.of(2020, 1, 1));
+        user.setName("stale");
+        long userId = userStorage.addUser(user).getId();
+        Film film = new Film("First Movie", "First desc", LocalDate.of(2020, 3, 1), 120);
+        film.setMpa(new Mpa(1, null));
+        Film stored = filmStorage.addFilm(film);
+        assertEquals(0L, stored.getVersion());
+        filmStorage.addRate(stored.getId(), userId, 7);
+
+        Film stale = new Film("Stale Movie", "First desc", LocalDate.of(2020, 3, 1), 120);
+        stale.setId(stored.getId());
+        stale.setMpa(new Mpa(2, null));
+        stale.setVersion(0L);
+        assertThrows(ConflictException.class, () -> filmStorage.updateFilm(stale));
+        Film unchanged = filmStorage.getById(stored.getId());
+        assertEquals("First Movie", unchanged.getName());
+        assertEquals(Map.of(userId, 7), unchanged.getRates(), "Оценка, добавленная после чтения, не теряется");
+        assertEquals(1L, unchanged.getVersion());
+
+        stale.setVersion(1L);
+        assertEquals(2L, filmStorage.updateFilm(stale).getVersion());
+        stale.setVersion(null);
+        Film versionless = filmStorage.updateFilm(stale);
+        assertEquals(3L, versionless.getVersion());
+        assertEquals(Map.of(userId, 7), versionless.getRates(), "Обновление без версии не затирает оценки");
+        stale.setVersion(99L);
+        stale.setId(-1);
+        assertThrows(UserNotFoundException.class, () -> filmStorage.updateFilm(stale));
     }
 
     @Test
@@ -77,6 +127,60 @@ class FilmDbStorageTest {
         assertTrue(filmStorage.getAllFilms().stream().collect(Collectors.toMap(Film::getId, x -> x)).containsKey(filmFromDb1.getId()));
     }
 
+    @Test
+    void getFilmsPage() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Film film = new Film("Movie " + i, "desc", LocalDate.of(2020, 3, 1), 120);
+            film.setMpa(new Mpa(1, null));
+            ids.add(filmStorage.addFilm(film).getId());
+        }
+        List<Long> firstPage = filmStorage.getFilmsPage(0, 2).stream().map(Film::getId).collect(Collectors.toList());
+        assertEquals(ids.subList(0, 2), firstPage);
+        List<Long> secondPage = filmStorage.getFilmsPage(firstPage.get(1), 2).stream()
+                .map(Film::getId).collect(Collectors.toList());
+        assertEquals(ids.subList(2, 4), secondPage);
+        assertEquals(1, filmStorage.getFilmsPage(ids.get(3), 2).size());
+        assertTrue(filmStorage.getFilmsPage(ids.get(4), 2).isEmpty());
+
+        List<Long> exported = new ArrayList<>();
+        filmService.exportFilms(film -> exported.add(film.getId()));
+        assertEquals(ids, exported);
+    }
+
+    @Test
+    void getFilmSummariesAndRates() {
+        User user1 = new User("first@mail.ru", "first", LocalDate.of(2000, 1, 1));
+        user1.setName("first");
+        user1 = userStorage.addUser(user1);
+        User user2 = new User("second@mail.ru", "second", LocalDate.of(2000, 1, 1));
+        user2.setName("second");
+        user2 = userStorage.addUser(user2);
+        Film film = new Film("First Movie", "First desc", LocalDate.of(2020, 3, 1), 120);
+        film.setMpa(new Mpa(1, null));
+        film.getGenres().add(new Genre(2, null));
+        Director director = directorStorage.create(new Director(0L, "Director"));
+        film.getDirectors().add(director);
+        long filmId = filmStorage.addFilm(film).getId();
+        filmStorage.addRate(filmId, user1.getId(), 8);
+        filmStorage.addRate(filmId, user2.getId(), 5);
+
+        FilmSummary summary = filmStorage.getFilmSummariesByIds(List.of(filmId)).get(0);
+        assertEquals("First Movie", summary.getName());
+        assertEquals("G", summary.getMpa().getName());
+        assertEquals(Set.of(new Genre(2, "Драма")), summary.getGenres());
+        assertEquals(6.5, summary.getAvgRate());
+        assertEquals(2, summary.getRatingCount());
+        assertEquals(List.of(summary), filmStorage.getFilmSummaries(0, 10));
+        assertEquals(List.of(summary), filmStorage.getFilmSummariesForDirector(director.getId(), "likes"));
+        assertEquals(List.of(new FilmRanking(filmId, 2020, Set.of(2), 13, 2)), filmStorage.getFilmRankings());
+
+        assertEquals(List.of(new FilmRate(user1.getId(), 8)), filmStorage.getFilmRates(filmId, 0, 1));
+        assertEquals(List.of(new FilmRate(user2.getId(), 5)), filmStorage.getFilmRates(filmId, user1.getId(), 10));
+        assertEquals(List.of(new FilmRate(user1.getId(), 8), new FilmRate(user2.getId(), 5)),
+                filmService.getFilmRates(filmId, null, null));
+    }
+
     @Test
     void deleteFilm() {
         Film film = new Film("First Movie", "First desc", LocalDate.of(2020, 3, 1), 120);
@@ -102,6 +206,73 @@ class FilmDbStorageTest {
         assertNull(filmStorage.getById(-3));
     }
 
+    @Test
+    void addAndRemoveRateKeepsAverage() {
+        User user = new User("a@first.user", "login1", LocalDate.of(2020, 1, 1));
+        user.setName("name1");
+        long user1Id = userStorage.addUser(user).getId();
+        User user2 = new User("b@second.user", "login2", LocalDate.of(2020, 2, 2));
+        user2.setName("name2");
+        long user2Id = userStorage.addUser(user2).getId();
+        Film film = new Film("First Movie", "First desc", LocalDate.of(2019, 3, 1), 120);
+        film.setMpa(new Mpa(1, null));
+        long filmId = filmStorage.addFilm(film).getId();
+
+        assertNull(filmStorage.addRate(filmId, user1Id, 8));
+        assertNull(filmStorage.addRate(filmId, user2Id, 4));
+        assertEquals(6.0, filmStorage.getById(filmId).getAvgRate());
+
+        assertEquals(8, filmStorage.addRate(filmId, user1Id, 2));
+        assertEquals(3.0, filmStorage.getById(filmId).getAvgRate());
+
+        assertEquals(4, filmStorage.removeRate(filmId, user2Id));
+        assertNull(filmStorage.removeRate(filmId, user2Id));
+        Film filmFromDb = filmStorage.getById(filmId);
+        assertEquals(2.0, filmFromDb.getAvgRate());
+        assertEquals(Map.of(user1Id, 2), filmFromDb.getRates());
+
+        userStorage.deleteUser(userStorage.getById(user1Id));
+        filmFromDb = filmStorage.getById(filmId);
+        assertEquals(0.0, filmFromDb.getAvgRate());
+        assertTrue(filmFromDb.getRates().isEmpty());
+        assertNull(filmStorage.addRate(filmId, user2Id, 5));
+        assertEquals(5.0, filmStorage.getById(filmId).getAvgRate());
+    }
+
+    @Test
+    void saveRatesInBatch() {
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User user = new User("batch" + i + "@mail.ru", "batch" + i, LocalDate.of(2020, 1, 1));
+            user.setName("batch" + i);
+            userIds.add(userStorage.addUser(user).getId());
+        }
+        Film film = new Film("First Movie", "First desc", LocalDate.of(2019, 3, 1), 120);
+        film.setMpa(new Mpa(1, null));
+        long filmId = filmStorage.addFilm(film).getId();
+        filmStorage.addRate(filmId, userIds.get(0), 8);
+        filmStorage.addRate(filmId, userIds.get(1), 4);
+
+        List<RateChange> previous = filmStorage.saveRates(List.of(
+                new RateChange(filmId, userIds.get(0), 2),
+                new RateChange(filmId, userIds.get(1), null),
+                new RateChange(filmId, userIds.get(2), 6),
+                new RateChange(filmId, -1, 10),
+                new RateChange(-1, userIds.get(2), 10)), List.of(
+                new Event(0, userIds.get(0), filmId, 1L, EventTypes.RATE, EventOperations.ADD, 2),
+                new Event(0, userIds.get(2), -1, 1L, EventTypes.RATE, EventOperations.ADD, 10)));
+
+        assertEquals(Arrays.asList(new RateChange(filmId, userIds.get(0), 8), new RateChange(filmId, userIds.get(1), 4),
+                new RateChange(filmId, userIds.get(2), null), null, null), previous);
+        Film filmFromDb = filmStorage.getById(filmId);
+        assertEquals(Map.of(userIds.get(0), 2, userIds.get(2), 6), filmFromDb.getRates());
+        assertEquals(4.0, filmFromDb.getAvgRate());
+        assertEquals(6, filmStorage.getRate(filmId, userIds.get(2)));
+        assertNull(filmStorage.getRate(filmId, userIds.get(1)));
+        assertEquals(1, eventStorage.getUserEvents(userIds.get(0)).size());
+        assertTrue(eventStorage.getUserEvents(userIds.get(2)).isEmpty(), "Событие удалённого фильма пропускается");
+    }
+
     @Test
     void getTopFilms() {
         User user = new User("a@first.user", "login1", LocalDate.of(2020, 1, 1));
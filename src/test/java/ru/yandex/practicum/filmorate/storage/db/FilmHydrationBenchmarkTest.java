@@ -0,0 +1,182 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.db.migration.SchemaMigrator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сравнение загрузки фильмов одним JOIN по всем связанным таблицам (как было раньше)
+ * и пакетной загрузки через {@link FilmHydrator} на заполненной базе.
+ */
+@Slf4j
+class FilmHydrationBenchmarkTest {
+    private static final int FILMS = 300;
+    private static final int GENRES_PER_FILM = 3;
+    private static final int DIRECTORS_PER_FILM = 2;
+    private static final int RATES_PER_FILM = 40;
+    private static final int ITERATIONS = 5;
+
+    private static final String LEGACY_SELECT = "SELECT f.name AS f_name, description, " +
+            "release_date, duration, rate, f.version, f.film_id, m.mpa_id, m.mpa_name, g.genre_id, g.name, l.user_id, " +
+            "l.film_rate, d.director_id, d.director_name " +
+            "FROM film AS f " +
+            "LEFT JOIN mpa AS m ON f.mpa_id = m.mpa_id " +
+            "LEFT JOIN film_genre AS fg ON f.film_id = fg.film_id " +
+            "LEFT JOIN genre AS g ON fg.genre_id = g.genre_id " +
+            "LEFT JOIN film_rates AS l ON f.film_id = l.film_id " +
+            "LEFT JOIN director_film AS fd ON f.film_id = fd.film_id " +
+            "LEFT JOIN director AS d ON fd.director_id = d.director_id";
+
+    private EmbeddedDatabase embeddedDatabase;
+    private JdbcTemplate jdbcTemplate;
+    private FilmStorage filmStorage;
+
+    @BeforeEach
+    void initDb() {
+        embeddedDatabase = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("hydrationBenchmarkDb")
+                .build();
+        new SchemaMigrator(embeddedDatabase).migrate();
+        jdbcTemplate = new JdbcTemplate(embeddedDatabase);
+        NamedParameterJdbcTemplate namedJdbcTemplate = new NamedParameterJdbcTemplate(embeddedDatabase);
+        filmStorage = new FilmDbStorage(namedJdbcTemplate,
+                new TransactionTemplate(new DataSourceTransactionManager(embeddedDatabase)),
+                new ReferenceDataRegistry(namedJdbcTemplate), new EventDbStorage(jdbcTemplate));
+        seed();
+    }
+
+    @AfterEach
+    void releaseDb() {
+        embeddedDatabase.shutdown();
+    }
+
+    @Test
+    void batchedHydrationReadsSumOfChildRowsInsteadOfProduct() {
+        AtomicLong legacyRows = new AtomicLong();
+        List<Film> legacy = jdbcTemplate.query(LEGACY_SELECT, legacyExtractor(legacyRows));
+        Collection<Film> batched = filmStorage.getAllFilms();
+
+        long batchedRows = batched.size()
+                + count("film_genre") + count("director_film") + count("film_rates");
+        assertEquals((long) FILMS * GENRES_PER_FILM * DIRECTORS_PER_FILM * RATES_PER_FILM, legacyRows.get());
+        assertEquals(FILMS + (long) FILMS * (GENRES_PER_FILM + DIRECTORS_PER_FILM + RATES_PER_FILM), batchedRows);
+        assertTrue(batchedRows < legacyRows.get());
+        assertEquals(byId(legacy), byId(batched), "Оба способа должны возвращать одинаковые фильмы");
+
+        long legacyNanos = median(() -> jdbcTemplate.query(LEGACY_SELECT, legacyExtractor(new AtomicLong())));
+        long batchedNanos = median(filmStorage::getAllFilms);
+        log.info("Hydration of {} films: join rows={} median={}ms; batched rows={} median={}ms",
+                FILMS, legacyRows.get(), legacyNanos / 1_000_000, batchedRows, batchedNanos / 1_000_000);
+    }
+
+    private void seed() {
+        List<Object[]> films = new ArrayList<>();
+        List<Object[]> users = new ArrayList<>();
+        List<Object[]> directors = new ArrayList<>();
+        List<Object[]> filmGenres = new ArrayList<>();
+        List<Object[]> filmDirectors = new ArrayList<>();
+        List<Object[]> rates = new ArrayList<>();
+        for (long userId = 1; userId <= RATES_PER_FILM; userId++) {
+            users.add(new Object[]{userId, "user" + userId + "@mail.ru", "user" + userId, "name", "2000-01-01"});
+        }
+        for (long directorId = 1; directorId <= DIRECTORS_PER_FILM * 10; directorId++) {
+            directors.add(new Object[]{"Director " + directorId});
+        }
+        for (long filmId = 1; filmId <= FILMS; filmId++) {
+            films.add(new Object[]{filmId, "Film " + filmId, "desc", "2000-01-01", 100, 1 + filmId % 5});
+            for (int g = 0; g < GENRES_PER_FILM; g++) {
+                filmGenres.add(new Object[]{filmId, 1 + (filmId + g) % 6});
+            }
+            for (int d = 0; d < DIRECTORS_PER_FILM; d++) {
+                filmDirectors.add(new Object[]{1 + (filmId + d) % (DIRECTORS_PER_FILM * 10), filmId});
+            }
+            for (long userId = 1; userId <= RATES_PER_FILM; userId++) {
+                rates.add(new Object[]{filmId, userId, 1 + (filmId + userId) % 10});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (user_id, email, login, name, birthday) VALUES (?, ?, ?, ?, ?)", users);
+        jdbcTemplate.batchUpdate("INSERT INTO director (director_name) VALUES (?)", directors);
+        jdbcTemplate.batchUpdate("INSERT INTO film (film_id, name, description, release_date, duration, mpa_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", films);
+        jdbcTemplate.batchUpdate("INSERT INTO film_genre (film_id, genre_id) VALUES (?, ?)", filmGenres);
+        jdbcTemplate.batchUpdate("INSERT INTO director_film (director_id, film_id) VALUES (?, ?)", filmDirectors);
+        jdbcTemplate.batchUpdate("INSERT INTO film_rates (film_id, user_id, film_rate) VALUES (?, ?, ?)", rates);
+    }
+
+    private long count(String table) {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+        return count == null ? 0 : count;
+    }
+
+    private static Map<Long, Film> byId(Collection<Film> films) {
+        return films.stream().collect(Collectors.toMap(Film::getId, film -> film));
+    }
+
+    private static long median(Supplier<?> action) {
+        action.get();
+        long[] nanos = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            action.get();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[ITERATIONS / 2];
+    }
+
+    private static ResultSetExtractor<List<Film>> legacyExtractor(AtomicLong rows) {
+        return rs -> {
+            Map<Long, Film> filmMap = new LinkedHashMap<>();
+            while (rs.next()) {
+                rows.incrementAndGet();
+                long filmId = rs.getLong("film_id");
+                Film film = filmMap.get(filmId);
+                if (film == null) {
+                    film = new Film(rs.getString("f_name"), rs.getString("description"),
+                            rs.getDate("release_date").toLocalDate(), rs.getInt("duration"));
+                    film.setId(filmId);
+                    film.setAvgRate(rs.getDouble("rate"));
+                    film.setVersion(rs.getLong("version"));
+                    film.setMpa(MpaDbStorage.mpaMapper.mapRow(rs, 0));
+                    filmMap.put(filmId, film);
+                }
+                if (rs.getInt("genre_id") != 0) {
+                    film.getGenres().add(GenreDbStorage.genreMapper.mapRow(rs, 0));
+                }
+                if (rs.getLong("user_id") != 0 && rs.getInt("film_rate") != 0) {
+                    film.getRates().put(rs.getLong("user_id"), rs.getInt("film_rate"));
+                }
+                if (rs.getLong("director_id") != 0) {
+                    film.getDirectors().add(DirectorDbStorage.directorMapper.mapRow(rs, 0));
+                }
+            }
+            return new ArrayList<>(filmMap.values());
+        };
+    }
+}
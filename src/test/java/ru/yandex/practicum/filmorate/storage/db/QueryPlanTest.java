@@ -0,0 +1,329 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.RateChange;
+import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
+import ru.yandex.practicum.filmorate.storage.db.migration.SchemaMigrator;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Регрессия планов запросов: все запросы, которые выполняют хранилища из {@code storage.db},
+ * перехватываются и прогоняются через H2 EXPLAIN с теми же параметрами. Полный просмотр таблицы
+ * или индекса без условия допускается только для запросов из {@link #FULL_READS}, которые по смыслу
+ * читают всю таблицу, отдают первые строки отсортированного индекса или ищут по подстроке.
+ */
+@Slf4j
+class QueryPlanTest {
+    private static final Pattern FULL_SCAN = Pattern.compile("/\\* PUBLIC\\.(\\w+?)(\\.tableScan)? \\*/");
+    private static final Map<String, Set<String>> FULL_READS = Map.ofEntries(
+            Map.entry("SELECT director_id, director_name FROM director", Set.of("DIRECTOR")),
+            Map.entry("SELECT genre_id, name FROM genre", Set.of("GENRE")),
+            Map.entry("SELECT mpa_id, mpa_name FROM mpa", Set.of("MPA")),
+            Map.entry("SELECT user_id, film_id, film_rate FROM film_rates", Set.of("FILM_RATES")),
+            Map.entry("SELECT COUNT(*) FROM film_rates", Set.of("FILM_RATES")),
+            Map.entry("SELECT MAX(event_id) FROM event", Set.of("EVENT")),
+            Map.entry("LEFT JOIN REVIEW_LIKES rl ON r.ID = rl.REVIEW_ID GROUP BY r.ID ORDER BY useful DESC", Set.of("REVIEW")),
+            Map.entry("FROM users u LEFT JOIN user_friends f ON u.user_id = f.user_id", Set.of("USERS")),
+            Map.entry("FROM film AS f ORDER BY f.film_id", Set.of("FILM")),
+            Map.entry("FROM film AS f LEFT JOIN film_genre AS fg ON f.film_id = fg.film_id", Set.of("FILM")),
+            Map.entry("FROM film AS f ORDER BY f.rate DESC LIMIT", Set.of("FILM")),
+            Map.entry("WHERE f.name ILIKE", Set.of("FILM", "DIRECTOR")));
+
+    private EmbeddedDatabase embeddedDatabase;
+    private final Map<String, List<Object>> statements = new LinkedHashMap<>();
+
+    @BeforeEach
+    void initDb() {
+        embeddedDatabase = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("queryPlanDb")
+                .build();
+        new SchemaMigrator(embeddedDatabase).migrate();
+    }
+
+    @AfterEach
+    void releaseDb() {
+        embeddedDatabase.shutdown();
+    }
+
+    @Test
+    void storageQueriesDoNotScanTables() throws SQLException {
+        runStorageQueries(capturing(embeddedDatabase));
+
+        List<String> failures = new ArrayList<>();
+        try (Connection connection = embeddedDatabase.getConnection()) {
+            Map<String, String> indexTables = indexTables(connection);
+            for (Map.Entry<String, List<Object>> statement : statements.entrySet()) {
+                String sql = statement.getKey();
+                String plan = explain(connection, sql, statement.getValue());
+                log.debug("Plan for {}:\n{}", sql, plan);
+                Matcher matcher = FULL_SCAN.matcher(plan);
+                while (matcher.find()) {
+                    String table = matcher.group(2) != null ? matcher.group(1) : indexTables.get(matcher.group(1));
+                    if (!isFullRead(sql, table)) {
+                        failures.add(table + " is scanned by: " + sql + "\n" + plan);
+                    }
+                }
+            }
+        }
+        assertTrue(statements.size() > 40, "Запросы хранилищ должны быть перехвачены");
+        assertTrue(failures.isEmpty(), String.join("\n\n", failures));
+    }
+
+    private void runStorageQueries(DataSource dataSource) {
+        NamedParameterJdbcTemplate namedJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        JdbcTemplate jdbcTemplate = namedJdbcTemplate.getJdbcTemplate();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        ReferenceDataRegistry referenceData = new ReferenceDataRegistry(namedJdbcTemplate);
+        EventDbStorage eventStorage = new EventDbStorage(jdbcTemplate);
+        FilmDbStorage filmStorage = new FilmDbStorage(namedJdbcTemplate, transactionTemplate, referenceData,
+                eventStorage);
+        UserDbStorage userStorage = new UserDbStorage(namedJdbcTemplate, transactionTemplate, referenceData,
+                eventStorage);
+        DirectorDbStorage directorStorage = new DirectorDbStorage(namedJdbcTemplate, referenceData);
+        GenreDbStorage genreStorage = new GenreDbStorage(referenceData);
+        MpaDbStorage mpaStorage = new MpaDbStorage(referenceData);
+        ReviewDbStorage reviewStorage = new ReviewDbStorage(jdbcTemplate);
+
+        genreStorage.getAll();
+        genreStorage.getById(1);
+        mpaStorage.getAll();
+        mpaStorage.getById(1);
+
+        User user = userStorage.addUser(user("first"));
+        User friend = userStorage.addUser(user("second"));
+        userStorage.updateUser(user);
+        userStorage.getAllUsers();
+        userStorage.getUsersPage(0, 10);
+        userStorage.getById(user.getId());
+        userStorage.getFriendsList(user.getId());
+        userStorage.getCommonFriendsList(user.getId(), friend.getId());
+        userStorage.isExist(user.getId());
+        userStorage.removeFriend(user.getId(), friend.getId(), new Event(0, user.getId(), friend.getId(), 1L,
+                EventTypes.FRIEND, EventOperations.REMOVE, 0));
+        userStorage.addFriend(user.getId(), friend.getId(), new Event(0, user.getId(), friend.getId(), 1L,
+                EventTypes.FRIEND, EventOperations.ADD, 0));
+
+        Director director = directorStorage.create(new Director(0L, "Director"));
+        directorStorage.update(new Director(director.getId(), "Updated director"));
+        directorStorage.getAll();
+        directorStorage.getById(director.getId());
+
+        Film film = new Film("Film", "desc", LocalDate.of(2000, 1, 1), 100);
+        film.setMpa(new Mpa(1, null));
+        film.getGenres().add(new Genre(1, null));
+        film.getDirectors().add(director);
+        film.getRates().put(user.getId(), 7);
+        film = filmStorage.addFilm(film);
+        filmStorage.updateFilm(film);
+        filmStorage.addRate(film.getId(), friend.getId(), 5);
+        filmStorage.addRate(film.getId(), user.getId(), 9);
+        filmStorage.removeRate(film.getId(), friend.getId());
+        filmStorage.getRate(film.getId(), user.getId());
+        filmStorage.saveRates(List.of(new RateChange(film.getId(), user.getId(), 4),
+                new RateChange(film.getId(), friend.getId(), null)), List.of(new Event(0, user.getId(), film.getId(),
+                1L, EventTypes.RATE, EventOperations.ADD, 4)));
+        Film imported = new Film("Imported", "desc", LocalDate.of(2001, 1, 1), 90);
+        imported.setMpa(new Mpa(2, null));
+        imported.getGenres().add(new Genre(2, null));
+        imported.getDirectors().add(director);
+        imported.getRates().put(user.getId(), 6);
+        filmStorage.addFilms(List.of(imported));
+        User importedUser = user("imported");
+        importedUser.getFriends().put(user.getId(), "Requested");
+        userStorage.addUsers(List.of(importedUser));
+        filmStorage.getAllFilms();
+        filmStorage.getFilmsPage(0, 10);
+        filmStorage.getTopFilms(10, 0, 0);
+        filmStorage.getTopFilms(10, 1, 2000);
+        filmStorage.getTopFilms(10, 0, 2000);
+        filmStorage.getById(film.getId());
+        filmStorage.getFilmsByIds(List.of(film.getId()));
+        filmStorage.getFilmSummaries(0, 10);
+        filmStorage.getFilmSummariesByIds(List.of(film.getId()));
+        filmStorage.getFilmRates(film.getId(), 0, 10);
+        filmStorage.getFilmRankings();
+        filmStorage.getFilmSummariesForDirector(director.getId(), "likes");
+        filmStorage.getFilmSummariesForDirector(director.getId(), "year");
+        filmStorage.getSearchResult("fil", "title,director");
+        filmStorage.getCommonFilms(user.getId(), friend.getId());
+        filmStorage.isExist(film.getId());
+        userStorage.getRecommendations(user.getId());
+        userStorage.getFilmsRates();
+        userStorage.getRatingMatrix();
+        userStorage.getUserRates(user.getId());
+
+        Review review = reviewStorage.addReview(Review.builder()
+                .content("content")
+                .isPositive(true)
+                .userId(user.getId())
+                .filmId(film.getId())
+                .build());
+        review.setContent("updated");
+        reviewStorage.updateReview(review);
+        reviewStorage.likeReview(review.getReviewId(), friend.getId());
+        reviewStorage.deleteLike(review.getReviewId(), friend.getId());
+        reviewStorage.dislikeReview(review.getReviewId(), friend.getId());
+        reviewStorage.deleteDislike(review.getReviewId(), friend.getId());
+        reviewStorage.getReviews();
+        reviewStorage.getReviewById(review.getReviewId());
+        reviewStorage.getMostUsefulReviews(film.getId(), 10L);
+        reviewStorage.deleteReview(review.getReviewId());
+
+        eventStorage.addEvent(new Event(0, user.getId(), film.getId(), 1L, EventTypes.RATE, EventOperations.ADD, 9));
+        eventStorage.getUserEvents(user.getId());
+        eventStorage.getLastEventId();
+        eventStorage.getEventsAfter(0, EventTypes.RATE, 1000);
+
+        filmStorage.deleteFilm(film);
+        directorStorage.delete(director.getId());
+        userStorage.deleteUser(friend);
+    }
+
+    private static boolean isFullRead(String sql, String table) {
+        String normalized = sql.replaceAll("\\s+", " ");
+        return FULL_READS.entrySet().stream()
+                .anyMatch(entry -> normalized.contains(entry.getKey()) && entry.getValue().contains(table));
+    }
+
+    private static Map<String, String> indexTables(Connection connection) throws SQLException {
+        Map<String, String> tables = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT index_name, table_name FROM information_schema.indexes " +
+                     "WHERE table_schema = 'PUBLIC'")) {
+            while (rs.next()) {
+                tables.put(rs.getString("index_name"), rs.getString("table_name"));
+            }
+        }
+        return tables;
+    }
+
+    private static String explain(Connection connection, String sql, List<Object> params) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                statement.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                StringBuilder plan = new StringBuilder();
+                while (rs.next()) {
+                    plan.append(rs.getString(1));
+                }
+                return plan.toString();
+            }
+        }
+    }
+
+    private static User user(String login) {
+        User user = new User(login + "@mail.ru", login, LocalDate.of(2000, 1, 1));
+        user.setName(login);
+        return user;
+    }
+
+    /**
+     * Источник данных, запоминающий текст и параметры каждого выполненного запроса (кроме INSERT).
+     */
+    private DataSource capturing(DataSource dataSource) {
+        return new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                Connection connection = super.getConnection();
+                return proxy(Connection.class, connection, (method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof PreparedStatement) {
+                        return capture((PreparedStatement) result, (String) args[0]);
+                    }
+                    if (result instanceof Statement) {
+                        return capture((Statement) result);
+                    }
+                    return result;
+                });
+            }
+        };
+    }
+
+    private PreparedStatement capture(PreparedStatement statement, String sql) {
+        Map<Integer, Object> params = new TreeMap<>();
+        return proxy(PreparedStatement.class, statement, (method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                params.put((Integer) args[0], args[1]);
+            } else if (name.startsWith("execute") || name.equals("addBatch")) {
+                record(sql, new ArrayList<>(params.values()));
+            }
+            return invoke(statement, method, args);
+        });
+    }
+
+    private Statement capture(Statement statement) {
+        return proxy(Statement.class, statement, (method, args) -> {
+            if (method.getName().startsWith("execute") && args != null && args[0] instanceof String) {
+                record((String) args[0], List.of());
+            }
+            return invoke(statement, method, args);
+        });
+    }
+
+    private void record(String sql, List<Object> params) {
+        if (!sql.trim().toUpperCase().startsWith("INSERT")) {
+            statements.putIfAbsent(sql, params);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, Handler handler) {
+        return (T) Proxy.newProxyInstance(QueryPlanTest.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.handle(method, args));
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Throwable;
+    }
+}
@@ -0,0 +1,85 @@
+package ru.yandex.practicum.filmorate.storage.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.db.migration.SchemaMigrator;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ReferenceDataRegistryTest {
+    private EmbeddedDatabase embeddedDatabase;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    private ReferenceDataRegistry referenceData;
+    private DirectorDbStorage directorStorage;
+    private FilmDbStorage filmStorage;
+
+    @BeforeEach
+    void initDb() {
+        embeddedDatabase = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("referenceDataDb")
+                .build();
+        new SchemaMigrator(embeddedDatabase).migrate();
+        jdbcTemplate = new NamedParameterJdbcTemplate(embeddedDatabase);
+        referenceData = new ReferenceDataRegistry(jdbcTemplate);
+        directorStorage = new DirectorDbStorage(jdbcTemplate, referenceData);
+        filmStorage = new FilmDbStorage(jdbcTemplate,
+                new TransactionTemplate(new DataSourceTransactionManager(embeddedDatabase)), referenceData,
+                new EventDbStorage(jdbcTemplate.getJdbcTemplate()));
+    }
+
+    @AfterEach
+    void releaseDb() {
+        embeddedDatabase.shutdown();
+    }
+
+    @Test
+    void servesReferenceDataAndSharesInstancesWithFilms() {
+        assertEquals(6, referenceData.getGenres().size());
+        assertEquals(new Mpa(1, "G"), referenceData.getMpa(1).orElseThrow());
+        assertEquals(Optional.empty(), referenceData.getGenre(100));
+
+        Director director = directorStorage.create(new Director(0L, "Director"));
+        Film film = new Film("Film", "desc", LocalDate.of(2000, 1, 1), 100);
+        film.setMpa(new Mpa(1, null));
+        film.getGenres().add(new Genre(2, null));
+        film.getDirectors().add(director);
+        film = filmStorage.getById(filmStorage.addFilm(film).getId());
+
+        assertSame(referenceData.getMpa(1).orElseThrow(), film.getMpa());
+        assertSame(referenceData.getGenre(2).orElseThrow(), film.getGenres().iterator().next());
+        assertSame(referenceData.getDirector(director.getId()).orElseThrow(), film.getDirectors().iterator().next());
+    }
+
+    @Test
+    void followsDirectorWritesAndReloadsOnUnknownIds() {
+        Director director = directorStorage.create(new Director(0L, "Director"));
+        directorStorage.update(new Director(director.getId(), "Renamed"));
+        assertEquals(List.of(new Director(director.getId(), "Renamed")), directorStorage.getAll());
+        directorStorage.delete(director.getId());
+        assertEquals(List.of(), directorStorage.getAll());
+
+        jdbcTemplate.update("INSERT INTO director (director_name) VALUES ('Raw insert')", Map.of());
+        long rawId = director.getId() + 1;
+        assertEquals(Optional.empty(), referenceData.getDirector(rawId));
+        assertEquals("Raw insert", referenceData.resolveDirector(rawId).getName(),
+                "Неизвестный при сборке фильма id перечитывает справочник");
+    }
+}
@@ -1,14 +1,28 @@
 package ru.yandex.practicum.filmorate.storage.db;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.exceptions.ConflictException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.RatingMatrix;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.event.Event;
+import ru.yandex.practicum.filmorate.model.event.EventOperations;
+import ru.yandex.practicum.filmorate.model.event.EventTypes;
+import ru.yandex.practicum.filmorate.storage.EventStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -19,9 +33,16 @@ import static org.junit.jupiter.api.Assertions.*;
 class UserDbStorageTest {
 
     final UserStorage userStorage;
+    final FilmStorage filmStorage;
+    final EventStorage eventStorage;
 
-    public UserDbStorageTest(@Qualifier("UserDbStorage") UserStorage userStorage) {
+    @Autowired
+    public UserDbStorageTest(@Qualifier("UserDbStorage") UserStorage userStorage,
+                             @Qualifier("FilmDbStorage") FilmStorage filmStorage,
+                             EventStorage eventStorage) {
         this.userStorage = userStorage;
+        this.filmStorage = filmStorage;
+        this.eventStorage = eventStorage;
     }
 
     @Test
@@ -48,6 +69,21 @@ class UserDbStorageTest {
         userUp.setId(userFromDb.getId());
         User userFromDbUpdate = userStorage.updateUser(userUp);
         assertEquals("nameU", userFromDbUpdate.getName());
+        assertEquals(1L, userFromDbUpdate.getVersion());
+
+        userUp.setVersion(0L);
+        assertThrows(ConflictException.class, () -> userStorage.updateUser(userUp));
+        userUp.setVersion(1L);
+        assertEquals(2L, userStorage.updateUser(userUp).getVersion());
+
+        User friend = new User("friend@mail.ru", "friend", LocalDate.of(2020, 1, 1));
+        friend.setName("friend");
+        long friendId = userStorage.addUser(friend).getId();
+        userStorage.addFriend(userUp.getId(), friendId, friendEvent(userUp.getId(), friendId, EventOperations.ADD));
+        userUp.setVersion(null);
+        userUp.setFriends(Map.of());
+        assertEquals(Map.of(friendId, "Requested"), userStorage.updateUser(userUp).getFriends(),
+                "Обновление без версии не затирает друзей, добавленных после чтения");
     }
 
     @Test
@@ -58,6 +94,80 @@ class UserDbStorageTest {
         assertTrue(userStorage.getAllUsers().stream().collect(Collectors.toMap(User::getId, x -> x)).containsKey(userFromDb.getId()));
     }
 
+    @Test
+    void getUsersPage() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User user = new User("page" + i + "@mail.ru", "page" + i, LocalDate.of(2020, 1, 1));
+            user.setName("page" + i);
+            ids.add(userStorage.addUser(user).getId());
+        }
+        long userId = ids.get(0);
+        userStorage.addFriend(userId, ids.get(1), friendEvent(userId, ids.get(1), EventOperations.ADD));
+        userStorage.addFriend(userId, ids.get(2), friendEvent(userId, ids.get(2), EventOperations.ADD));
+
+        List<User> firstPage = new ArrayList<>(userStorage.getUsersPage(0, 2));
+        assertEquals(ids.subList(0, 2), firstPage.stream().map(User::getId).collect(Collectors.toList()));
+        assertEquals(2, firstPage.get(0).getFriends().size());
+        List<User> secondPage = new ArrayList<>(userStorage.getUsersPage(firstPage.get(1).getId(), 2));
+        assertEquals(List.of(ids.get(2)), secondPage.stream().map(User::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void addAndRemoveFriend() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User user = new User("friend" + i + "@mail.ru", "friend" + i, LocalDate.of(2020, 1, 1));
+            user.setName("friend" + i);
+            ids.add(userStorage.addUser(user).getId());
+        }
+        long userId = ids.get(0);
+        userStorage.addFriend(userId, ids.get(1), friendEvent(userId, ids.get(1), EventOperations.ADD));
+        userStorage.addFriend(userId, ids.get(2), friendEvent(userId, ids.get(2), EventOperations.ADD));
+        assertEquals(Map.of(ids.get(1), "Requested", ids.get(2), "Requested"),
+                userStorage.getById(userId).getFriends());
+
+        userStorage.removeFriend(userId, ids.get(1), friendEvent(userId, ids.get(1), EventOperations.REMOVE));
+        assertEquals(Map.of(ids.get(2), "Requested"), userStorage.getById(userId).getFriends());
+        assertEquals(3L, userStorage.getById(userId).getVersion(), "Каждая дружба увеличивает версию");
+        assertEquals(3, eventStorage.getUserEvents(userId).size());
+
+        assertThrows(DataIntegrityViolationException.class,
+                () -> userStorage.addFriend(userId, -1, friendEvent(userId, -1, EventOperations.ADD)));
+        assertEquals(3, eventStorage.getUserEvents(userId).size(), "Событие откатывается вместе с дружбой");
+    }
+
+    /**
+     * Событие неизвестного пользователя отклоняется базой уже после записи дружбы: дружба и версия
+     * откатываются вместе с ним.
+     */
+    @Test
+    void friendEdgeIsRolledBackWhenEventFails() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            User user = new User("rollback" + i + "@mail.ru", "rollback" + i, LocalDate.of(2020, 1, 1));
+            user.setName("rollback" + i);
+            ids.add(userStorage.addUser(user).getId());
+        }
+        long userId = ids.get(0);
+        long friendId = ids.get(1);
+        assertThrows(DataIntegrityViolationException.class,
+                () -> userStorage.addFriend(userId, friendId, friendEvent(-1, friendId, EventOperations.ADD)));
+        assertEquals(Map.of(), userStorage.getById(userId).getFriends());
+        assertEquals(0L, userStorage.getById(userId).getVersion());
+
+        userStorage.addFriend(userId, friendId, friendEvent(userId, friendId, EventOperations.ADD));
+        assertThrows(DataIntegrityViolationException.class,
+                () -> userStorage.removeFriend(userId, friendId, friendEvent(-1, friendId, EventOperations.REMOVE)));
+        assertEquals(Map.of(friendId, "Requested"), userStorage.getById(userId).getFriends());
+        assertEquals(1L, userStorage.getById(userId).getVersion());
+        assertEquals(1, eventStorage.getUserEvents(userId).size());
+    }
+
+    private static Event friendEvent(long userId, long friendId, EventOperations operation) {
+        return new Event(0, userId, friendId, 1L, EventTypes.FRIEND, operation, 0);
+    }
+
     @Test
     void getById() {
         User user = new User("id@.ru", "lid", LocalDate.of(2020, 1, 1));
@@ -80,4 +190,28 @@ class UserDbStorageTest {
         assertFalse(userStorage.getAllUsers().stream().collect(Collectors.toMap(User::getId, x -> x))
                 .containsKey(userFromDb.getId()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void getRatingMatrix() {
+        List<Long> userIds = new ArrayList<>();
+        List<Long> filmIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User user = new User("matrix" + i + "@mail.ru", "matrix" + i, LocalDate.of(2020, 1, 1));
+            user.setName("matrix" + i);
+            userIds.add(userStorage.addUser(user).getId());
+            Film film = new Film("Film " + i, "desc", LocalDate.of(2000, 1, 1), 100);
+            film.setMpa(new Mpa(1, null));
+            filmIds.add(filmStorage.addFilm(film).getId());
+        }
+        filmStorage.addRate(filmIds.get(2), userIds.get(0), 4);
+        filmStorage.addRate(filmIds.get(0), userIds.get(0), 8);
+        filmStorage.addRate(filmIds.get(1), userIds.get(2), 10);
+
+        RatingMatrix matrix = userStorage.getRatingMatrix();
+        assertEquals(3, matrix.size());
+        assertEquals(2, matrix.getUserCount());
+        assertEquals(userStorage.getUserRates(userIds.get(0)), matrix.getUserRates(userIds.get(0)));
+        assertEquals(Map.of(filmIds.get(1), 10), matrix.getUserRates(userIds.get(2)));
+        assertEquals(-1, matrix.indexOfUser(userIds.get(1)));
+    }
+}
@@ -0,0 +1,84 @@
+package ru.yandex.practicum.filmorate.storage.db.migration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SchemaMigratorTest {
+    private EmbeddedDatabase embeddedDatabase;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void initDb() {
+        embeddedDatabase = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("migrationDb")
+                .build();
+        jdbcTemplate = new JdbcTemplate(embeddedDatabase);
+    }
+
+    @AfterEach
+    void releaseDb() {
+        embeddedDatabase.shutdown();
+    }
+
+    @Test
+    void upgradesExistingDatabaseInPlace() throws SQLException {
+        try (Connection connection = embeddedDatabase.getConnection()) {
+            ScriptUtils.executeSqlScript(connection, new EncodedResource(
+                    new ClassPathResource("db/migration/V1__baseline.sql"), StandardCharsets.UTF_8));
+        }
+        jdbcTemplate.update("INSERT INTO users (user_id, email, login, name, birthday) " +
+                "VALUES (1, 'a@mail.ru', 'a', 'a', '2000-01-01'), (2, 'b@mail.ru', 'b', 'b', '2000-01-01')");
+        jdbcTemplate.update("INSERT INTO film (film_id, name, description, release_date, duration, mpa_id, rate) " +
+                "VALUES (1, 'film', 'desc', '2000-01-01', 100, 1, 0)");
+        jdbcTemplate.update("INSERT INTO film_rates (film_id, user_id, film_rate) VALUES (1, 1, 8), (1, 1, 8), (1, 2, 5)");
+        jdbcTemplate.update("INSERT INTO film_genre (film_id, genre_id) VALUES (1, 1), (1, 1), (1, 2)");
+        jdbcTemplate.update("INSERT INTO user_friends (user_id, friend_id, status) " +
+                "VALUES (1, 2, 'Requested'), (1, 2, 'Requested')");
+
+        assertEquals(4, new SchemaMigrator(embeddedDatabase).migrate());
+
+        assertEquals(2, count("film_rates"), "Дубликаты оценок удаляются");
+        assertEquals(2, count("film_genre"));
+        assertEquals(1, count("user_friends"));
+        Map<String, Object> film = jdbcTemplate.queryForMap("SELECT rating_sum, rating_count, rate, version FROM film");
+        assertEquals(13L, ((Number) film.get("rating_sum")).longValue());
+        assertEquals(2, ((Number) film.get("rating_count")).intValue());
+        assertEquals(6.5, ((Number) film.get("rate")).doubleValue());
+        assertEquals(0L, ((Number) film.get("version")).longValue());
+        assertEquals(6, count("genre"));
+        assertThrows(DuplicateKeyException.class,
+                () -> jdbcTemplate.update("INSERT INTO film_rates (film_id, user_id, film_rate) VALUES (1, 2, 3)"));
+    }
+
+    @Test
+    void appliesEachVersionOnce() {
+        SchemaMigrator migrator = new SchemaMigrator(embeddedDatabase);
+        assertEquals(4, migrator.migrate());
+        assertEquals(0, migrator.migrate());
+        assertEquals(4, count("schema_version"));
+        assertEquals(5, count("mpa"));
+    }
+
+    private long count(String table) {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.yandex.practicum.filmorate.storage.inmemory;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InMemoryUserStorageTest {
+
+    @Test
+    void readsRatesFromFilms() {
+        InMemoryFilmStorage filmStorage = new InMemoryFilmStorage();
+        InMemoryUserStorage userStorage = new InMemoryUserStorage(filmStorage);
+        long firstId = filmStorage.addFilm(new Film("First", "desc", LocalDate.of(2000, 1, 1), 100)).getId();
+        long secondId = filmStorage.addFilm(new Film("Second", "desc", LocalDate.of(2000, 1, 1), 100)).getId();
+        filmStorage.addRate(firstId, 1, 8);
+        filmStorage.addRate(secondId, 1, 6);
+        filmStorage.addRate(secondId, 2, 4);
+
+        assertEquals(Map.of(firstId, 8, secondId, 6), userStorage.getUserRates(1));
+        assertEquals(Map.of(secondId, 4), userStorage.getUserRates(2));
+        assertEquals(Map.of(), userStorage.getUserRates(3));
+        assertEquals(Map.of(1L, Map.of(firstId, 8, secondId, 6), 2L, Map.of(secondId, 4)),
+                userStorage.getFilmsRates());
+        assertEquals(3, userStorage.getRatingCount());
+    }
+}